@@ -0,0 +1,172 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 描画時にメモリを確保していないことを確認する
+ * <div>
+ *     大量の図形を実機のCanvasに描画し、描画中にスレッドが確保したオブジェクトの数を数える <br>
+ *     (初回の描画で作成するキャッシュは対象外とするため、事前に数回描画しておく) <br>
+ *     android.graphicsの実装が必要なため、端末上で実行する
+ * </div>
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawAllocationTest {
+    private static final int SHAPE_COUNT = 5000;
+    private static final int UNDO_COUNT = 500;
+    private static final float WORLD_SIZE = 5000;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int WARM_UP_FRAMES = 5;
+    private static final int FRAMES = 20;
+
+    /** 描画する図形の種類 (ShapeManagerでの番号 直線、四角形、折れ線) */
+    private static final int[] SHAPES = {0, 1, 5};
+    /** 折れ線 (ShapeManagerでの番号) */
+    private static final int POLYLINE = 5;
+    /** 描画中の折れ線の頂点の数 */
+    private static final int DRAWING_POINTS = 1000;
+
+    private ShapeManager shapeManager;
+    private Bitmap bitmap;
+    private Canvas canvas;
+
+    @Before
+    public void setUp() {
+        bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(bitmap);
+        shapeManager = new ShapeManager();
+        shapeManager.setSize(WIDTH, HEIGHT);
+
+        final Random random = new Random(1);
+        for (int i = 0; i < SHAPE_COUNT; i++) {
+            shapeManager.setShape(SHAPES[i % SHAPES.length]);
+            final float x = random.nextFloat() * WORLD_SIZE;
+            final float y = random.nextFloat() * WORLD_SIZE;
+            shapeManager.start(x, y);
+            shapeManager.move(x + random.nextFloat() * 100, y + random.nextFloat() * 100);
+            shapeManager.fix();
+        }
+        for (int i = 0; i < UNDO_COUNT; i++)
+            shapeManager.undo();
+    }
+
+    @After
+    public void tearDown() {
+        bitmap.recycle();
+    }
+
+    @Test
+    public void drawShapes() {
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                shapeManager.drawShapes(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void drawShapesLastHighlight() {
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                shapeManager.drawShapesLastHighlight(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void drawUndo() {
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                shapeManager.drawUndo(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void createAndRenderSnapshot() {
+        // 描画用スレッドでの描画と同じく、描画内容を使い回す
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        final ShapeSnapshot.Renderer renderer = new ShapeSnapshot.Renderer();
+        assertNoAllocation(new Runnable() {
+            @Override
+            public void run() {
+                shapeManager.createSnapshot(snapshot, true, false);
+                renderer.draw(canvas, snapshot);
+            }
+        });
+    }
+
+    @Test
+    public void createAndRenderSnapshotWhileDrawing() {
+        // 描画中の図形 (長い折れ線)を描画ごとに変更しても、複製のメモリを確保しない
+        shapeManager.setShape(POLYLINE);
+        for (int i = 0; i < DRAWING_POINTS; i++)
+            shapeManager.start(100 + i, 100 + (i % 2) * 50);
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        final ShapeSnapshot.Renderer renderer = new ShapeSnapshot.Renderer();
+        assertNoAllocation(new Runnable() {
+            private int frame = 0;
+
+            @Override
+            public void run() {
+                // タッチ位置の変更 (描画処理ではないため、数えない 頂点の数は変えない)
+                frame++;
+                shapeManager.move(100 + DRAWING_POINTS + frame, 100 + (frame % 2) * 50);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                shapeManager.createSnapshot(snapshot, true, false);
+                renderer.draw(canvas, snapshot);
+            }
+        });
+    }
+
+    /**
+     * 描画処理を繰り返し、オブジェクトを確保していないことを確認する
+     * @param frame 1回分の描画処理
+     */
+    private static void assertNoAllocation(Runnable frame) {
+        assertNoAllocation(null, frame);
+    }
+
+    /**
+     * 描画処理を繰り返し、オブジェクトを確保していないことを確認する
+     * @param input 描画の前に行う図形の操作 (確保数には含めない 無い場合、null)
+     * @param frame 1回分の描画処理
+     */
+    @SuppressWarnings("deprecation")  // スレッド単位で確保数を数える方法は他に無い
+    private static void assertNoAllocation(Runnable input, Runnable frame) {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            if (input != null)
+                input.run();
+            frame.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < FRAMES; i++) {
+            if (input != null)
+                input.run();
+            Debug.startAllocCounting();
+            frame.run();
+            Debug.stopAllocCounting();
+        }
+        assertEquals("allocated objects in " + FRAMES + " frames", 0, Debug.getThreadAllocCount());
+    }
+}
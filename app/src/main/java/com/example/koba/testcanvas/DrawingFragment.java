@@ -3,16 +3,22 @@ package com.example.koba.testcanvas;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipDescription;
 import android.content.ClipboardManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
@@ -22,6 +28,7 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -31,18 +38,19 @@ import android.widget.Button;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.koba.testcanvas.shape.DocumentSnapshot;
 import com.example.koba.testcanvas.shape.ShapeManager;
+import com.example.koba.testcanvas.shape.ShapeSnapshot;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
@@ -59,9 +67,15 @@ public class DrawingFragment extends Fragment {
     private Context context;
     private View view;
     private DrawingView drawingView;
+    /** 専用のスレッドでの描画用 */
+    private DrawingSurfaceView drawingSurfaceView;
+    /** 専用のスレッドで描画する場合、真 */
+    private boolean renderSurface = false;
+    /** 描画、タッチ時に参照する設定値 (表示中のみ変更を反映する) */
+    private final SettingManager.Snapshot settings = new SettingManager.Snapshot();
     private ShapeManager shapeManager;
     /** 操作モードのリスト */
-    private final List<State> stateList = Arrays.asList(State.DRAWING, State.TRANSFER, State.COPY, State.IDSETTING);
+    private final List<State> stateList = Arrays.asList(State.DRAWING, State.SELECT, State.LASSO, State.TRANSFER, State.COPY, State.IDSETTING);
     /** ファイル保存先ディレクトリ名 */
     private File saveDir;
     /** ファイル名の共通部分 */
@@ -70,6 +84,36 @@ public class DrawingFragment extends Fragment {
     private static final String INNER_SAVE_BASE_NAME = "innerdata.dat";
     /** 現在の操作モード */
     private State state = State.DRAWING;
+    /** 2本指での拡大縮小、表示位置の移動の検出 */
+    private ScaleGestureDetector scaleGestureDetector;
+    /** 表示範囲の変更中の場合、真 (全ての指を離すまで図形を操作しない) */
+    private boolean viewGesture = false;
+    /** 表示位置の移動量の基準 x座標 */
+    private float lastFocusX;
+    /** 表示位置の移動量の基準 y座標 */
+    private float lastFocusY;
+    /** タッチ位置の変換用 */
+    private final float[] touchPoint = new float[2];
+    /** タッチ位置の移動時の再描画範囲 */
+    private final Rect moveDirty = new Rect();
+    /** 低遅延モードの場合、真 (タッチ開始時に設定を読み込む) */
+    private boolean lowLatency = false;
+    /** 低遅延モード時のタッチ位置の予測 */
+    private final StrokePredictor strokePredictor = new StrokePredictor();
+    /** 予測したタッチ位置 */
+    private final float[] predictedPoint = new float[2];
+    /** 予測した位置までの時間の初期値 (ミリ秒) 遅延の計測結果が無い場合に使う */
+    private static final long DEFAULT_PREDICTION_HORIZON = 16;
+    /** 図形を選択する際の線からの距離の許容誤差 (dp) */
+    private static final float SELECT_TOLERANCE_DP = 8;
+    /** 選択中の図形の変更後の色 (R.array.selection_color_namesと同じ順) */
+    private static final int[] SELECTION_COLORS = {Color.BLACK, Color.RED, Color.GREEN, Color.BLUE, 0xffff00ff};
+    /** 格子状に複製する際の横、縦の数 (R.array.duplicate_grid_namesと同じ順) */
+    private static final int[][] DUPLICATE_GRIDS = {{2, 2}, {3, 3}, {5, 5}, {10, 10}};
+    /** 格子状に複製する際の図形の間隔 (図形の座標) */
+    private static final float DUPLICATE_GRID_GAP = 20;
+    /** タッチから描画までの遅延の計測 */
+    private LatencyMeter latencyMeter;
     /** パーミッション許可確認用 */
     private static final int REQUEST_PERMISSION = 1;
     /** Intent受け取り用 保存確認 */
@@ -85,6 +129,7 @@ public class DrawingFragment extends Fragment {
 
     private static final String BUNDLE_KEY_STATE = "DrawingFragmentState";
     private static final String BUNDLE_KEY_SHAPETYPE = "DrawingFragmentShapeType";
+    private static final String BUNDLE_KEY_VIEW_MATRIX = "DrawingFragmentViewMatrix";
 
     @Override
     public void onSaveInstanceState(@NonNull Bundle outState) {
@@ -93,6 +138,7 @@ public class DrawingFragment extends Fragment {
         outState.putSerializable(BUNDLE_KEY_STATE, state);
         Spinner spinner = view.findViewById(R.id.spinnerShapeType);
         outState.putInt(BUNDLE_KEY_SHAPETYPE, spinner.getSelectedItemPosition());
+        outState.putFloatArray(BUNDLE_KEY_VIEW_MATRIX, drawingView.getViewMatrixValues());
     }
 
     @Override
@@ -135,6 +181,8 @@ public class DrawingFragment extends Fragment {
         super.onViewCreated(view, savedInstanceState);
 
         drawingView = view.findViewById(R.id.DrawingView);
+        drawingSurfaceView = view.findViewById(R.id.DrawingSurfaceView);
+        latencyMeter = new LatencyMeter(getResources().getString(R.string.latency_format));
 
         int shapeTypePosition = 0;  // 図形選択位置
 
@@ -143,7 +191,11 @@ public class DrawingFragment extends Fragment {
             shapeManager.restoreInstanceState(savedInstanceState);
             state = (State) savedInstanceState.getSerializable(BUNDLE_KEY_STATE);
             shapeTypePosition = savedInstanceState.getInt(BUNDLE_KEY_SHAPETYPE);
+            final float[] viewMatrixValues = savedInstanceState.getFloatArray(BUNDLE_KEY_VIEW_MATRIX);
+            if (viewMatrixValues != null)
+                drawingView.setViewMatrixValues(viewMatrixValues);
         }
+        shapeManager.setViewMatrix(drawingView.getViewMatrix());
 
         // 各種イベントの設定
 
@@ -234,23 +286,95 @@ public class DrawingFragment extends Fragment {
             }
         });
 
+        // 2本指での操作時
+        scaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScaleBegin(ScaleGestureDetector detector) {
+                lastFocusX = detector.getFocusX();
+                lastFocusY = detector.getFocusY();
+                return true;
+            }
+
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                final float focusX = detector.getFocusX();
+                final float focusY = detector.getFocusY();
+                drawingView.translateBy(focusX - lastFocusX, focusY - lastFocusY);
+                drawingView.scaleBy(detector.getScaleFactor(), focusX, focusY);
+                lastFocusX = focusX;
+                lastFocusY = focusY;
+                updateViewMatrix();
+                return true;
+            }
+        });
+
         // タッチ関係時
         drawingView.setOnTouchListener(new View.OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
-                final float x = event.getX();
-                final float y = event.getY();
+                scaleGestureDetector.onTouchEvent(event);
+                final int action = event.getActionMasked();
+                if (action == MotionEvent.ACTION_POINTER_DOWN) {
+                    // 2本目の指が触れた時点で表示範囲の変更とする
+                    viewGesture = true;
+                    shapeManager.fix();
+                    drawingView.invalidateOnFrame(shapeManager.clearPrediction());
+                    drawingView.invalidateOnFrame(shapeManager.cancelSelection());
+                    return true;
+                }
+                if (viewGesture) {
+                    if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+                        viewGesture = false;
+                    return true;
+                }
+
+                // 図形の座標に変換する
+                touchPoint[0] = event.getX();
+                touchPoint[1] = event.getY();
+                drawingView.mapToWorld(touchPoint);
+                final float x = touchPoint[0];
+                final float y = touchPoint[1];
 
-                switch (event.getAction()) {
+                // 遅延の計測 (まとめられたイベントは最も古い時刻とする)
+                latencyMeter.onInput((event.getHistorySize() > 0) ? event.getHistoricalEventTime(0) : event.getEventTime());
+
+                switch (action) {
                     case MotionEvent.ACTION_DOWN:  // タッチした
-                        touchDown(v, x, y);
+                        lowLatency = settings.inputLowLatency;
+                        if (lowLatency) {
+                            // 入力をフレーム単位でまとめずに即座に受け取る
+                            v.requestUnbufferedDispatch(event);
+                            strokePredictor.reset();
+                            strokePredictor.add(event.getEventTime(), x, y);
+                        }
+                        touchDown(x, y);
                         break;
                     case MotionEvent.ACTION_MOVE:  // タッチ後に移動した
-                        touchMove(v, x, y);
+                        // 前回のイベントからの途中の位置も順に反映し、再描画はまとめて行う
+                        moveDirty.setEmpty();
+                        for (int i = 0; i < event.getHistorySize(); i++) {
+                            touchPoint[0] = event.getHistoricalX(i);
+                            touchPoint[1] = event.getHistoricalY(i);
+                            drawingView.mapToWorld(touchPoint);
+                            unionDirty(moveDirty, touchMove(touchPoint[0], touchPoint[1]));
+                            if (lowLatency)
+                                strokePredictor.add(event.getHistoricalEventTime(i), touchPoint[0], touchPoint[1]);
+                        }
+                        unionDirty(moveDirty, touchMove(x, y));
+                        if (lowLatency) {
+                            strokePredictor.add(event.getEventTime(), x, y);
+                            unionDirty(moveDirty, updatePrediction(x, y));
+                        }
+                        drawingView.invalidateOnFrame(moveDirty);
                         break;
                     case MotionEvent.ACTION_UP:  // タッチ後に指をはなした
+                        drawingView.invalidateOnFrame(shapeManager.clearPrediction());
                         touchUp(v, x, y);
                         break;
+                    case MotionEvent.ACTION_CANCEL:  // タッチが取り消された (親のビューがイベントを奪った場合など)
+                        drawingView.invalidateOnFrame(shapeManager.clearPrediction());
+                        touchCancel();
+                        break;
                     default:
                         return false;
                 }
@@ -263,48 +387,99 @@ public class DrawingFragment extends Fragment {
         drawingView.setOnDrawListener(new DrawingView.OnDrawListener() {
             @Override
             public void onDraw(Canvas canvas) {
+                latencyMeter.onFrame();
+
                 // 使用不可能なボタンは無効にする
                 buttonUndo.setEnabled(shapeManager.canUndo());
                 buttonRedo.setEnabled(shapeManager.canRedo());
 
-                // 戻るした図形の表示
-                if (SettingManager.getShapeAppearanceUndo(context))
-                    shapeManager.drawUndo(canvas);
-                // 移動時の対象図形の強調
-                if (state == State.TRANSFER && SettingManager.getShapeAppearanceTransfer(context))
-                    shapeManager.drawShapesLastHighlight(canvas);
-                else
-                    shapeManager.drawShapes(canvas);
+                final boolean showUndo = settings.shapeAppearanceUndo;
+                final boolean highlight = (state == State.TRANSFER && settings.shapeAppearanceTransfer)
+                        || state == State.SELECT || state == State.LASSO;
+                if (renderSurface) {
+                    // 描画内容を渡し、専用のスレッドで描画する
+                    final ShapeSnapshot snapshot = drawingSurfaceView.obtainSnapshot();
+                    shapeManager.createSnapshot(snapshot, showUndo, highlight);
+                    drawingSurfaceView.render(snapshot);
+                } else {
+                    // 戻るした図形の表示
+                    if (showUndo)
+                        shapeManager.drawUndo(canvas);
+                    // 選択、移動時の対象図形の強調
+                    if (highlight)
+                        shapeManager.drawShapesLastHighlight(canvas);
+                    else
+                        shapeManager.drawShapes(canvas);
+                }
+
+                if (settings.inputShowLatency)
+                    latencyMeter.draw(canvas);
             }
         });
     }
 
-    private void touchDown(View v, float x, float y) {
+    @Override
+    public void onResume() {
+        super.onResume();
+        // 設定画面から戻った場合に設定を読み込み直し、描画方式を反映する
+        settings.register(context);
+        renderSurface = settings.renderSurface;
+        drawingSurfaceView.setVisibility(renderSurface ? View.VISIBLE : View.GONE);
+        shapeManager.setSnapshotRendering(renderSurface);
+        shapeManager.setGeometryArenaEnabled(SettingManager.getRenderGeometryArena(context));
+        drawingView.invalidate();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        settings.unregister();
+    }
+
+    private void touchDown(float x, float y) {
+        Rect dirty = null;  // 再描画範囲
         switch (state) {
             case DRAWING:
-                shapeManager.start(x, y);
+                dirty = shapeManager.start(x, y);
+                break;
+            case SELECT:
+                shapeManager.startSelection(x, y, false);
+                break;
+            case LASSO:
+                shapeManager.startSelection(x, y, true);
                 break;
             case TRANSFER:
                 shapeManager.preTransfer(x, y);
                 break;
             case COPY:
-                shapeManager.copy(x, y);
+                dirty = shapeManager.copy(x, y);
                 shapeManager.preTransfer(x, y);
                 break;
             case IDSETTING:
                 inputAttrId();
                 break;
         }
-        v.invalidate();  // 再描画
+        drawingView.invalidateOnFrame(dirty);  // 再描画
     }
 
-    private void touchMove(View v, float x, float y) {
+    /**
+     * タッチ位置の移動を反映する
+     * @param x タッチ位置のx座標 (図形の座標)
+     * @param y タッチ位置のy座標 (図形の座標)
+     * @return 再描画範囲 (再描画不要の場合、null)
+     */
+    private Rect touchMove(float x, float y) {
+        Rect dirty = null;  // 再描画範囲
         switch (state) {
             case DRAWING:
-                shapeManager.move(x, y);
+                dirty = shapeManager.move(x, y);
+                break;
+            case SELECT:
+            case LASSO:
+                dirty = shapeManager.moveSelection(x, y);
                 break;
             case TRANSFER:
-                shapeManager.transfer(x, y);
+                dirty = shapeManager.transfer(x, y);
                 break;
             case COPY:
                 setState(State.TRANSFER);  // 複製後は移動する
@@ -313,7 +488,36 @@ public class DrawingFragment extends Fragment {
                 // 何もしない
                 break;
         }
-        v.invalidate();
+        return dirty;
+    }
+
+    /**
+     * 予測したタッチ位置への仮の線を更新する (低遅延モード時)
+     * @param x 現在のタッチ位置のx座標 (図形の座標)
+     * @param y 現在のタッチ位置のy座標 (図形の座標)
+     * @return 再描画範囲
+     */
+    private Rect updatePrediction(float x, float y) {
+        // 描画中の図形の先端のみ予測する
+        if (state != State.DRAWING)
+            return shapeManager.clearPrediction();
+
+        // 計測した遅延分だけ先を予測する
+        final float latency = latencyMeter.getAverage();
+        final long horizon = (latency < 0) ? DEFAULT_PREDICTION_HORIZON : (long) latency;
+        if (!strokePredictor.predict(horizon, predictedPoint))
+            return shapeManager.clearPrediction();
+        return shapeManager.setPrediction(x, y, predictedPoint[0], predictedPoint[1]);
+    }
+
+    /**
+     * 再描画範囲を合わせる
+     * @param dirty 合わせた範囲の格納先
+     * @param add 追加する範囲 (nullの場合、何もしない)
+     */
+    private static void unionDirty(Rect dirty, Rect add) {
+        if (add != null)
+            dirty.union(add);
     }
 
     private void touchUp(View v, float x, float y) {
@@ -321,6 +525,12 @@ public class DrawingFragment extends Fragment {
             case DRAWING:
                 // 何もしない
                 break;
+            case SELECT:
+            case LASSO:
+                // タップの場合は1つ、ドラッグの場合は範囲内の全ての図形を選択する
+                shapeManager.endSelection(SELECT_TOLERANCE_DP * getResources().getDisplayMetrics().density);
+                drawingView.invalidate();  // 強調する図形が変わるため、全体を再描画する
+                break;
             case TRANSFER:
                 // 何もしない
                 break;
@@ -333,6 +543,41 @@ public class DrawingFragment extends Fragment {
         }
     }
 
+    /**
+     * タッチの取り消しを反映する
+     * <div>
+     *     複数選択の範囲の指定中の場合、範囲を消して図形は選択しない
+     * </div>
+     */
+    private void touchCancel() {
+        switch (state) {
+            case DRAWING:
+                // 何もしない
+                break;
+            case SELECT:
+            case LASSO:
+                drawingView.invalidateOnFrame(shapeManager.cancelSelection());
+                break;
+            case TRANSFER:
+                // 何もしない
+                break;
+            case COPY:
+                setState(State.TRANSFER);  // 複製した図形は残るため、指をはなした場合と同じく移動にする
+                break;
+            case IDSETTING:
+                // 何もしない
+                break;
+        }
+    }
+
+    /**
+     * 表示範囲の変更を反映する
+     */
+    private void updateViewMatrix() {
+        shapeManager.setViewMatrix(drawingView.getViewMatrix());
+        drawingView.invalidate();
+    }
+
     /**
      * ID属性の入力を求める
      */
@@ -392,6 +637,19 @@ public class DrawingFragment extends Fragment {
             case R.id.menu_undo_all:
                 undoAll();
                 return true;
+            case R.id.menu_delete_selection:
+                deleteSelection();
+                return true;
+            case R.id.menu_recolor_selection:
+                selectRecolor();
+                return true;
+            case R.id.menu_duplicate_grid:
+                selectDuplicateGrid();
+                return true;
+            case R.id.menu_reset_view:
+                drawingView.resetViewMatrix();
+                updateViewMatrix();
+                return true;
             case R.id.menu_setting:
                 setting();
                 return true;
@@ -534,36 +792,62 @@ public class DrawingFragment extends Fragment {
 
     /**
      * 絵をファイルに書き込む
+     * <div>
+     *     書き込み中も描画を続けられるように、文書のスナップショットを別スレッドで書き込む
+     * </div>
      * @param outputPath 出力先
      */
-    private void writeTo(File outputPath) {
-        boolean wrote = false;
-        try (final FileOutputStream stream = new FileOutputStream(outputPath, false);
-             final OutputStreamWriter ow = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
-             final BufferedWriter writer = new BufferedWriter(ow)) {
-            wrote = shapeManager.writeTo(writer);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void writeTo(final File outputPath) {
+        final DocumentSnapshot snapshot = shapeManager.createDocumentSnapshot();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean wrote = false;
+                try (final FileOutputStream stream = new FileOutputStream(outputPath, false);
+                     final OutputStreamWriter ow = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+                     final BufferedWriter writer = new BufferedWriter(ow)) {
+                    wrote = snapshot.writeTo(writer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
 
-        if (wrote)
-            show(String.format("保存しました %s", outputPath.getName()));
-        else
-            show("ファイル書き込みに失敗しました");
+                final boolean result = wrote;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        snapshot.release();
+                        if (!isAdded())
+                            return;
+                        if (result)
+                            show(String.format("保存しました %s", outputPath.getName()));
+                        else
+                            show("ファイル書き込みに失敗しました");
+                    }
+                });
+            }
+        }).start();
     }
 
     /**
      * 内部データを内部領域に保存する
+     * <div>
+     *     書き込みに失敗した場合に以前の内部データを失わないように、一時ファイルに書き込んでから置き換える
+     * </div>
      */
     private void saveInnerData() {
         final File innerDataFile = getInnerDataFile();
-        try (final FileOutputStream fs = new FileOutputStream(innerDataFile, false);
+        final File tempFile = new File(innerDataFile.getPath() + ".tmp");
+        try (final FileOutputStream fs = new FileOutputStream(tempFile, false);
              final BufferedOutputStream buffer = new BufferedOutputStream(fs);
-             final ObjectOutputStream stream = new ObjectOutputStream(buffer)) {
+             final DataOutputStream stream = new DataOutputStream(buffer)) {
             shapeManager.saveInnerData(stream);
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        if (!tempFile.renameTo(innerDataFile))
+            tempFile.delete();  // 置き換えに失敗した場合、以前の内部データを残す
     }
 
     /**
@@ -573,10 +857,10 @@ public class DrawingFragment extends Fragment {
         final File innerDataFile = getInnerDataFile();
         if (!innerDataFile.exists())
             return;
+        // 以前の形式 (Javaのシリアライズ)の場合も読み込める
         try (final FileInputStream fs = new FileInputStream(innerDataFile);
-             final BufferedInputStream buffer = new BufferedInputStream(fs);
-             final ObjectInputStream stream = new ObjectInputStream(buffer)) {
-            shapeManager.restoreInnerData(stream);
+             final BufferedInputStream buffer = new BufferedInputStream(fs)) {
+            shapeManager.restoreInnerData(buffer);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -650,6 +934,52 @@ public class DrawingFragment extends Fragment {
         drawingView.invalidate();
     }
 
+    /**
+     * 選択中の図形を削除する
+     */
+    private void deleteSelection() {
+        if (shapeManager.getSelectedCount() == 0) {
+            show("図形が選択されていません");
+            return;
+        }
+        drawingView.invalidateOnFrame(shapeManager.deleteSelection());
+    }
+
+    /**
+     * 選択中の図形の変更後の色を選ぶ
+     */
+    private void selectRecolor() {
+        if (shapeManager.getSelectedCount() == 0) {
+            show("図形が選択されていません");
+            return;
+        }
+        final AlertDialog.Builder builder = new AlertDialog.Builder(context);
+        builder.setTitle(R.string.menu_recolor_selection);
+        builder.setItems(R.array.selection_color_names, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                drawingView.invalidateOnFrame(shapeManager.recolorSelection(SELECTION_COLORS[which]));
+            }
+        });
+        builder.show();
+    }
+
+    /**
+     * 操作の対象の図形を格子状に複製する数を選ぶ
+     */
+    private void selectDuplicateGrid() {
+        final AlertDialog.Builder builder = new AlertDialog.Builder(context);
+        builder.setTitle(R.string.menu_duplicate_grid);
+        builder.setItems(R.array.duplicate_grid_names, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                final int[] grid = DUPLICATE_GRIDS[which];
+                drawingView.invalidateOnFrame(shapeManager.duplicateGrid(grid[0], grid[1], DUPLICATE_GRID_GAP));
+            }
+        });
+        builder.show();
+    }
+
     /**
      * 設定画面の表示
      */
@@ -695,6 +1025,10 @@ public class DrawingFragment extends Fragment {
     private enum State {
         /** 図形描画モード */
         DRAWING(R.string.button_state_draw),
+        /** 図形選択モード (移動、複製、ID属性設定の対象を選ぶ タップで1つ、矩形のドラッグで複数選択する) */
+        SELECT(R.string.button_state_select),
+        /** 図形投げ縄選択モード (囲んだ図形を複数選択する) */
+        LASSO(R.string.button_state_lasso),
         /** 図形移動モード */
         TRANSFER(R.string.button_state_transfer),
         /** 図形複製モード */
@@ -0,0 +1,149 @@
+package com.example.koba.testcanvas;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.example.koba.testcanvas.shape.ShapeSnapshot;
+
+import java.util.ArrayDeque;
+
+/**
+ * 専用のスレッドで図形を描画するView
+ * <div>
+ *     UIスレッドで作成した描画内容 (ShapeSnapshot)を受け取り、
+ *     描画用スレッドでlockCanvas() unlockCanvasAndPost()により描画する <br>
+ *     描画内容が描画中に複数回渡された場合、最新のもののみ描画する <br>
+ *     描画内容は描画ごとに作成せず、描画し終わったもの、描画しなかったものを再利用する
+ *     (描画中、描画待ち、作成中の最大3つを使い回す)
+ * </div>
+ */
+public class DrawingSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+    private HandlerThread renderThread = null;
+    private Handler renderHandler = null;
+    /** 描画用スレッドでのみ使用する */
+    private final ShapeSnapshot.Renderer renderer = new ShapeSnapshot.Renderer();
+    /** 以下の描画内容の受け渡し用 */
+    private final Object lock = new Object();
+    /** 未描画の最新の描画内容 (無い場合、null) */
+    private ShapeSnapshot pending = null;
+    /** 描画用スレッドが描画中、または最後に描画した描画内容 (Surfaceの変更時に描画し直す) */
+    private ShapeSnapshot drawn = null;
+    /** 再利用できる描画内容 */
+    private final ArrayDeque<ShapeSnapshot> freeSnapshots = new ArrayDeque<>();
+    private int backgroundColor;
+
+    /** 描画用スレッドでの描画処理 */
+    private final Runnable renderTask = new Runnable() {
+        @Override
+        public void run() {
+            final ShapeSnapshot current;
+            synchronized (lock) {
+                if (pending != null) {
+                    if (drawn != null)
+                        freeSnapshots.add(drawn);
+                    drawn = pending;
+                    pending = null;
+                }
+                current = drawn;
+            }
+            final SurfaceHolder holder = getHolder();
+            final Canvas canvas = holder.lockCanvas();
+            if (canvas == null)
+                return;  // Surfaceが破棄された
+            try {
+                // ダブルバッファのため、前回の描画内容は残っていない前提で全体を描画する
+                canvas.drawColor(backgroundColor);
+                if (current != null)
+                    renderer.draw(canvas, current);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+        }
+    };
+
+    public DrawingSurfaceView(Context context) {
+        super(context);
+        init(context);
+    }
+    public DrawingSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+    public DrawingSurfaceView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        backgroundColor = ContextCompat.getColor(context, R.color.drawingBackground);
+        getHolder().addCallback(this);
+    }
+
+    /**
+     * 内容を設定する描画内容を返す (UIスレッドから呼び出す)
+     * @return 描画用スレッドが使っていない描画内容 (render()で渡すこと)
+     */
+    ShapeSnapshot obtainSnapshot() {
+        synchronized (lock) {
+            final ShapeSnapshot snapshot = freeSnapshots.poll();
+            return (snapshot != null) ? snapshot : new ShapeSnapshot();
+        }
+    }
+
+    /**
+     * 描画内容を描画する (UIスレッドから呼び出す)
+     * @param snapshot 描画内容 (obtainSnapshot()で取得したもの 以降は変更しないこと)
+     */
+    void render(ShapeSnapshot snapshot) {
+        synchronized (lock) {
+            // 描画前に次の描画内容が渡された場合、描画せずに再利用する
+            if (pending != null)
+                freeSnapshots.add(pending);
+            pending = snapshot;
+        }
+        requestRender();
+    }
+
+    /**
+     * 最新の描画内容の描画を予約する
+     */
+    private void requestRender() {
+        if (renderHandler == null)
+            return;  // Surfaceの作成後に描画する
+        // 未描画の予約がある場合、まとめる
+        renderHandler.removeCallbacks(renderTask);
+        renderHandler.post(renderTask);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new HandlerThread("DrawingSurfaceRender");
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        requestRender();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        // 戻った時点でSurfaceが使えなくなるため、描画用スレッドの終了を待つ
+        renderHandler.removeCallbacks(renderTask);
+        renderThread.quitSafely();
+        try {
+            renderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        renderThread = null;
+        renderHandler = null;
+    }
+}
@@ -2,16 +2,46 @@ package com.example.koba.testcanvas;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
 import java.util.EventListener;
 
 /**
  * onDraw()時のイベントリスナーを追加したView
+ * <div>
+ *     拡大縮小、表示位置の移動用の変換行列を持つ <br>
+ *     (変換自体は描画する側で行う)
+ * </div>
  */
 public class DrawingView extends View {
     OnDrawListener onDrawListener;
+    /** 拡大率の下限 */
+    private static final float MIN_SCALE = 0.1f;
+    /** 拡大率の上限 */
+    private static final float MAX_SCALE = 20f;
+    /** 図形の座標から画面の座標への変換 */
+    private final Matrix viewMatrix = new Matrix();
+    /** 画面の座標から図形の座標への変換 */
+    private final Matrix inverseMatrix = new Matrix();
+    private final float[] matrixValues = new float[9];
+    /** 次のフレームで再描画する範囲 */
+    private final Rect pendingDirty = new Rect();
+    /** 次のフレームでの再描画を予約済みの場合、真 */
+    private boolean framePosted = false;
+    /** フレームごとの再描画 (予約された範囲をまとめて再描画する) */
+    private final Choreographer.FrameCallback invalidateCallback = new Choreographer.FrameCallback() {
+        @Override
+        @SuppressWarnings("deprecation")  // API 28で非推奨 (ハードウェアアクセラレーション時は範囲指定が無視される)
+        public void doFrame(long frameTimeNanos) {
+            framePosted = false;
+            invalidate(pendingDirty);
+            pendingDirty.setEmpty();
+        }
+    };
 
     public DrawingView(Context context) {
         super(context);
@@ -38,10 +68,104 @@ public class DrawingView extends View {
             onDrawListener.onDraw(canvas);
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (framePosted) {
+            Choreographer.getInstance().removeFrameCallback(invalidateCallback);
+            framePosted = false;
+            pendingDirty.setEmpty();
+        }
+    }
+
     void setOnDrawListener(OnDrawListener onDrawListener) {
         this.onDrawListener = onDrawListener;
     }
 
+    /**
+     * 次のフレームで指定の範囲を再描画する
+     * <div>
+     *     1フレームの間に複数回呼び出された場合、範囲を合わせて1回だけ再描画する
+     * </div>
+     * @param dirty 再描画範囲 (nullまたは空の場合、何もしない)
+     */
+    void invalidateOnFrame(Rect dirty) {
+        if (dirty == null || dirty.isEmpty())
+            return;
+        pendingDirty.union(dirty);
+        if (framePosted)
+            return;
+        Choreographer.getInstance().postFrameCallback(invalidateCallback);
+        framePosted = true;
+    }
+
+    /**
+     * 図形の座標から画面の座標への変換を返す
+     * @return 変換行列 (変更しないこと)
+     */
+    Matrix getViewMatrix() {
+        return viewMatrix;
+    }
+
+    /**
+     * 変換行列の値を返す (状態保存用)
+     * @return 変換行列の値
+     */
+    float[] getViewMatrixValues() {
+        final float[] values = new float[9];
+        viewMatrix.getValues(values);
+        return values;
+    }
+
+    /**
+     * 変換行列の値を設定する (状態復元用)
+     * @param values 変換行列の値
+     */
+    void setViewMatrixValues(float[] values) {
+        viewMatrix.setValues(values);
+        viewMatrix.invert(inverseMatrix);
+    }
+
+    /**
+     * 変換を初期状態 (等倍、移動なし)に戻す
+     */
+    void resetViewMatrix() {
+        viewMatrix.reset();
+        inverseMatrix.reset();
+    }
+
+    /**
+     * 指定の位置を中心に拡大縮小する
+     * @param factor 拡大率 (現在の拡大率に対する倍率)
+     * @param focusX 中心のx座標 (画面の座標)
+     * @param focusY 中心のy座標 (画面の座標)
+     */
+    void scaleBy(float factor, float focusX, float focusY) {
+        viewMatrix.getValues(matrixValues);
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        final float newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        viewMatrix.postScale(newScale / scale, newScale / scale, focusX, focusY);
+        viewMatrix.invert(inverseMatrix);
+    }
+
+    /**
+     * 表示位置を移動する
+     * @param dx x軸方向の移動量 (画面の座標)
+     * @param dy y軸方向の移動量 (画面の座標)
+     */
+    void translateBy(float dx, float dy) {
+        viewMatrix.postTranslate(dx, dy);
+        viewMatrix.invert(inverseMatrix);
+    }
+
+    /**
+     * 画面の座標を図形の座標に変換する
+     * @param point 変換する座標 (x, y) 結果で上書きする
+     */
+    void mapToWorld(float[] point) {
+        inverseMatrix.mapPoints(point);
+    }
+
     interface OnDrawListener extends EventListener {
         void onDraw(Canvas canvas);
     }
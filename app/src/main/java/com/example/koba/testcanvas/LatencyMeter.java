@@ -0,0 +1,94 @@
+package com.example.koba.testcanvas;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * タッチから描画までの遅延を計測する
+ * <div>
+ *     描画されていないタッチのうち最も古いものの時刻から、
+ *     onDraw()までの時間を計測する (直近のフレームの平均と最大を表示する)
+ * </div>
+ */
+class LatencyMeter {
+    /** 平均、最大を求めるフレーム数 */
+    private static final int WINDOW = 60;
+    private static final float TEXT_SIZE = 36;
+
+    /** 直近のフレームの遅延 (ミリ秒) */
+    private final long[] latencies = new long[WINDOW];
+    private int count = 0;
+    private int next = 0;
+    /** 描画されていないタッチのうち最も古いものの時刻 (無い場合、-1) */
+    private long pendingInputTime = -1;
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final String format;
+
+    /**
+     * @param format 表示形式 (平均 float、最大 long)
+     */
+    LatencyMeter(String format) {
+        this.format = format;
+        textPaint.setTextSize(TEXT_SIZE);
+    }
+
+    /**
+     * タッチを記録する
+     * @param eventTime タッチの時刻 (MotionEvent.getEventTime())
+     */
+    void onInput(long eventTime) {
+        if (pendingInputTime < 0)
+            pendingInputTime = eventTime;
+    }
+
+    /**
+     * 描画時に遅延を記録する
+     */
+    void onFrame() {
+        if (pendingInputTime < 0)
+            return;
+        latencies[next] = SystemClock.uptimeMillis() - pendingInputTime;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW)
+            count++;
+        pendingInputTime = -1;
+    }
+
+    /**
+     * 直近のフレームの遅延の平均を返す
+     * @return 平均 (ミリ秒) 記録が無い場合、-1
+     */
+    float getAverage() {
+        if (count == 0)
+            return -1;
+        long sum = 0;
+        for (int i = 0; i < count; i++)
+            sum += latencies[i];
+        return (float) sum / count;
+    }
+
+    /**
+     * 直近のフレームの遅延の最大を返す
+     * @return 最大 (ミリ秒) 記録が無い場合、-1
+     */
+    long getMax() {
+        long max = -1;
+        for (int i = 0; i < count; i++)
+            max = Math.max(max, latencies[i]);
+        return max;
+    }
+
+    /**
+     * 計測結果を表示する
+     * @param canvas 描画先 (画面の座標)
+     */
+    void draw(Canvas canvas) {
+        if (count == 0)
+            return;
+        canvas.drawText(String.format(Locale.US, format, getAverage(), getMax()), TEXT_SIZE / 2, TEXT_SIZE * 1.5f, textPaint);
+    }
+}
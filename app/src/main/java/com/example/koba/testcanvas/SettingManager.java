@@ -49,6 +49,106 @@ class SettingManager {
         return getBoolean(context, key);
     }
 
+    /**
+     * 設定の取得 (低遅延モード)
+     * @param context コンテキスト
+     * @return 設定値
+     */
+    static boolean getInputLowLatency(Context context) {
+        final String key = context.getString(R.string.setting_key_in_low_latency);
+        return getBoolean(context, key);
+    }
+
+    /**
+     * 設定の取得 (タッチから描画までの遅延を表示する)
+     * @param context コンテキスト
+     * @return 設定値
+     */
+    static boolean getInputShowLatency(Context context) {
+        final String key = context.getString(R.string.setting_key_in_show_latency);
+        return getBoolean(context, key);
+    }
+
+    /**
+     * 設定の取得 (描画方式が専用のスレッドか)
+     * @param context コンテキスト
+     * @return 専用のスレッドで描画する場合、真
+     */
+    static boolean getRenderSurface(Context context) {
+        final String key = context.getString(R.string.setting_key_rd_backend);
+        final String surface = context.getString(R.string.setting_rd_backend_surface);
+        return surface.equals(getString(context, key));
+    }
+
+    /**
+     * 設定の取得 (図形の座標をJavaヒープ外に格納する)
+     * @param context コンテキスト
+     * @return 設定値
+     */
+    static boolean getRenderGeometryArena(Context context) {
+        final String key = context.getString(R.string.setting_key_rd_geometry_arena);
+        return getBoolean(context, key);
+    }
+
+    /**
+     * 描画時に参照する設定値の保持用
+     * <div>
+     *     描画のたびに設定を読み込まないように、設定値をフィールドに保持し、
+     *     設定が変更された時点で読み込み直す (register()からunregister()までの間)
+     * </div>
+     */
+    static class Snapshot implements SharedPreferences.OnSharedPreferenceChangeListener {
+        /** 「移動」時、対象の図形を強調する */
+        boolean shapeAppearanceTransfer = false;
+        /** 「戻る」した図形も表示する */
+        boolean shapeAppearanceUndo = false;
+        /** 低遅延モード */
+        boolean inputLowLatency = false;
+        /** タッチから描画までの遅延を表示する */
+        boolean inputShowLatency = false;
+        /** 専用のスレッドで描画する */
+        boolean renderSurface = false;
+
+        private Context context = null;
+
+        /**
+         * 設定値を読み込み、以降の変更を監視する
+         * @param context コンテキスト
+         */
+        void register(Context context) {
+            this.context = context;
+            reload();
+            // (リスナーは弱参照で保持されるため、このインスタンスは呼び出し元で保持すること)
+            context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                    .registerOnSharedPreferenceChangeListener(this);
+        }
+
+        /**
+         * 設定の変更の監視を終了する
+         */
+        void unregister() {
+            if (context == null)
+                return;
+            context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                    .unregisterOnSharedPreferenceChangeListener(this);
+            context = null;
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (context != null)
+                reload();
+        }
+
+        private void reload() {
+            shapeAppearanceTransfer = getShapeAppearanceTransfer(context);
+            shapeAppearanceUndo = getShapeAppearanceUndo(context);
+            inputLowLatency = getInputLowLatency(context);
+            inputShowLatency = getInputShowLatency(context);
+            renderSurface = getRenderSurface(context);
+        }
+    }
+
     /**
      * 指定されたキーの値を返す (真偽値用)
      * @param context コンテキスト
@@ -61,4 +161,16 @@ class SettingManager {
         // (取得できなかった場合、xmlのデフォルト値に関係なくfalseを返す)
         return sp.getBoolean(key, false);
     }
+
+    /**
+     * 指定されたキーの値を返す (文字列用)
+     * @param context コンテキスト
+     * @param key 値を取得するキー
+     * @return 設定値 (取得に失敗した場合、空文字列)
+     */
+    private static String getString(Context context, String key) {
+        final SharedPreferences sp = context.getSharedPreferences(
+                SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        return sp.getString(key, "");
+    }
 }
@@ -0,0 +1,81 @@
+package com.example.koba.testcanvas;
+
+/**
+ * 直近のタッチ位置の速度から、少し先のタッチ位置を予測する
+ * <div>
+ *     描画の遅延分だけ先の位置を予測し、図形の先端に仮の線として表示するために使う
+ * </div>
+ */
+class StrokePredictor {
+    /** 保持するタッチ位置の数 */
+    private static final int SAMPLE_COUNT = 4;
+    /** 速度の算出に使う期間 (ミリ秒) これより古い位置は使わない */
+    private static final long VELOCITY_WINDOW = 40;
+    /** 予測する時間の上限 (ミリ秒) */
+    private static final long MAX_HORIZON = 50;
+
+    private final long[] times = new long[SAMPLE_COUNT];
+    private final float[] xs = new float[SAMPLE_COUNT];
+    private final float[] ys = new float[SAMPLE_COUNT];
+    /** 保持しているタッチ位置の数 */
+    private int count = 0;
+    /** 次に格納する位置 */
+    private int next = 0;
+
+    /**
+     * 保持しているタッチ位置を破棄する (タッチ開始時に呼び出す)
+     */
+    void reset() {
+        count = 0;
+        next = 0;
+    }
+
+    /**
+     * タッチ位置を追加する
+     * @param time 時刻 (ミリ秒)
+     * @param x x座標
+     * @param y y座標
+     */
+    void add(long time, float x, float y) {
+        times[next] = time;
+        xs[next] = x;
+        ys[next] = y;
+        next = (next + 1) % SAMPLE_COUNT;
+        if (count < SAMPLE_COUNT)
+            count++;
+    }
+
+    /**
+     * 指定の時間だけ先のタッチ位置を予測する
+     * @param horizon 予測する時間 (ミリ秒)
+     * @param out 予測した位置の格納先 (x, y)
+     * @return 予測できた場合、真 (位置が足りない、または止まっている場合、偽)
+     */
+    boolean predict(long horizon, float[] out) {
+        if (count < 2)
+            return false;
+
+        final int last = (next + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+        // 期間内で最も古い位置を探す
+        int first = last;
+        for (int i = 1; i < count; i++) {
+            final int index = (last + SAMPLE_COUNT - i) % SAMPLE_COUNT;
+            if (times[last] - times[index] > VELOCITY_WINDOW)
+                break;
+            first = index;
+        }
+        final long dt = times[last] - times[first];
+        if (dt <= 0)
+            return false;
+
+        final float vx = (xs[last] - xs[first]) / dt;
+        final float vy = (ys[last] - ys[first]) / dt;
+        if (vx == 0 && vy == 0)
+            return false;
+
+        final long t = Math.min(horizon, MAX_HORIZON);
+        out[0] = xs[last] + vx * t;
+        out[1] = ys[last] + vy * t;
+        return true;
+    }
+}
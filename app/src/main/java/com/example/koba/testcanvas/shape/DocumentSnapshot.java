@@ -0,0 +1,91 @@
+package com.example.koba.testcanvas.shape;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * 文書のスナップショット (作成した時点の図形と戻るした図形)
+ * <div>
+ *     ShapeManager.createDocumentSnapshot()で作成する。作成後の図形の変更は反映されない
+ *     (変更する図形はShapeManagerが複製して置き換える) <br>
+ *     内容は変更されないため、保存、SVG出力は他のスレッドから行ってよい
+ *     (移動量は作成時に座標に反映済みのため、出力時に図形を複製、変更しない) <br>
+ *     使い終わったら、UIスレッドからrelease()を呼び出すこと
+ * </div>
+ */
+public final class DocumentSnapshot {
+    /** 図形 (描画順) */
+    private final ShapeVector shapes;
+    /** 戻るした図形 (戻した順) */
+    private final ShapeVector undoneShapes;
+    private final double width;
+    private final double height;
+    /** 作成元 (解放の通知先 通知が不要な場合、null) */
+    private ShapeManager owner;
+
+    DocumentSnapshot(ShapeVector shapes, ShapeVector undoneShapes, double width, double height, ShapeManager owner) {
+        this.shapes = shapes;
+        this.undoneShapes = undoneShapes;
+        this.width = width;
+        this.height = height;
+        this.owner = owner;
+    }
+
+    /**
+     * 図形の数を返す
+     * @return 図形の数 (戻るした図形は含まない)
+     */
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    /**
+     * SVGとして出力する
+     * @param writer 出力先
+     * @return 出力に成功した場合、真
+     */
+    public boolean writeTo(@NonNull Writer writer) {
+        final ISvgWriter svg;
+        try {
+            svg = new TinySvgWriter();
+        } catch (ParserConfigurationException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        if (width >= 0 && height >= 0)
+            svg.setSvgSize(width, height);
+
+        for (int i = 0; i < shapes.size(); i++)
+            shapes.get(i).toBaked().makeSvg(svg);  // 移動量は座標に反映して出力する (反映済みの場合、複製しない)
+
+        return svg.writeTo(writer);
+    }
+
+    /**
+     * 内部データの保存 (ShapeCodecの形式 ShapeManager.restoreInnerData()で読み込める)
+     * @param out 保存先
+     * @throws IOException 保存先への書き込み失敗
+     */
+    public void saveInnerData(@NonNull DataOutput out) throws IOException {
+        ShapeCodec.write(out, shapes, undoneShapes);
+    }
+
+    /**
+     * スナップショットを使い終わったことを通知する (UIスレッドから呼び出すこと)
+     * <div>
+     *     スナップショットの参照中は、置き換えた図形の座標 (アリーナ)の解放を保留している
+     * </div>
+     */
+    public void release() {
+        if (owner == null)
+            return;
+        owner.releaseDocumentSnapshot();
+        owner = null;
+    }
+}
@@ -0,0 +1,406 @@
+package com.example.koba.testcanvas.shape;
+
+import java.util.List;
+
+/**
+ * 戻る、進むの対象となる1回の操作 (EditHistoryに記録する)
+ * <div>
+ *     操作の前後の図形全体ではなく、変更内容 (移動量、変更前後の値等)のみを保持する <br>
+ *     取り消し、やり直しは記録した時点と同じ状態に対してのみ行う (EditHistoryが順序を保証する) <br>
+ *     記録した図形はスナップショットのために複製で置き換えられる場合があるため、最新の図形 (getLatest())を対象とする
+ * </div>
+ */
+abstract class EditCommand {
+    /** 1つの操作の記録に必要なおおよそのバイト数 (図形を除く) */
+    private static final int COMMAND_BYTES = 32;
+    /** 図形の参照1つ分のおおよそのバイト数 */
+    private static final int REFERENCE_BYTES = 8;
+
+    /**
+     * 操作の対象の図形を管理する側 (ShapeManager)
+     * <div>
+     *     図形の追加、削除と、変更の前後の空間インデックス、タイルへの反映を行う
+     * </div>
+     */
+    interface Document {
+        /**
+         * 図形を最も手前に追加する (新しい描画順を割り当てる)
+         * @param shape 図形
+         */
+        void addShape(ShapeBase shape);
+
+        /**
+         * 削除した図形を元の描画順の位置に戻す
+         * @param shapes 図形 (描画順 複製して置き換えた場合、置き換えた後の図形に更新する)
+         */
+        void insertShapes(ShapeBase[] shapes);
+
+        /**
+         * 図形を削除する
+         * @param shapes 図形
+         */
+        void removeShapes(ShapeBase[] shapes);
+
+        /**
+         * 図形を変更する前に呼び出し、変更できる図形を返す
+         * @param shape 図形
+         * @return 変更できる図形 (スナップショットに含まれる場合、置き換えた複製)
+         */
+        ShapeBase prepareWrite(ShapeBase shape);
+
+        /**
+         * 図形の変更前に呼び出す (変更前の描画範囲を再描画の対象にする)
+         * @param shape 図形
+         */
+        void beginChange(ShapeBase shape);
+
+        /**
+         * 図形の変更後に呼び出す
+         * @param shape 図形
+         * @param translated 移動 (translate())のみの場合、真
+         */
+        void endChange(ShapeBase shape, boolean translated);
+    }
+
+    /**
+     * 操作を取り消す
+     * @param document 操作の対象
+     */
+    abstract void undo(Document document);
+
+    /**
+     * 操作をやり直す
+     * @param document 操作の対象
+     */
+    abstract void redo(Document document);
+
+    /**
+     * 記録に必要なおおよそのバイト数を返す (履歴の記憶量の上限の判定用)
+     * @return バイト数
+     */
+    abstract int estimateByteSize();
+
+    /**
+     * 履歴のみが参照している図形 (描画中の図形に含まれない図形)を取得する
+     * @param undone 取り消し済みの場合、真
+     * @param shapes 図形の格納先
+     */
+    void collectDetachedShapes(boolean undone, List<ShapeBase> shapes) {}
+
+    /**
+     * 図形を最新の図形 (置き換えた後の図形)に更新する
+     * @param shapes 図形
+     */
+    private static void resolveLatest(ShapeBase[] shapes) {
+        for (int i = 0; i < shapes.length; i++)
+            shapes[i] = shapes[i].getLatest();
+    }
+
+    /**
+     * 図形の配列のおおよそのバイト数を返す
+     * @param shapes 図形
+     * @param withShapes 図形自体も含める場合、真
+     * @return バイト数
+     */
+    private static int estimateShapesByteSize(ShapeBase[] shapes, boolean withShapes) {
+        int size = COMMAND_BYTES + shapes.length * REFERENCE_BYTES;
+        if (withShapes) {
+            for (ShapeBase shape : shapes)
+                size += shape.estimateByteSize();
+        }
+        return size;
+    }
+
+    /**
+     * 図形の追加 (描画、複製)
+     * <div>
+     *     図形は記録時点で最も手前にまとめて追加済みであること
+     * </div>
+     */
+    static final class AddShapes extends EditCommand {
+        /** 追加した図形 (描画順) */
+        private final ShapeBase[] shapes;
+
+        AddShapes(ShapeBase... shapes) {
+            this.shapes = shapes;
+        }
+
+        @Override
+        void undo(Document document) {
+            resolveLatest(shapes);
+            document.removeShapes(shapes);
+        }
+
+        @Override
+        void redo(Document document) {
+            resolveLatest(shapes);
+            for (ShapeBase shape : shapes)
+                document.addShape(shape);
+        }
+
+        @Override
+        int estimateByteSize() {
+            return estimateShapesByteSize(shapes, false);
+        }
+
+        @Override
+        void collectDetachedShapes(boolean undone, List<ShapeBase> shapes) {
+            if (!undone)
+                return;
+            // 次に進む図形を最後にする
+            for (int i = this.shapes.length - 1; i >= 0; i--)
+                shapes.add(this.shapes[i].getLatest());
+        }
+    }
+
+    /**
+     * 図形の削除
+     */
+    static final class DeleteShapes extends EditCommand {
+        /** 削除した図形 (描画順) */
+        private final ShapeBase[] shapes;
+
+        DeleteShapes(ShapeBase[] shapes) {
+            this.shapes = shapes;
+        }
+
+        @Override
+        void undo(Document document) {
+            resolveLatest(shapes);
+            document.insertShapes(shapes);
+        }
+
+        @Override
+        void redo(Document document) {
+            resolveLatest(shapes);
+            document.removeShapes(shapes);
+        }
+
+        @Override
+        int estimateByteSize() {
+            return estimateShapesByteSize(shapes, true);  // 削除した図形は履歴のみが保持する
+        }
+
+        @Override
+        void collectDetachedShapes(boolean undone, List<ShapeBase> shapes) {
+            if (undone)
+                return;
+            for (ShapeBase shape : this.shapes)
+                shapes.add(shape.getLatest());
+        }
+    }
+
+    /**
+     * 図形の移動 (移動量のみを記録する)
+     */
+    static final class Translate extends EditCommand {
+        private final ShapeBase[] shapes;
+        private float dx = 0;  // x軸方向の移動量の合計
+        private float dy = 0;  // y軸方向の移動量の合計
+
+        Translate(ShapeBase[] shapes) {
+            this.shapes = shapes;
+        }
+
+        /**
+         * 移動量を加える (1回の移動の操作の途中の移動をまとめる)
+         * @param dx x軸方向の移動量
+         * @param dy y軸方向の移動量
+         */
+        void add(float dx, float dy) {
+            this.dx += dx;
+            this.dy += dy;
+        }
+
+        @Override
+        void undo(Document document) {
+            translate(document, -dx, -dy);
+        }
+
+        @Override
+        void redo(Document document) {
+            translate(document, dx, dy);
+        }
+
+        private void translate(Document document, float dx, float dy) {
+            for (int i = 0; i < shapes.length; i++) {
+                final ShapeBase shape = document.prepareWrite(shapes[i]);
+                shapes[i] = shape;
+                document.beginChange(shape);
+                shape.translate(dx, dy);
+                document.endChange(shape, true);
+            }
+        }
+
+        @Override
+        int estimateByteSize() {
+            return estimateShapesByteSize(shapes, false) + 8;
+        }
+    }
+
+    /**
+     * 追加のデータ (文字列)の変更
+     */
+    static final class SetData extends EditCommand {
+        private ShapeBase shape;
+        private final Object oldData;
+        private final Object newData;
+
+        SetData(ShapeBase shape, Object oldData, Object newData) {
+            this.shape = shape;
+            this.oldData = oldData;
+            this.newData = newData;
+        }
+
+        @Override
+        void undo(Document document) {
+            setData(document, oldData);
+        }
+
+        @Override
+        void redo(Document document) {
+            setData(document, newData);
+        }
+
+        private void setData(Document document, Object data) {
+            shape = document.prepareWrite(shape);
+            document.beginChange(shape);
+            shape.applyOffset();
+            shape.setData(data);
+            document.endChange(shape, false);
+        }
+
+        @Override
+        int estimateByteSize() {
+            return COMMAND_BYTES + REFERENCE_BYTES * 3 + estimateDataByteSize(oldData) + estimateDataByteSize(newData);
+        }
+
+        private static int estimateDataByteSize(Object data) {
+            return (data instanceof String) ? ((String)data).length() * 2 : 0;
+        }
+    }
+
+    /**
+     * ID属性の変更
+     */
+    static final class SetAttrId extends EditCommand {
+        private ShapeBase shape;
+        private final String oldAttrId;
+        private final String newAttrId;
+
+        SetAttrId(ShapeBase shape, String oldAttrId, String newAttrId) {
+            this.shape = shape;
+            this.oldAttrId = oldAttrId;
+            this.newAttrId = newAttrId;
+        }
+
+        @Override
+        void undo(Document document) {
+            shape = document.prepareWrite(shape);
+            shape.setAttrId(oldAttrId);  // 描画内容は変わらない
+        }
+
+        @Override
+        void redo(Document document) {
+            shape = document.prepareWrite(shape);
+            shape.setAttrId(newAttrId);
+        }
+
+        @Override
+        int estimateByteSize() {
+            int size = COMMAND_BYTES + REFERENCE_BYTES * 3;
+            if (oldAttrId != null)
+                size += oldAttrId.length() * 2;
+            if (newAttrId != null)
+                size += newAttrId.length() * 2;
+            return size;
+        }
+    }
+
+    /**
+     * 見た目の変更
+     */
+    static final class SetStyle extends EditCommand {
+        private final ShapeBase[] shapes;
+        private final ShapeStyle[] oldStyles;
+        private final ShapeStyle[] newStyles;
+
+        /**
+         * @param shapes 図形
+         * @param oldStyles 変更前の見た目 (添字はshapesと同じ)
+         * @param newStyles 変更後の見た目 (添字はshapesと同じ)
+         */
+        SetStyle(ShapeBase[] shapes, ShapeStyle[] oldStyles, ShapeStyle[] newStyles) {
+            this.shapes = shapes;
+            this.oldStyles = oldStyles;
+            this.newStyles = newStyles;
+        }
+
+        @Override
+        void undo(Document document) {
+            setStyles(document, oldStyles);
+        }
+
+        @Override
+        void redo(Document document) {
+            setStyles(document, newStyles);
+        }
+
+        private void setStyles(Document document, ShapeStyle[] styles) {
+            for (int i = 0; i < shapes.length; i++) {
+                shapes[i] = document.prepareWrite(shapes[i]);
+                document.beginChange(shapes[i]);
+                shapes[i].setStyle(styles[i]);
+                document.endChange(shapes[i], false);
+            }
+        }
+
+        @Override
+        int estimateByteSize() {
+            // 見た目はShapeStyleTableで共有しているため、参照のみとする
+            return estimateShapesByteSize(shapes, false) + shapes.length * REFERENCE_BYTES * 2;
+        }
+    }
+
+    /**
+     * 描画中の図形への点の追加 (連続直線、多角形)
+     * <div>
+     *     追加した点の座標は取り消し時に記録する (追加後もタッチ位置に合わせて変更されるため)
+     * </div>
+     */
+    static final class AddPoint extends EditCommand {
+        private ShapeBase shape;
+        private final float[] point = new float[2];
+        /** 取り消し時に点を削除できた場合、真 (削除できない図形の場合、取り消し、やり直しで変更しない) */
+        private boolean removed = false;
+
+        AddPoint(ShapeBase shape) {
+            this.shape = shape;
+        }
+
+        @Override
+        void undo(Document document) {
+            shape = document.prepareWrite(shape);
+            document.beginChange(shape);
+            shape.applyOffset();
+            removed = shape.removeLastPoint(point);
+            document.endChange(shape, false);
+        }
+
+        @Override
+        void redo(Document document) {
+            if (!removed)
+                return;
+            shape = document.prepareWrite(shape);
+            document.beginChange(shape);
+            shape.applyOffset();
+            shape.addPoint(point[0], point[1]);
+            document.endChange(shape, false);
+        }
+
+        @Override
+        int estimateByteSize() {
+            return COMMAND_BYTES + REFERENCE_BYTES * 2 + 8;
+        }
+    }
+}
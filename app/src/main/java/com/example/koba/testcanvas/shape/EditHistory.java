@@ -0,0 +1,187 @@
+package com.example.koba.testcanvas.shape;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 戻る、進むの履歴 (操作ごとの変更内容を記録する)
+ * <div>
+ *     戻るの対象の操作の記録の合計が上限を超えた場合、古い操作から破棄する <br>
+ *     新しい操作を記録した場合、進むの対象の操作は全て破棄する <br>
+ *     破棄した操作のみが参照していた図形 (削除、戻るした図形)の座標は解放する
+ * </div>
+ */
+final class EditHistory {
+    /** 戻るの対象の操作の記録の合計の上限の初期値 (バイト数) */
+    static final long DEFAULT_BUDGET = 4L * 1024 * 1024;
+
+    /** 戻るの対象の操作 (先頭が最新) */
+    private final ArrayDeque<EditCommand> undoStack = new ArrayDeque<>();
+    /** 進むの対象の操作 (末尾が次に進む操作 描画時に添字で走査する) */
+    private final ArrayList<EditCommand> redoStack = new ArrayList<>();
+    /** 戻るの対象の操作の記録の合計の上限 (バイト数) */
+    private long budget = DEFAULT_BUDGET;
+    /** 戻るの対象の操作の記録の合計 (バイト数) */
+    private long usedBytes = 0;
+    /** 破棄する操作の図形の取得用 (使い回す) */
+    private final ArrayList<ShapeBase> detachedShapes = new ArrayList<>();
+    /** 座標の解放を保留する図形の格納先 (nullの場合、破棄時に解放する) */
+    private List<ShapeBase> releaseQueue = null;
+
+    /**
+     * 操作を記録する (操作は実行済みであること)
+     * @param command 操作
+     * @return 進むの対象の図形を破棄した場合、真
+     */
+    boolean record(EditCommand command) {
+        final boolean discarded = clearRedo();
+        undoStack.push(command);
+        usedBytes += command.estimateByteSize();
+        trim();
+        return discarded;
+    }
+
+    /**
+     * 最新の操作を取り消す
+     * @param document 操作の対象
+     * @return 取り消した場合、真
+     */
+    boolean undo(EditCommand.Document document) {
+        final EditCommand command = undoStack.poll();
+        if (command == null)
+            return false;
+        usedBytes -= command.estimateByteSize();
+        command.undo(document);
+        redoStack.add(command);
+        return true;
+    }
+
+    /**
+     * 最後に取り消した操作をやり直す
+     * @param document 操作の対象
+     * @return やり直した場合、真
+     */
+    boolean redo(EditCommand.Document document) {
+        if (redoStack.isEmpty())
+            return false;
+        final EditCommand command = redoStack.remove(redoStack.size() - 1);
+        command.redo(document);
+        undoStack.push(command);
+        usedBytes += command.estimateByteSize();
+        trim();
+        return true;
+    }
+
+    /**
+     * 取り消し済みの操作として記録する (履歴の無い図形を戻る場合、保存した履歴の読み込み時に使う)
+     * @param command 取り消し済みの操作
+     */
+    void pushUndone(EditCommand command) {
+        redoStack.add(command);
+    }
+
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * 戻るの対象の操作の記録の合計の上限を設定する (超えている場合、古い操作を破棄する)
+     * @param bytes 上限 (バイト数)
+     */
+    void setBudget(long bytes) {
+        budget = bytes;
+        trim();
+    }
+
+    /**
+     * 破棄した図形の座標の解放を保留するか設定する (文書のスナップショットの参照中に使う)
+     * @param queue 解放を保留する図形の格納先 (nullの場合、破棄時に解放する)
+     */
+    void setReleaseQueue(List<ShapeBase> queue) {
+        releaseQueue = queue;
+    }
+
+    /**
+     * 戻るの対象の操作の記録の合計を返す
+     * @return バイト数
+     */
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 全ての操作を破棄する
+     */
+    void clear() {
+        while (!undoStack.isEmpty())
+            discard(undoStack.poll(), false);
+        clearRedo();
+        usedBytes = 0;
+    }
+
+    /**
+     * 履歴のみが参照している全ての図形を取得する
+     * @param shapes 図形の格納先
+     */
+    void collectDetachedShapes(List<ShapeBase> shapes) {
+        for (EditCommand command : undoStack)
+            command.collectDetachedShapes(false, shapes);
+        collectUndoneShapes(shapes);
+    }
+
+    /**
+     * 戻るした図形 (進むで追加される図形)を取得する
+     * @param shapes 図形の格納先 (戻した順 最後が次に進む図形)
+     */
+    void collectUndoneShapes(List<ShapeBase> shapes) {
+        for (int i = 0; i < redoStack.size(); i++)
+            redoStack.get(i).collectDetachedShapes(true, shapes);
+    }
+
+    /**
+     * 進むの対象の操作を全て破棄する
+     * @return 図形を破棄した場合、真
+     */
+    private boolean clearRedo() {
+        boolean discarded = false;
+        while (!redoStack.isEmpty())
+            discarded |= discard(redoStack.remove(redoStack.size() - 1), true);
+        return discarded;
+    }
+
+    /**
+     * 上限を超えている間、最も古い操作を破棄する
+     */
+    private void trim() {
+        while (usedBytes > budget && !undoStack.isEmpty()) {
+            final EditCommand oldest = undoStack.pollLast();
+            usedBytes -= oldest.estimateByteSize();
+            discard(oldest, false);
+        }
+    }
+
+    /**
+     * 操作を破棄し、操作のみが参照していた図形の座標を解放する
+     * @param command 操作
+     * @param undone 取り消し済みの場合、真
+     * @return 図形を解放した場合、真
+     */
+    private boolean discard(EditCommand command, boolean undone) {
+        detachedShapes.clear();
+        command.collectDetachedShapes(undone, detachedShapes);
+        if (releaseQueue != null) {
+            releaseQueue.addAll(detachedShapes);
+        } else {
+            for (int i = 0; i < detachedShapes.size(); i++)
+                detachedShapes.get(i).releaseGeometry();
+        }
+        final boolean discarded = !detachedShapes.isEmpty();
+        detachedShapes.clear();
+        return discarded;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.koba.testcanvas.shape;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 図形の座標をJavaヒープ外に格納する領域
+ * <div>
+ *     頂点数の非常に多い図面でGCの負荷を減らすため、座標をダイレクトバッファに格納する <br>
+ *     領域は2の累乗の大きさのブロック単位で割り当て、解放したブロックは大きさごとの空きリストに戻して再利用する <br>
+ *     ブロックは番号 (チャンクの番号と開始位置)で参照する <br>
+ *     UIスレッドからのみ割り当て、解放すること <br>
+ *     割り当て済みのブロックの読み取りは他のスレッドからでもよい
+ *     (チャンクの一覧は増やす場合に新しい配列に置き換えて公開するため、読み取り中に割り当てても参照は壊れない)
+ * </div>
+ */
+final class GeometryArena {
+    /** チャンクの大きさ (floatの数) これより大きいブロックは専用のチャンクに割り当てる */
+    static final int CHUNK_FLOATS = 1 << 16;
+    /** 最小のブロックの大きさ (floatの数) */
+    private static final int MIN_BLOCK_FLOATS = 8;
+    /** ブロックの大きさの種類 (MIN_BLOCK_FLOATSからint型の範囲まで) */
+    private static final int SIZE_CLASSES = 32;
+
+    /** 確保済みのチャンク (先頭からchunkCount個 増やす場合、新しい配列に置き換える) */
+    private volatile FloatBuffer[] chunks = new FloatBuffer[4];
+    /** 確保済みのチャンクの数 */
+    private int chunkCount = 0;
+    /** 大きさごとの解放済みのブロックの番号 */
+    private final long[][] freeBlocks = new long[SIZE_CLASSES][];
+    /** 大きさごとの解放済みのブロックの数 */
+    private final int[] freeCounts = new int[SIZE_CLASSES];
+    /** 小さいブロックを割り当て中のチャンクの番号 (無い場合、-1) */
+    private int currentChunk = -1;
+    /** 割り当て中のチャンクの未使用部分の開始位置 */
+    private int chunkTop = CHUNK_FLOATS;
+    /** 使用中のブロックの大きさの合計 (floatの数) */
+    private long usedFloats = 0;
+
+    /**
+     * ブロックの大きさを返す
+     * @param floats 必要な大きさ (floatの数)
+     * @return ブロックの大きさ (2の累乗)
+     */
+    static int blockSize(int floats) {
+        if (floats <= MIN_BLOCK_FLOATS)
+            return MIN_BLOCK_FLOATS;
+        return Integer.highestOneBit(floats - 1) << 1;
+    }
+
+    /**
+     * ブロックを割り当てる
+     * @param floats 必要な大きさ (floatの数)
+     * @return ブロックの番号
+     */
+    long allocate(int floats) {
+        final int size = blockSize(floats);
+        final int sizeClass = Integer.numberOfTrailingZeros(size);
+        usedFloats += size;
+
+        // 解放済みのブロックを再利用する
+        if (freeCounts[sizeClass] > 0)
+            return freeBlocks[sizeClass][--freeCounts[sizeClass]];
+
+        if (size >= CHUNK_FLOATS) {
+            // 専用のチャンクを確保する
+            return toBlock(addChunk(size), 0);
+        }
+        if (chunkTop + size > CHUNK_FLOATS) {
+            // 割り当て中のチャンクの残りは捨てて、新しいチャンクを確保する
+            currentChunk = addChunk(CHUNK_FLOATS);
+            chunkTop = 0;
+        }
+        final long block = toBlock(currentChunk, chunkTop);
+        chunkTop += size;
+        return block;
+    }
+
+    /**
+     * チャンクを確保する
+     * @param floats 大きさ (floatの数)
+     * @return チャンクの番号
+     */
+    private int addChunk(int floats) {
+        final FloatBuffer[] current = chunks;
+        if (chunkCount == current.length) {
+            // 他のスレッドが読み取り中の配列は変更せず、複写した配列を公開する
+            final FloatBuffer[] newChunks = new FloatBuffer[current.length * 2];
+            System.arraycopy(current, 0, newChunks, 0, chunkCount);
+            newChunks[chunkCount] = newChunk(floats);
+            chunks = newChunks;
+        } else {
+            current[chunkCount] = newChunk(floats);
+        }
+        return chunkCount++;
+    }
+
+    /**
+     * ブロックを解放する (以降、そのブロックを使わないこと)
+     * @param block ブロックの番号
+     * @param floats 割り当て時に指定した大きさ (floatの数)
+     */
+    void free(long block, int floats) {
+        final int size = blockSize(floats);
+        final int sizeClass = Integer.numberOfTrailingZeros(size);
+        long[] blocks = freeBlocks[sizeClass];
+        if (blocks == null) {
+            blocks = new long[16];
+            freeBlocks[sizeClass] = blocks;
+        } else if (freeCounts[sizeClass] == blocks.length) {
+            final long[] newBlocks = new long[blocks.length * 2];
+            System.arraycopy(blocks, 0, newBlocks, 0, blocks.length);
+            blocks = newBlocks;
+            freeBlocks[sizeClass] = blocks;
+        }
+        blocks[freeCounts[sizeClass]++] = block;
+        usedFloats -= size;
+    }
+
+    /**
+     * 全てのブロックを解放する (確保済みのチャンクも破棄する)
+     * <div>
+     *     他のスレッドが読み取り中の場合は呼び出さないこと
+     * </div>
+     */
+    void clear() {
+        chunks = new FloatBuffer[4];
+        chunkCount = 0;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBlocks[i] = null;
+            freeCounts[i] = 0;
+        }
+        currentChunk = -1;
+        chunkTop = CHUNK_FLOATS;
+        usedFloats = 0;
+    }
+
+    /**
+     * ブロック内の値を返す
+     * @param block ブロックの番号
+     * @param index ブロック内の位置
+     * @return 値
+     */
+    float get(long block, int index) {
+        return chunks[chunkOf(block)].get(offsetOf(block) + index);
+    }
+
+    /**
+     * ブロック内の値を変更する
+     * @param block ブロックの番号
+     * @param index ブロック内の位置
+     * @param value 値
+     */
+    void set(long block, int index, float value) {
+        chunks[chunkOf(block)].put(offsetOf(block) + index, value);
+    }
+
+    /**
+     * ブロック内の値を全て移動する (x, yの順に格納している場合)
+     * @param block ブロックの番号
+     * @param length 対象の値の数
+     * @param dx x軸方向の移動量
+     * @param dy y軸方向の移動量
+     */
+    void offset(long block, int length, float dx, float dy) {
+        final FloatBuffer chunk = chunks[chunkOf(block)];
+        final int offset = offsetOf(block);
+        for (int i = offset; i < offset + length; i += 2) {
+            chunk.put(i, chunk.get(i) + dx);
+            chunk.put(i + 1, chunk.get(i + 1) + dy);
+        }
+    }
+
+    /**
+     * ブロックの内容を配列に読み出す
+     * @param block ブロックの番号
+     * @param dst 読み出し先
+     * @param dstPos 読み出し先の開始位置
+     * @param length 読み出す値の数
+     */
+    void read(long block, float[] dst, int dstPos, int length) {
+        final FloatBuffer chunk = chunks[chunkOf(block)].duplicate();
+        chunk.position(offsetOf(block));
+        chunk.get(dst, dstPos, length);
+    }
+
+    /**
+     * 配列の内容をブロックに書き込む
+     * @param block ブロックの番号
+     * @param src 書き込む値
+     * @param srcPos 書き込む値の開始位置
+     * @param length 書き込む値の数
+     */
+    void write(long block, float[] src, int srcPos, int length) {
+        final FloatBuffer chunk = chunks[chunkOf(block)].duplicate();
+        chunk.position(offsetOf(block));
+        chunk.put(src, srcPos, length);
+    }
+
+    /**
+     * ブロックの内容を別のブロックに複写する
+     * @param src 複写元のブロックの番号
+     * @param dst 複写先のブロックの番号
+     * @param length 複写する値の数
+     */
+    void copy(long src, long dst, int length) {
+        final FloatBuffer srcChunk = chunks[chunkOf(src)].duplicate();
+        srcChunk.position(offsetOf(src));
+        srcChunk.limit(offsetOf(src) + length);
+        final FloatBuffer dstChunk = chunks[chunkOf(dst)].duplicate();
+        dstChunk.position(offsetOf(dst));
+        dstChunk.put(srcChunk);
+    }
+
+    /**
+     * 使用中のブロックの大きさの合計を返す
+     * @return バイト数
+     */
+    long getUsedBytes() {
+        return usedFloats * 4;
+    }
+
+    /**
+     * 確保済みのチャンクの大きさの合計を返す
+     * @return バイト数
+     */
+    long getReservedBytes() {
+        final FloatBuffer[] current = chunks;
+        long floats = 0;
+        for (int i = 0; i < chunkCount; i++)
+            floats += current[i].capacity();
+        return floats * 4;
+    }
+
+    private static FloatBuffer newChunk(int floats) {
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static long toBlock(int chunk, int offset) {
+        return ((long)chunk << 32) | offset;
+    }
+
+    private static int chunkOf(long block) {
+        return (int)(block >>> 32);
+    }
+
+    private static int offsetOf(long block) {
+        return (int)block;
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.koba.testcanvas.shape;
 
 import java.io.Writer;
-import java.util.List;
 
 /**
  * SVG構築用のインターフェース
@@ -90,17 +89,19 @@ interface ISvgWriter {
      * 多角形の追加
      * @param x 始点のx座標
      * @param y 始点のy座標
-     * @param pointList 以降の点の座標 x座標, y座標, x座標 ... の繰り返し
+     * @param points 以降の点の座標 x座標, y座標, x座標 ... の繰り返し
+     * @param length pointsのうち使用する値の数 (先頭から)
      */
-    void addPolygon(double x, double y, List<Double> pointList);
+    void addPolygon(double x, double y, float[] points, int length);
 
     /**
      * 連続直線の追加
      * @param x 始点のx座標
      * @param y 始点のy座標
-     * @param pointList 以降の点の座標 x座標, y座標, x座標 ... の繰り返し
+     * @param points 以降の点の座標 x座標, y座標, x座標 ... の繰り返し
+     * @param length pointsのうち使用する値の数 (先頭から)
      */
-    void addPolyline(double x, double y, List<Double> pointList);
+    void addPolyline(double x, double y, float[] points, int length);
 
     /**
      * 長方形の追加
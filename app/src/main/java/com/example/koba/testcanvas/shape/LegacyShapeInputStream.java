@@ -0,0 +1,256 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 以前の形式 (Javaのシリアライズ)の内部データを読み込む
+ * <div>
+ *     以前の形式では図形のLinkedListをそのままシリアライズしていた <br>
+ *     以前の図形のクラスは現在のクラスと名前が同じだが、保存している値が異なる
+ *     (見た目はPaintの値をwriteObject()で書き込み、折れ線、多角形の頂点はArrayList&lt;Float&gt;) <br>
+ *     serialVersionUIDも定義していないため、そのままでは現在のクラスとして読み込めない <br>
+ *     そのため、以前のクラスのクラス記述子を同じ値を持つ読み込み用のクラス (Legacy*)の記述子に置き換えて読み込み、
+ *     現在の図形に変換する (値の名前と型が以前のクラスと一致することを確認する)
+ * </div>
+ */
+final class LegacyShapeInputStream extends ObjectInputStream {
+    private static final String PACKAGE = "com.example.koba.testcanvas.shape.";
+    /** 以前のクラス名と読み込み用のクラス */
+    private static final HashMap<String, Class<?>> LEGACY_CLASSES = new HashMap<>();
+
+    static {
+        LEGACY_CLASSES.put(PACKAGE + "ShapeBase", LegacyShape.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeLine", LegacyLine.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeRect", LegacyRect.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeCircle", LegacyCircle.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeEllipse", LegacyEllipse.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeArc", LegacyArc.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeArc$State", LegacyArcState.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapePolyline", LegacyPolyline.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapePolygon", LegacyPolygon.class);
+        LEGACY_CLASSES.put(PACKAGE + "ShapeText", LegacyText.class);
+    }
+
+    /**
+     * @param in 読み込み元 (以前の形式の内部データ)
+     * @throws IOException 読み込み失敗、シリアライズの形式でない場合
+     */
+    LegacyShapeInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    /**
+     * 図形のリストを1つ読み込み、現在の図形に変換する
+     * @return 図形 (保存されていた順)
+     * @throws IOException 読み込み失敗、以前の形式の図形のリストでない場合
+     * @throws ClassNotFoundException 図形以外の不明なクラスが含まれている場合
+     */
+    ShapeStore readShapes() throws IOException, ClassNotFoundException {
+        final Object serialized = readObject();
+        if (!(serialized instanceof List))
+            throw new StreamCorruptedException("not a shape list");
+        final ShapeStore store = new ShapeStore();
+        for (Object legacy : (List<?>)serialized) {
+            if (!(legacy instanceof LegacyShape))
+                throw new StreamCorruptedException("not a shape");
+            store.add(((LegacyShape)legacy).toShape());
+        }
+        return store;
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        final ObjectStreamClass desc = super.readClassDescriptor();
+        final Class<?> legacyClass = LEGACY_CLASSES.get(desc.getName());
+        if (legacyClass == null)
+            return desc;
+        final ObjectStreamClass legacyDesc = ObjectStreamClass.lookup(legacyClass);
+        if (!hasSameFields(desc, legacyDesc))
+            throw new InvalidClassException(desc.getName(), "unknown serialized fields");
+        return legacyDesc;
+    }
+
+    /**
+     * 保存されている値の名前と型が一致するか (値は名前順に並んでいる)
+     */
+    private static boolean hasSameFields(ObjectStreamClass desc, ObjectStreamClass legacyDesc) {
+        final ObjectStreamField[] fields = desc.getFields();
+        final ObjectStreamField[] legacyFields = legacyDesc.getFields();
+        if (fields.length != legacyFields.length)
+            return false;
+        for (int i = 0; i < fields.length; i++) {
+            if (!fields[i].getName().equals(legacyFields[i].getName())
+                    || fields[i].getTypeCode() != legacyFields[i].getTypeCode())
+                return false;
+        }
+        return true;
+    }
+
+    // 以下、読み込み用のクラス (値の名前と型は以前のクラスと同じにすること)
+
+    private abstract static class LegacyShape implements Serializable {
+        private String attrId;
+        // 以前のPaintの値 (writeObject()で書き込まれている)
+        private transient float strokeWidth;
+        private transient float textSize;
+        private transient int color;
+        private transient Paint.Style style;
+
+        /**
+         * 現在の図形に変換する
+         * @return 図形
+         */
+        final ShapeBase toShape() {
+            final ShapeBase shape = toShape(new ShapeStyle(strokeWidth, textSize, color, style));
+            shape.setAttrId(attrId);
+            return shape;
+        }
+
+        abstract ShapeBase toShape(ShapeStyle style);
+
+        private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+            stream.defaultReadObject();
+            strokeWidth = stream.readFloat();
+            textSize = stream.readFloat();
+            color = stream.readInt();
+            style = (Paint.Style) stream.readObject();
+        }
+
+        // 読み込み専用 (以前のクラスと同じく、defaultReadObject()の後に値があることを示すために定義する)
+        private void writeObject(ObjectOutputStream stream) throws IOException {
+            throw new NotSerializableException(getClass().getName());
+        }
+    }
+
+    private static final class LegacyLine extends LegacyShape {
+        private float x1;
+        private float y1;
+        private float x2;
+        private float y2;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapeLine(x1, y1, x2, y2, style);
+        }
+    }
+
+    private static final class LegacyRect extends LegacyShape {
+        private float x1;
+        private float y1;
+        private float x2;
+        private float y2;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapeRect(x1, y1, x2, y2, style);
+        }
+    }
+
+    private static final class LegacyCircle extends LegacyShape {
+        private float x;
+        private float y;
+        private float r;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapeCircle(x, y, r, style);
+        }
+    }
+
+    private static final class LegacyEllipse extends LegacyShape {
+        private float cx;
+        private float cy;
+        private float rx;
+        private float ry;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapeEllipse(cx, cy, rx, ry, style);
+        }
+    }
+
+    private enum LegacyArcState {
+        CHANGE_POINT,
+        CHANGE_CIRCLE
+    }
+
+    private static final class LegacyArc extends LegacyShape {
+        private float x1;
+        private float y1;
+        private float x2;
+        private float y2;
+        private float startAngle;
+        private float sweepAngle;
+        private LegacyArcState state;
+        private float startX;
+        private float startY;
+        private float endX;
+        private float endY;
+        private boolean largeArcFlag;
+        private boolean sweepFlag;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            // 保存されていた図形は描画を終えているため、状態は使わない
+            return new ShapeArc(x1, y1, x2, y2, startAngle, sweepAngle, startX, startY, endX, endY,
+                    largeArcFlag, sweepFlag, style);
+        }
+    }
+
+    private static final class LegacyPolyline extends LegacyShape {
+        private float x;
+        private float y;
+        private ArrayList<Float> pointList;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapePolyline(x, y, toPointBuffer(pointList), style);
+        }
+    }
+
+    private static final class LegacyPolygon extends LegacyShape {
+        private float x;
+        private float y;
+        private ArrayList<Float> pointList;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapePolygon(x, y, toPointBuffer(pointList), style);
+        }
+    }
+
+    private static final class LegacyText extends LegacyShape {
+        private float x;
+        private float y;
+        private String str;
+
+        @Override
+        ShapeBase toShape(ShapeStyle style) {
+            return new ShapeText(x, y, str, style);
+        }
+    }
+
+    /**
+     * 以前の頂点 (x, yの順)を変換する
+     */
+    private static PointBuffer toPointBuffer(ArrayList<Float> pointList) {
+        final PointBuffer points = new PointBuffer();
+        for (int i = 0; i + 1 < pointList.size(); i += 2)
+            points.add(pointList.get(i), pointList.get(i + 1));
+        return points;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Path;
+
+/**
+ * 拡大率に応じて頂点を間引いたパスを保持する (折れ線、多角形用)
+ * <div>
+ *     縮小表示時は1ピクセル未満の頂点の違いは見えないため、
+ *     Douglas-Peucker法で頂点を間引いたパスを描画する <br>
+ *     間引いたパスは詳細度ごとに必要になった時点で作成し、
+ *     頂点が変更された場合はinvalidate()で破棄する
+ * </div>
+ */
+final class PathDetailLevels {
+    /** 最も粗い詳細度 (拡大率 1/2^MAX_LEVEL以下は全てこの詳細度とする) */
+    private static final int MAX_LEVEL = 8;
+    /** 間引く際の許容誤差 (画面上のピクセル数) */
+    private static final float TOLERANCE_PIXELS = 0.5f;
+
+    /** 詳細度ごとの間引いたパス (0は使用しない) */
+    private final Path[] paths = new Path[MAX_LEVEL + 1];
+    /** 間引く前の頂点 (x, yの順) 間引いたパスの作成時のみ使用する */
+    private float[] points = null;
+
+    /**
+     * 拡大率から詳細度を返す
+     * @param scale 拡大率
+     * @return 詳細度 (0の場合、間引かない)
+     */
+    static int getLevel(float scale) {
+        if (scale >= 1)
+            return 0;
+        // 拡大率が 1/2^level 以上 1/2^(level-1) 未満の場合、level
+        final int level = (int)Math.ceil(-Math.log(scale) / Math.log(2));
+        return Math.min(Math.max(level, 1), MAX_LEVEL);
+    }
+
+    /**
+     * 詳細度から間引く際の許容誤差を返す
+     * <div>
+     *     画面上の誤差は拡大率に比例するため、その詳細度の最大の拡大率 (1/2^(level-1)未満)でも
+     *     TOLERANCE_PIXELS以内に収まるようにする
+     * </div>
+     * @param level 詳細度 (1以上)
+     * @return 許容誤差 (図形の座標)
+     */
+    static float getTolerance(int level) {
+        return TOLERANCE_PIXELS * (1 << (level - 1));
+    }
+
+    /**
+     * 間引いたパスを返す
+     * @param level 詳細度 (1以上)
+     * @return 作成済みのパス (無い場合、null)
+     */
+    Path get(int level) {
+        return paths[level];
+    }
+
+    /**
+     * 間引く前の頂点が設定されているか
+     * @return 設定されている場合、真
+     */
+    boolean hasPoints() {
+        return points != null;
+    }
+
+    /**
+     * 間引く前の頂点を設定する
+     * @param points 頂点 (x, yの順)
+     */
+    void setPoints(float[] points) {
+        this.points = points;
+    }
+
+    /**
+     * 間引いたパスを作成する
+     * @param level 詳細度 (1以上)
+     * @param close パスを閉じる場合、真
+     * @return 作成したパス
+     */
+    Path build(int level, boolean close) {
+        final boolean[] keep = simplify(points, getTolerance(level));
+
+        final Path path = new Path();
+        boolean first = true;
+        for (int i = 0; i < keep.length; i++) {
+            if (!keep[i])
+                continue;
+            if (first)
+                path.moveTo(points[i * 2], points[i * 2 + 1]);
+            else
+                path.lineTo(points[i * 2], points[i * 2 + 1]);
+            first = false;
+        }
+        if (close)
+            path.close();
+        paths[level] = path;
+        return path;
+    }
+
+    /**
+     * 作成済みのパスを移動する
+     * @param dx x軸方向の移動量
+     * @param dy y軸方向の移動量
+     */
+    void offset(float dx, float dy) {
+        for (Path path : paths) {
+            if (path != null)
+                path.offset(dx, dy);
+        }
+        if (points != null) {
+            for (int i = 0; i < points.length; i += 2) {
+                points[i] += dx;
+                points[i + 1] += dy;
+            }
+        }
+    }
+
+    /**
+     * 作成済みのパスを破棄する (頂点が変更された場合に呼び出す)
+     */
+    void invalidate() {
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = null;
+        points = null;
+    }
+
+    /**
+     * Douglas-Peucker法で残す頂点を決める
+     * @param points 頂点 (x, yの順)
+     * @param tolerance 許容誤差
+     * @return 頂点ごとの残す場合、真
+     */
+    static boolean[] simplify(float[] points, float tolerance) {
+        final int count = points.length / 2;
+        final boolean[] keep = new boolean[count];
+        if (count == 0)
+            return keep;
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        final float tolerance2 = tolerance * tolerance;
+        // 再帰の代わりに区間 (始点、終点の番号)を積む
+        final int[] stack = new int[count * 2];
+        int sp = 0;
+        stack[sp++] = 0;
+        stack[sp++] = count - 1;
+        while (sp > 0) {
+            final int end = stack[--sp];
+            final int start = stack[--sp];
+            if (end - start < 2)
+                continue;
+
+            float maxDistance2 = -1;
+            int maxIndex = -1;
+            for (int i = start + 1; i < end; i++) {
+                final float d2 = segmentDistance2(points, i, start, end);
+                if (d2 > maxDistance2) {
+                    maxDistance2 = d2;
+                    maxIndex = i;
+                }
+            }
+            if (maxDistance2 <= tolerance2)
+                continue;  // 区間内の頂点は全て間引く
+
+            keep[maxIndex] = true;
+            stack[sp++] = start;
+            stack[sp++] = maxIndex;
+            stack[sp++] = maxIndex;
+            stack[sp++] = end;
+        }
+        return keep;
+    }
+
+    /**
+     * 頂点から線分までの距離の2乗を返す
+     * @param points 頂点 (x, yの順)
+     * @param p 対象の頂点の番号
+     * @param a 線分の始点の番号
+     * @param b 線分の終点の番号
+     * @return 距離の2乗
+     */
+    private static float segmentDistance2(float[] points, int p, int a, int b) {
+        final float px = points[p * 2];
+        final float py = points[p * 2 + 1];
+        final float ax = points[a * 2];
+        final float ay = points[a * 2 + 1];
+        final float abx = points[b * 2] - ax;
+        final float aby = points[b * 2 + 1] - ay;
+        final float length2 = abx * abx + aby * aby;
+        float t = 0;
+        if (length2 > 0)
+            t = Math.max(0, Math.min(1, ((px - ax) * abx + (py - ay) * aby) / length2));
+        final float dx = px - (ax + abx * t);
+        final float dy = py - (ay + aby * t);
+        return dx * dx + dy * dy;
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.koba.testcanvas.shape;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * 頂点の座標を格納する (折れ線、多角形用)
+ * <div>
+ *     座標をボックス化せずにfloatの配列で保持する <br>
+ *     座標は x座標, y座標, x座標 ... の順に格納し、配列は不足した時点で2倍に拡張する <br>
+ *     moveTo()でGeometryArenaに移した場合、配列の代わりにアリーナのブロックに格納する <br>
+ *     複製 (Javaヒープの場合)は配列を複製元と共有し、どちらかを変更する時点で配列を複製する (コピーオンライト)
+ * </div>
+ */
+final class PointBuffer implements Serializable {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /** 座標 (size以降は未使用) 保存時は使用分のみ書き込む アリーナに格納している場合、null */
+    private transient float[] points;
+    /** 格納している値の数 (頂点の数の2倍) */
+    private int size = 0;
+    /** 座標を格納しているアリーナ (Javaヒープに格納している場合、null) */
+    private transient GeometryArena arena = null;
+    /** アリーナのブロックの番号 */
+    private transient long block = 0;
+    /** アリーナのブロックに格納できる値の数 */
+    private transient int capacity = 0;
+    /** pointsを他のPointBufferと共有している場合、真 (変更前に複製する) */
+    private transient boolean shared = false;
+
+    PointBuffer() {
+        points = new float[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * 複製用
+     * <div>
+     *     複製元がJavaヒープに格納している場合、配列を共有する (O(1)) <br>
+     *     アリーナに格納している場合はブロックを共有せず、Javaヒープに複製する
+     * </div>
+     * @param src 複製元
+     */
+    PointBuffer(PointBuffer src) {
+        size = src.size;
+        if (src.arena == null) {
+            points = src.points;
+            shared = true;
+            src.shared = true;
+            return;
+        }
+        points = new float[Math.max(src.size, DEFAULT_CAPACITY)];
+        src.copyTo(points, 0);
+    }
+
+    /**
+     * 格納している値の数を返す
+     * @return 値の数 (頂点の数の2倍)
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 値を返す
+     * @param index 位置 (偶数の場合x座標、奇数の場合y座標)
+     * @return 値
+     */
+    float get(int index) {
+        if (arena != null)
+            return arena.get(block, index);
+        return points[index];
+    }
+
+    /**
+     * 頂点を追加する
+     * @param x x座標
+     * @param y y座標
+     */
+    void add(float x, float y) {
+        if (arena != null) {
+            if (size + 2 > capacity)
+                grow(capacity * 2);
+            arena.set(block, size++, x);
+            arena.set(block, size++, y);
+            return;
+        }
+        if (shared) {
+            unshare((size + 2 > points.length) ? points.length * 2 : points.length);
+        } else if (size + 2 > points.length) {
+            final float[] newPoints = new float[points.length * 2];
+            System.arraycopy(points, 0, newPoints, 0, size);
+            points = newPoints;
+        }
+        points[size++] = x;
+        points[size++] = y;
+    }
+
+    /**
+     * 最後の頂点を変更する
+     * @param x x座標
+     * @param y y座標
+     */
+    void setLast(float x, float y) {
+        if (arena != null) {
+            arena.set(block, size - 2, x);
+            arena.set(block, size - 1, y);
+            return;
+        }
+        if (shared)
+            unshare(points.length);
+        points[size - 2] = x;
+        points[size - 1] = y;
+    }
+
+    /**
+     * 最後の頂点を削除する
+     * @param point 削除した頂点の座標の格納先 (x, yの順)
+     */
+    void removeLast(float[] point) {
+        point[0] = get(size - 2);
+        point[1] = get(size - 1);
+        size -= 2;  // 共有している配列は変更しない (以降の変更時に複製する)
+    }
+
+    /**
+     * 全ての頂点を移動する
+     * @param dx x軸方向の移動量
+     * @param dy y軸方向の移動量
+     */
+    void offset(float dx, float dy) {
+        if (arena != null) {
+            arena.offset(block, size, dx, dy);
+            return;
+        }
+        if (shared)
+            unshare(points.length);
+        for (int i = 0; i < size; i += 2) {
+            points[i] += dx;
+            points[i + 1] += dy;
+        }
+    }
+
+    /**
+     * 他のPointBufferと同じ座標にする
+     * <div>
+     *     配列は共有しない (描画用の複製に繰り返し写すため、容量が足りる場合はメモリを確保しない)
+     * </div>
+     * @param src 複製元
+     */
+    void set(PointBuffer src) {
+        if (arena != null) {
+            if (src.size > capacity)
+                grow(Math.max(src.size, capacity * 2));
+            for (int i = 0; i < src.size; i++)
+                arena.set(block, i, src.get(i));
+            size = src.size;
+            return;
+        }
+        if (shared || src.size > points.length) {
+            points = new float[Math.max(src.size, points.length * 2)];
+            shared = false;
+        }
+        src.copyTo(points, 0);
+        size = src.size;
+    }
+
+    /**
+     * 座標を配列に書き出す
+     * @param dst 書き出し先
+     * @param dstPos 書き出し先の開始位置
+     */
+    void copyTo(float[] dst, int dstPos) {
+        if (arena != null)
+            arena.read(block, dst, dstPos, size);
+        else
+            System.arraycopy(points, 0, dst, dstPos, size);
+    }
+
+    /**
+     * 座標の配列を返す (SVGへの書き出し等、読み取りのみに使う)
+     * @return 座標 (size()以降は未使用) アリーナに格納している場合、複製
+     */
+    float[] array() {
+        if (arena == null)
+            return points;
+        final float[] copy = new float[size];
+        copyTo(copy, 0);
+        return copy;
+    }
+
+    /**
+     * 座標の格納先を変更する
+     * @param dstArena 格納先のアリーナ (nullの場合、Javaヒープ)
+     */
+    void moveTo(GeometryArena dstArena) {
+        if (dstArena == arena)
+            return;
+        final int length = size;
+        final float[] heapPoints = new float[Math.max(length, DEFAULT_CAPACITY)];
+        copyTo(heapPoints, 0);
+        release();
+        size = length;
+        shared = false;
+        if (dstArena == null) {
+            points = heapPoints;
+            return;
+        }
+        capacity = GeometryArena.blockSize(Math.max(length, DEFAULT_CAPACITY));
+        block = dstArena.allocate(capacity);
+        dstArena.write(block, heapPoints, 0, length);
+        arena = dstArena;
+        points = null;
+    }
+
+    /**
+     * 頂点を全て削除する (格納先はそのまま使う)
+     */
+    void clear() {
+        if (shared) {
+            points = new float[DEFAULT_CAPACITY];
+            shared = false;
+        }
+        size = 0;
+    }
+
+    /**
+     * アリーナのブロックを解放する (図形を破棄する場合に呼び出す)
+     * <div>
+     *     解放後は頂点の無いJavaヒープの配列とする
+     * </div>
+     */
+    void release() {
+        if (arena == null)
+            return;
+        arena.free(block, capacity);
+        arena = null;
+        block = 0;
+        capacity = 0;
+        points = new float[DEFAULT_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * 共有している配列を複製して、以降は変更できるようにする
+     * <div>
+     *     共有相手の配列は変更しない (共有相手は自身の変更時に複製する)
+     * </div>
+     * @param newLength 複製後の配列の長さ
+     */
+    private void unshare(int newLength) {
+        final float[] newPoints = new float[newLength];
+        System.arraycopy(points, 0, newPoints, 0, size);
+        points = newPoints;
+        shared = false;
+    }
+
+    /**
+     * 配列を他のPointBufferと共有しているか
+     * @return 共有している場合、真 (共有相手が複製済みの場合も含む)
+     */
+    boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * アリーナのブロックを拡張する
+     * @param newCapacity 拡張後に格納できる値の数
+     */
+    private void grow(int newCapacity) {
+        final long newBlock = arena.allocate(newCapacity);
+        arena.copy(block, newBlock, size);
+        arena.free(block, capacity);
+        block = newBlock;
+        capacity = GeometryArena.blockSize(newCapacity);
+    }
+
+    /**
+     * 内部データ形式で書き込む (値の数と座標)
+     * @param out 書き込み先
+     * @throws IOException 書き込み失敗
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++)
+            out.writeFloat(get(i));
+    }
+
+    /**
+     * 内部データ形式から読み込む (座標はまとめて読み込む)
+     * @param in 読み込み元 (writeTo()で書き込んだ値の位置)
+     * @return Javaヒープに格納した座標
+     * @throws IOException 値の数が不正な場合
+     */
+    static PointBuffer readFrom(ByteBuffer in) throws IOException {
+        final int size = in.getInt();
+        if (size < 0 || size % 2 != 0 || size > in.remaining() / 4)
+            throw new IOException("invalid point count " + size);
+        final PointBuffer buffer = new PointBuffer();
+        buffer.points = new float[Math.max(size, DEFAULT_CAPACITY)];
+        in.asFloatBuffer().get(buffer.points, 0, size);
+        in.position(in.position() + size * 4);
+        buffer.size = size;
+        return buffer;
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        for (int i = 0; i < size; i++)
+            stream.writeFloat(get(i));
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        points = new float[Math.max(size, DEFAULT_CAPACITY)];
+        for (int i = 0; i < size; i++)
+            points[i] = stream.readFloat();
+    }
+}
@@ -0,0 +1,491 @@
+package com.example.koba.testcanvas.shape;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 外接矩形による空間インデックス (R-tree)
+ * <div>
+ *     要素の追加、削除、範囲検索、最近傍検索をO(log n)で行う <br>
+ *     要素は同一性(==)で区別する <br>
+ *     androidのクラスに依存しないこと (JVM上でテストするため)
+ * </div>
+ * @param <T> 要素の型
+ */
+final class RTree<T> {
+    /** ノードの最大要素数 */
+    private static final int MAX_ENTRIES = 16;
+    /** ノードの最小要素数 (ルート以外) */
+    private static final int MIN_ENTRIES = 6;
+
+    private Node root;
+    /** 要素から葉のエントリへの対応 (削除時の探索を省く) */
+    private final Map<T, Entry<T>> entryMap;
+
+    RTree() {
+        root = new Node(true);
+        entryMap = new IdentityHashMap<>();
+    }
+
+    /**
+     * 要素数を返す
+     * @return 要素数
+     */
+    int size() {
+        return entryMap.size();
+    }
+
+    /**
+     * 全要素を削除する
+     */
+    void clear() {
+        root = new Node(true);
+        entryMap.clear();
+    }
+
+    /**
+     * 要素を追加する <br>
+     * 既に追加済みの場合、範囲を更新する
+     * @param item 要素
+     * @param left 外接矩形の左端
+     * @param top 外接矩形の上端
+     * @param right 外接矩形の右端
+     * @param bottom 外接矩形の下端
+     */
+    void insert(T item, float left, float top, float right, float bottom) {
+        Entry<T> entry = entryMap.get(item);
+        if (entry != null) {
+            if (entry.equalsBounds(left, top, right, bottom))
+                return;
+            removeEntry(entry);
+        } else {
+            entry = new Entry<>(item);
+            entryMap.put(item, entry);
+        }
+        entry.set(left, top, right, bottom);
+        insertEntry(entry);
+    }
+
+    /**
+     * 要素を削除する
+     * @param item 要素
+     * @return 要素が存在した場合、真
+     */
+    boolean remove(T item) {
+        final Entry<T> entry = entryMap.remove(item);
+        if (entry == null)
+            return false;
+        removeEntry(entry);
+        return true;
+    }
+
+    /**
+     * 要素が含まれているか
+     * @param item 要素
+     * @return 含まれている場合、真
+     */
+    boolean contains(T item) {
+        return entryMap.containsKey(item);
+    }
+
+    /**
+     * 指定の範囲と外接矩形が交わる要素を全て取得する (順序は不定)
+     * @param left 範囲の左端
+     * @param top 範囲の上端
+     * @param right 範囲の右端
+     * @param bottom 範囲の下端
+     * @param out 結果の追加先
+     */
+    void search(float left, float top, float right, float bottom, Collection<? super T> out) {
+        search(root, left, top, right, bottom, out);
+    }
+
+    @SuppressWarnings("unchecked")  // 葉の子要素は必ずEntry<T>
+    private void search(Node node, float left, float top, float right, float bottom,
+                        Collection<? super T> out) {
+        for (int i = 0; i < node.count; i++) {
+            final Box child = node.children[i];
+            if (!child.intersects(left, top, right, bottom))
+                continue;
+            if (node.leaf)
+                out.add(((Entry<T>) child).item);
+            else
+                search((Node) child, left, top, right, bottom, out);
+        }
+    }
+
+    /**
+     * 指定の位置に外接矩形が最も近い要素を返す
+     * @param x x座標
+     * @param y y座標
+     * @param maxDistance 検索する最大距離
+     * @return 最も近い要素 (見つからない場合、null)
+     */
+    @SuppressWarnings("unchecked")  // 葉の子要素は必ずEntry<T>
+    T nearest(float x, float y, float maxDistance) {
+        final float maxDistance2 = maxDistance * maxDistance;
+        // 距離の近い順に探索する (best-first search)
+        final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate(root, root.distance2(x, y)));
+        while (!queue.isEmpty()) {
+            final Candidate candidate = queue.poll();
+            if (candidate.distance2 > maxDistance2)
+                return null;
+            if (candidate.box instanceof Entry)
+                return ((Entry<T>) candidate.box).item;
+
+            final Node node = (Node) candidate.box;
+            for (int i = 0; i < node.count; i++) {
+                final Box child = node.children[i];
+                final float d2 = child.distance2(x, y);
+                if (d2 <= maxDistance2)
+                    queue.add(new Candidate(child, d2));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * エントリを適切な葉に追加する
+     * @param entry 追加するエントリ
+     */
+    private void insertEntry(Entry<T> entry) {
+        final Node leaf = chooseLeaf(entry);
+        leaf.add(entry);
+        adjustTree(leaf);
+    }
+
+    /**
+     * エントリを削除し、木を整える
+     * @param entry 削除するエントリ
+     */
+    private void removeEntry(Entry<T> entry) {
+        final Node leaf = entry.parent;
+        leaf.remove(entry);
+        entry.parent = null;
+        condenseTree(leaf);
+    }
+
+    /**
+     * 追加時の範囲の拡大が最も小さい葉を選ぶ
+     * @param box 追加する範囲
+     * @return 追加先の葉
+     */
+    private Node chooseLeaf(Box box) {
+        Node node = root;
+        while (!node.leaf) {
+            Node best = null;
+            float bestEnlargement = Float.POSITIVE_INFINITY;
+            float bestArea = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < node.count; i++) {
+                final Node child = (Node) node.children[i];
+                final float area = child.area();
+                final float enlargement = child.unionArea(box) - area;
+                if (enlargement < bestEnlargement
+                        || (enlargement == bestEnlargement && area < bestArea)) {
+                    best = child;
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                }
+            }
+            node = best;
+        }
+        return node;
+    }
+
+    /**
+     * 追加後、ルートまで範囲を更新し、溢れたノードを分割する
+     * @param node 要素を追加したノード
+     */
+    private void adjustTree(Node node) {
+        while (true) {
+            final Node sibling = (node.count > MAX_ENTRIES) ? split(node) : null;
+            node.updateBounds();
+            if (node == root) {
+                if (sibling != null) {
+                    // ルートの分割時は木を高くする
+                    root = new Node(false);
+                    root.add(node);
+                    root.add(sibling);
+                    root.updateBounds();
+                }
+                return;
+            }
+            final Node parent = node.parent;
+            if (sibling != null)
+                parent.add(sibling);
+            node = parent;
+        }
+    }
+
+    /**
+     * 削除後、要素数が少なくなったノードを取り除き、その要素を再追加する
+     * @param node 要素を削除したノード
+     */
+    private void condenseTree(Node node) {
+        final List<Entry<T>> orphans = new ArrayList<>();
+        while (node != root) {
+            final Node parent = node.parent;
+            if (node.count < MIN_ENTRIES) {
+                parent.remove(node);
+                collectEntries(node, orphans);
+            } else {
+                node.updateBounds();
+            }
+            node = parent;
+        }
+        root.updateBounds();
+
+        // 子が1つのみのルートは取り除く
+        while (!root.leaf && root.count == 1) {
+            root = (Node) root.children[0];
+            root.parent = null;
+        }
+        if (!root.leaf && root.count == 0)
+            root = new Node(true);
+
+        for (Entry<T> entry : orphans)
+            insertEntry(entry);
+    }
+
+    /**
+     * ノード以下の全てのエントリを集める
+     * @param node 対象のノード
+     * @param out 結果の追加先
+     */
+    @SuppressWarnings("unchecked")  // 葉の子要素は必ずEntry<T>
+    private void collectEntries(Node node, List<Entry<T>> out) {
+        for (int i = 0; i < node.count; i++) {
+            if (node.leaf)
+                out.add((Entry<T>) node.children[i]);
+            else
+                collectEntries((Node) node.children[i], out);
+        }
+    }
+
+    /**
+     * 溢れたノードを2つに分割する (quadratic split)
+     * @param node 分割するノード (MAX_ENTRIES + 1個の子を持つ)
+     * @return 新しく作成したノード (nodeと同じ親に追加すること)
+     */
+    private Node split(Node node) {
+        final Box[] boxes = new Box[node.count];
+        System.arraycopy(node.children, 0, boxes, 0, node.count);
+        node.clearChildren();
+        final Node sibling = new Node(node.leaf);
+
+        // 同じノードに入れると無駄な面積が最も大きくなる2つを起点とする
+        int seed1 = 0;
+        int seed2 = 1;
+        float worst = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < boxes.length; i++) {
+            for (int j = i + 1; j < boxes.length; j++) {
+                final float waste = boxes[i].unionArea(boxes[j]) - boxes[i].area() - boxes[j].area();
+                if (waste > worst) {
+                    worst = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        node.add(boxes[seed1]);
+        node.updateBounds();
+        sibling.add(boxes[seed2]);
+        sibling.updateBounds();
+        boxes[seed1] = null;
+        boxes[seed2] = null;
+
+        int remaining = boxes.length - 2;
+        while (remaining > 0) {
+            // 最小要素数を満たすため、残りを全て追加する必要がある場合
+            if (node.count + remaining <= MIN_ENTRIES) {
+                addAll(node, boxes);
+                break;
+            }
+            if (sibling.count + remaining <= MIN_ENTRIES) {
+                addAll(sibling, boxes);
+                break;
+            }
+
+            // どちらに入れるかの差が最も大きいものから追加する
+            int next = -1;
+            float maxDiff = Float.NEGATIVE_INFINITY;
+            float nextD1 = 0;
+            float nextD2 = 0;
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxes[i] == null)
+                    continue;
+                final float d1 = node.unionArea(boxes[i]) - node.area();
+                final float d2 = sibling.unionArea(boxes[i]) - sibling.area();
+                final float diff = Math.abs(d1 - d2);
+                if (diff > maxDiff) {
+                    maxDiff = diff;
+                    next = i;
+                    nextD1 = d1;
+                    nextD2 = d2;
+                }
+            }
+
+            final Node target;
+            if (nextD1 < nextD2)
+                target = node;
+            else if (nextD2 < nextD1)
+                target = sibling;
+            else
+                target = (node.count <= sibling.count) ? node : sibling;
+            target.add(boxes[next]);
+            target.updateBounds();
+            boxes[next] = null;
+            remaining--;
+        }
+
+        node.updateBounds();
+        sibling.updateBounds();
+        return sibling;
+    }
+
+    /**
+     * 残っている全ての範囲をノードに追加する
+     * @param node 追加先
+     * @param boxes 追加する範囲 (追加済みのものはnull)
+     */
+    private static void addAll(Node node, Box[] boxes) {
+        for (int i = 0; i < boxes.length; i++) {
+            if (boxes[i] == null)
+                continue;
+            node.add(boxes[i]);
+            boxes[i] = null;
+        }
+    }
+
+    /**
+     * 外接矩形
+     */
+    private static class Box {
+        float left;
+        float top;
+        float right;
+        float bottom;
+        Node parent;
+
+        void set(float left, float top, float right, float bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        boolean equalsBounds(float left, float top, float right, float bottom) {
+            return this.left == left && this.top == top && this.right == right && this.bottom == bottom;
+        }
+
+        boolean intersects(float left, float top, float right, float bottom) {
+            return this.left <= right && left <= this.right && this.top <= bottom && top <= this.bottom;
+        }
+
+        float area() {
+            return (right - left) * (bottom - top);
+        }
+
+        float unionArea(Box box) {
+            final float w = Math.max(right, box.right) - Math.min(left, box.left);
+            final float h = Math.max(bottom, box.bottom) - Math.min(top, box.top);
+            return w * h;
+        }
+
+        /**
+         * 点との距離の2乗 (点が内部にある場合、0)
+         */
+        float distance2(float x, float y) {
+            final float dx = Math.max(Math.max(left - x, x - right), 0);
+            final float dy = Math.max(Math.max(top - y, y - bottom), 0);
+            return dx * dx + dy * dy;
+        }
+    }
+
+    /**
+     * 葉に格納する要素
+     */
+    private static final class Entry<T> extends Box {
+        final T item;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * 内部ノードまたは葉
+     */
+    private static final class Node extends Box {
+        final boolean leaf;
+        final Box[] children = new Box[MAX_ENTRIES + 1];  // 分割前の一時的な溢れ分を含む
+        int count = 0;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(Box child) {
+            children[count++] = child;
+            child.parent = this;
+        }
+
+        void remove(Box child) {
+            for (int i = 0; i < count; i++) {
+                if (children[i] != child)
+                    continue;
+                children[i] = children[--count];
+                children[count] = null;
+                return;
+            }
+        }
+
+        void clearChildren() {
+            for (int i = 0; i < count; i++)
+                children[i] = null;
+            count = 0;
+        }
+
+        void updateBounds() {
+            if (count == 0) {
+                set(0, 0, 0, 0);
+                return;
+            }
+            float l = Float.POSITIVE_INFINITY;
+            float t = Float.POSITIVE_INFINITY;
+            float r = Float.NEGATIVE_INFINITY;
+            float b = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                final Box child = children[i];
+                l = Math.min(l, child.left);
+                t = Math.min(t, child.top);
+                r = Math.max(r, child.right);
+                b = Math.max(b, child.bottom);
+            }
+            set(l, t, r, b);
+        }
+    }
+
+    /**
+     * 最近傍検索の候補
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        final Box box;
+        final float distance2;
+
+        Candidate(Box box, float distance2) {
+            this.box = box;
+            this.distance2 = distance2;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Float.compare(distance2, o.distance2);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+/**
+ * 複数の図形を選択する範囲 (矩形または投げ縄)
+ * <div>
+ *     矩形はドラッグの始点と現在位置を対角とする <br>
+ *     投げ縄はドラッグの軌跡を頂点とする多角形とする (始点と終点は閉じているとみなす)
+ * </div>
+ */
+final class SelectionArea {
+    /** 投げ縄の場合、真 */
+    private boolean lasso = false;
+    /** 範囲を指定中の場合、真 */
+    private boolean active = false;
+    /** 投げ縄の頂点 */
+    private final PointBuffer points = new PointBuffer();
+    /** 表示用の投げ縄の輪郭 */
+    private final Path path = new Path();
+    private float startX = 0;  // 始点 x座標
+    private float startY = 0;  // 始点 y座標
+    // 判定する図形の移動量 (図形の座標に加えて判定する)
+    private float shapeOffsetX = 0;
+    private float shapeOffsetY = 0;
+    // 範囲の外接矩形
+    private float left = 0;
+    private float top = 0;
+    private float right = 0;
+    private float bottom = 0;
+
+    /**
+     * 範囲の指定を開始する
+     * @param x 始点のx座標
+     * @param y 始点のy座標
+     * @param lasso 投げ縄の場合、真 (偽の場合、矩形)
+     */
+    void start(float x, float y, boolean lasso) {
+        this.lasso = lasso;
+        active = true;
+        startX = x;
+        startY = y;
+        left = right = x;
+        top = bottom = y;
+        points.clear();
+        path.reset();
+        if (lasso) {
+            points.add(x, y);
+            path.moveTo(x, y);
+        }
+    }
+
+    /**
+     * 範囲を変更する (矩形の場合は対角を移し、投げ縄の場合は頂点を追加する)
+     * @param x 現在位置のx座標
+     * @param y 現在位置のy座標
+     */
+    void moveTo(float x, float y) {
+        if (!active)
+            return;
+        if (lasso) {
+            points.add(x, y);
+            path.lineTo(x, y);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        } else {
+            left = Math.min(startX, x);
+            top = Math.min(startY, y);
+            right = Math.max(startX, x);
+            bottom = Math.max(startY, y);
+        }
+    }
+
+    /**
+     * 範囲の指定を終了する (範囲は破棄する)
+     */
+    void clear() {
+        active = false;
+        points.clear();
+        path.reset();
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    float getLeft() {
+        return left;
+    }
+
+    float getTop() {
+        return top;
+    }
+
+    float getRight() {
+        return right;
+    }
+
+    float getBottom() {
+        return bottom;
+    }
+
+    /**
+     * 判定する図形の移動量を設定する (ShapeBase.translate()で移動した量)
+     * <div>
+     *     以降の判定では、指定の座標に移動量を加えた位置で判定する
+     * </div>
+     * @param dx x軸方向の移動量
+     * @param dy y軸方向の移動量
+     */
+    void setShapeOffset(float dx, float dy) {
+        shapeOffsetX = dx;
+        shapeOffsetY = dy;
+    }
+
+    /**
+     * 点が範囲内にあるか
+     * @param x x座標 (図形の座標)
+     * @param y y座標 (図形の座標)
+     * @return 範囲内の場合、真
+     */
+    boolean contains(float x, float y) {
+        return containsPoint(x + shapeOffsetX, y + shapeOffsetY);
+    }
+
+    /**
+     * 点が範囲内にあるか (移動量は加えない)
+     * <div>
+     *     投げ縄の場合、始点から水平に伸ばした半直線と辺の交差数で判定する (偶奇規則)
+     * </div>
+     * @param x x座標
+     * @param y y座標
+     * @return 範囲内の場合、真
+     */
+    private boolean containsPoint(float x, float y) {
+        if (x < left || x > right || y < top || y > bottom)
+            return false;
+        if (!lasso)
+            return true;
+
+        final int n = points.size() / 2;
+        if (n < 3)
+            return false;
+        boolean inside = false;
+        float ax = points.get(n * 2 - 2);
+        float ay = points.get(n * 2 - 1);
+        for (int i = 0; i < n; i++) {
+            final float bx = points.get(i * 2);
+            final float by = points.get(i * 2 + 1);
+            if ((ay > y) != (by > y) && x < ax + (bx - ax) * (y - ay) / (by - ay))
+                inside = !inside;
+            ax = bx;
+            ay = by;
+        }
+        return inside;
+    }
+
+    /**
+     * 線分が範囲内に含まれるか (図形の座標)
+     * <div>
+     *     両端が範囲内にあり、投げ縄の辺と交差しない場合に含まれるとする
+     *     (矩形は凸のため、両端のみで判定する)
+     * </div>
+     * @param ax 始点のx座標
+     * @param ay 始点のy座標
+     * @param bx 終点のx座標
+     * @param by 終点のy座標
+     * @return 含まれる場合、真
+     */
+    boolean containsSegment(float ax, float ay, float bx, float by) {
+        ax += shapeOffsetX;
+        ay += shapeOffsetY;
+        bx += shapeOffsetX;
+        by += shapeOffsetY;
+        if (!containsPoint(ax, ay) || !containsPoint(bx, by))
+            return false;
+        if (!lasso)
+            return true;
+
+        final int n = points.size() / 2;
+        float px = points.get(n * 2 - 2);
+        float py = points.get(n * 2 - 1);
+        for (int i = 0; i < n; i++) {
+            final float qx = points.get(i * 2);
+            final float qy = points.get(i * 2 + 1);
+            if (crosses(ax, ay, bx, by, px, py, qx, qy))
+                return false;
+            px = qx;
+            py = qy;
+        }
+        return true;
+    }
+
+    /**
+     * 折れ線が範囲内に含まれるか
+     * @param x 始点のx座標
+     * @param y 始点のy座標
+     * @param points 始点以降の点の座標 (x, yの順)
+     * @param closed 終点と始点を結ぶ場合 (多角形の場合)、真
+     * @return 含まれる場合、真
+     */
+    boolean containsPolyline(float x, float y, PointBuffer points, boolean closed) {
+        if (!contains(x, y))
+            return false;
+        float prevX = x;
+        float prevY = y;
+        for (int i = 0; i + 1 < points.size(); i += 2) {
+            final float px = points.get(i);
+            final float py = points.get(i + 1);
+            if (!containsSegment(prevX, prevY, px, py))
+                return false;
+            prevX = px;
+            prevY = py;
+        }
+        return !closed || containsSegment(prevX, prevY, x, y);
+    }
+
+    /**
+     * 楕円の弧が範囲内に含まれるか (弧を一定の角度ごとに分割した折れ線で判定する)
+     * @param cx 中心のx座標
+     * @param cy 中心のy座標
+     * @param rx x方向の半径
+     * @param ry y方向の半径
+     * @param startAngle 開始角度 (度)
+     * @param sweepAngle 弧の角度 (度)
+     * @return 全て範囲内の場合、真
+     */
+    boolean containsArc(float cx, float cy, float rx, float ry, float startAngle, float sweepAngle) {
+        final int division = 32;
+        float prevX = cx + rx * (float)Math.cos(Math.toRadians(startAngle));
+        float prevY = cy + ry * (float)Math.sin(Math.toRadians(startAngle));
+        for (int i = 1; i <= division; i++) {
+            final double angle = Math.toRadians(startAngle + sweepAngle * i / division);
+            final float px = cx + rx * (float)Math.cos(angle);
+            final float py = cy + ry * (float)Math.sin(angle);
+            if (!containsSegment(prevX, prevY, px, py))
+                return false;
+            prevX = px;
+            prevY = py;
+        }
+        return true;
+    }
+
+    /**
+     * 2つの線分が交差するか (端点で接する場合は交差しないとする)
+     */
+    private static boolean crosses(float ax, float ay, float bx, float by,
+                                   float px, float py, float qx, float qy) {
+        final float d1 = cross(px, py, qx, qy, ax, ay);
+        final float d2 = cross(px, py, qx, qy, bx, by);
+        final float d3 = cross(ax, ay, bx, by, px, py);
+        final float d4 = cross(ax, ay, bx, by, qx, qy);
+        return ((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0));
+    }
+
+    /**
+     * 線分opに対して点rがどちら側にあるか (外積)
+     * @return 正の場合と負の場合で反対側 0の場合、直線上
+     */
+    private static float cross(float ox, float oy, float px, float py, float rx, float ry) {
+        return (px - ox) * (ry - oy) - (py - oy) * (rx - ox);
+    }
+
+    /**
+     * 範囲の輪郭を複写する (UIスレッド以外での描画用)
+     * @param dst 複写先 (指定中でない場合、変更しない)
+     * @return 指定中の場合、真
+     */
+    boolean copyPathTo(Path dst) {
+        if (!active)
+            return false;
+        if (lasso) {
+            dst.set(path);
+        } else {
+            dst.rewind();
+            dst.addRect(left, top, right, bottom, Path.Direction.CW);
+        }
+        return true;
+    }
+
+    /**
+     * 範囲の輪郭を描画する
+     * @param canvas 描画先 (図形の座標に変換済み)
+     * @param paint 輪郭の描画用
+     */
+    void draw(Canvas canvas, Paint paint) {
+        if (!active)
+            return;
+        if (lasso)
+            canvas.drawPath(path, paint);
+        else
+            canvas.drawRect(left, top, right, bottom, paint);
+    }
+}
@@ -1,10 +1,17 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.RectF;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ShapeArc extends ShapeBase {
+    // 内部データ形式のフラグ
+    private static final int FLAG_LARGE_ARC = 1;
+    private static final int FLAG_SWEEP = 2;
+
     // 2つの状態を持ち、各状態で操作が変わる
     // 1. 端点2つを決定する （最初のみ）
     // 2. 弧のサイズを変更する　（2回目以降）
@@ -24,13 +31,17 @@ class ShapeArc extends ShapeBase {
     private float endY;  // 弧の末端2 y座標
     private boolean largeArcFlag;
     private boolean sweepFlag;
+    // addPoint()で追加した円上の点 (removeLastPoint()用、描画中の図形のみ 追加していない場合、null)
+    private PointBuffer circlePoints = null;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeArc(float x, float y, Paint paint) {
-        super(paint);
+    ShapeArc(float x, float y, ShapeStyle style) {
+        super(style);
 
         startX = x;
         startY = y;
+        endX = x;  // 端点が重なる場合、changePoint()で設定しないため
+        endY = y;
         changePoint(x, y);
         startAngle = 90;
         sweepAngle = 180;
@@ -41,7 +52,7 @@ class ShapeArc extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x1 同名メンバ変数
      * @param y1 同名メンバ変数
      * @param x2 同名メンバ変数
@@ -54,12 +65,12 @@ class ShapeArc extends ShapeBase {
      * @param endY 同名メンバ変数
      * @param largeArcFlag 同名メンバ変数
      * @param sweepFlag 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeArc(float x1, float y1, float x2, float y2, float startAngle, float sweepAngle,
+    ShapeArc(float x1, float y1, float x2, float y2, float startAngle, float sweepAngle,
                      float startX, float startY, float endX, float endY,
-                     boolean largeArcFlag, boolean sweepFlag, Paint paint) {
-        super(new Paint(paint));
+                     boolean largeArcFlag, boolean sweepFlag, ShapeStyle style) {
+        super(style);
 
         this.x1 = x1;
         this.y1 = y1;
@@ -85,12 +96,12 @@ class ShapeArc extends ShapeBase {
      * @param r 半径
      * @param largeArcFlag 同名メンバ変数
      * @param sweepFlag 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
     private ShapeArc(double mx, double my, double r,
                      boolean largeArcFlag, boolean sweepFlag,
-                     double x, double y, Paint paint) {
-        super(paint);
+                     double x, double y, ShapeStyle style) {
+        super(style);
         /*
          * 点P(mx, my) 点R(x, y)とする
          * 円C(半径r、点P、Rを通る)上の点を点Qとする (円Cの中心を点Cとする)
@@ -171,20 +182,20 @@ class ShapeArc extends ShapeBase {
      * @param xAxisRotation 値に関係なく0とみなす
      * @param largeArcFlag 同名メンバ変数
      * @param sweepFlag 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
     static ShapeArc newFromSvg(double mx, double my, double rx, double ry, double xAxisRotation,
                                boolean largeArcFlag, boolean sweepFlag,
-                               double x, double y, Paint paint) {
+                               double x, double y, ShapeStyle style) {
         // 誤差の許容範囲は適当 (もっと厳しくしてもいいかも)
-        if (paint == null)
+        if (style == null)
             return null;
         if (xAxisRotation != 0)  // 回転に未対応
             return null;
         if (Math.abs(rx - ry) > 0.01)  // 真円以外に未対応 (誤差の許容)
             return null;
 
-        return new ShapeArc(mx, my, rx, largeArcFlag, sweepFlag, x, y, paint);
+        return new ShapeArc(mx, my, rx, largeArcFlag, sweepFlag, x, y, style);
     }
 
     @Override
@@ -201,8 +212,8 @@ class ShapeArc extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
 
         final double rx = Math.abs(x1 - x2) / 2;
         final double ry = Math.abs(y1 - y2) / 2;
@@ -210,6 +221,74 @@ class ShapeArc extends ShapeBase {
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     */
+    static ShapeArc newFromData(ByteBuffer in, ShapeStyle style) {
+        final float x1 = in.getFloat();
+        final float y1 = in.getFloat();
+        final float x2 = in.getFloat();
+        final float y2 = in.getFloat();
+        final float startAngle = in.getFloat();
+        final float sweepAngle = in.getFloat();
+        final float startX = in.getFloat();
+        final float startY = in.getFloat();
+        final float endX = in.getFloat();
+        final float endY = in.getFloat();
+        final int flags = in.get();
+        return new ShapeArc(x1, y1, x2, y2, startAngle, sweepAngle, startX, startY, endX, endY,
+                (flags & FLAG_LARGE_ARC) != 0, (flags & FLAG_SWEEP) != 0, style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x1);
+        out.writeFloat(y1);
+        out.writeFloat(x2);
+        out.writeFloat(y2);
+        out.writeFloat(startAngle);
+        out.writeFloat(sweepAngle);
+        out.writeFloat(startX);
+        out.writeFloat(startY);
+        out.writeFloat(endX);
+        out.writeFloat(endY);
+        out.writeByte((largeArcFlag ? FLAG_LARGE_ARC : 0) | (sweepFlag ? FLAG_SWEEP : 0));
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        // 弧を含む円全体を範囲とする
+        bounds.set(x1, y1, x2, y2);
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        final float cx = (x1 + x2) / 2;
+        final float cy = (y1 + y2) / 2;
+        final float r = Math.abs(x2 - x1) / 2;
+        // 角度は描画時と同じく、x軸の正の向きから時計回り (y軸が下向きのため)
+        final double angle = Math.toDegrees(Math.atan2(y - cy, x - cx));
+        final double fromStart = ((angle - startAngle) % 360 + 360) % 360;
+        if (fromStart <= sweepAngle)
+            return Math.abs((float)Math.hypot(x - cx, y - cy) - r);
+
+        // 弧の範囲外の場合、近い方の端点までの距離
+        final double start = Math.toRadians(startAngle);
+        final double end = Math.toRadians(startAngle + sweepAngle);
+        final float toStart = (float)Math.hypot(x - (cx + r * Math.cos(start)), y - (cy + r * Math.sin(start)));
+        final float toEnd = (float)Math.hypot(x - (cx + r * Math.cos(end)), y - (cy + r * Math.sin(end)));
+        return Math.min(toStart, toEnd);
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        final float r = Math.abs(x2 - x1) / 2;
+        return area.containsArc((x1 + x2) / 2, (y1 + y2) / 2, r, r, startAngle, sweepAngle);
+    }
+
     @Override
     void draw(Canvas canvas) {
         canvas.drawArc(x1, y1, x2, y2, startAngle, sweepAngle, false, getPaint());
@@ -223,6 +302,8 @@ class ShapeArc extends ShapeBase {
                 break;
             case CHANGE_CIRCLE:
                 changeCircle(x, y);
+                if (circlePoints != null)
+                    circlePoints.setLast(x, y);
                 break;
         }
     }
@@ -400,9 +481,34 @@ class ShapeArc extends ShapeBase {
     @Override
     void addPoint(float x, float y) {
         state = State.CHANGE_CIRCLE;
+        if (circlePoints == null)
+            circlePoints = new PointBuffer();
+        circlePoints.add(x, y);
         changeCircle(x, y);
     }
 
+    @Override
+    boolean removeLastPoint(float[] point) {
+        if (circlePoints == null || circlePoints.size() == 0)
+            return false;  // 追加した点が無い (読み込んだ図形等)
+        circlePoints.removeLast(point);
+        final int size = circlePoints.size();
+        if (size > 0) {
+            // 1つ前に追加した点を通る円に戻す
+            changeCircle(circlePoints.get(size - 2), circlePoints.get(size - 1));
+            return true;
+        }
+
+        // 端点の変更中の状態に戻す (端点2つを直径とする半円)
+        state = State.CHANGE_POINT;
+        startAngle = 90;
+        sweepAngle = 180;
+        largeArcFlag = true;
+        sweepFlag = false;
+        changePoint(endX, endY);
+        return true;
+    }
+
     @Override
     void transferRelative(float dx, float dy) {
         x1 += dx;
@@ -413,12 +519,38 @@ class ShapeArc extends ShapeBase {
         startY += dy;
         endX += dx;
         endY += dy;
+        if (circlePoints != null)
+            circlePoints.offset(dx, dy);
+    }
+
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        // 描画用のため、追加した円上の点は設定しない (removeLastPoint()は使わない)
+        final ShapeArc arc = (ShapeArc)dst;
+        arc.x1 = x1;
+        arc.y1 = y1;
+        arc.x2 = x2;
+        arc.y2 = y2;
+        arc.startAngle = startAngle;
+        arc.sweepAngle = sweepAngle;
+        arc.state = state;
+        arc.startX = startX;
+        arc.startY = startY;
+        arc.endX = endX;
+        arc.endY = endY;
+        arc.largeArcFlag = largeArcFlag;
+        arc.sweepFlag = sweepFlag;
     }
 
     @Override
     public ShapeBase copyShape() {
-        return new ShapeArc(x1, y1, x2, y2, startAngle, sweepAngle,
-                startX, startY, endX, endY, largeArcFlag, sweepFlag, getPaint());
+        final ShapeArc copy = new ShapeArc(x1, y1, x2, y2, startAngle, sweepAngle,
+                startX, startY, endX, endY, largeArcFlag, sweepFlag, getStyle());
+        // 描画中の図形の複製は描画を続けられるようにする
+        copy.state = state;
+        if (circlePoints != null)
+            copy.circlePoints = new PointBuffer(circlePoints);
+        return copy;
     }
 
     private enum State {
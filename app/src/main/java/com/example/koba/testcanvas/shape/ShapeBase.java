@@ -2,47 +2,82 @@ package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.RectF;
 
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 /**
  * 図形情報を表す基底クラス
  * <ol>
  *     派生クラス実装時の注意点
- *     <li> (float, float, Paint)のコンストラクタを作成すること </li>
+ *     <li> (float, float, ShapeStyle)のコンストラクタを作成すること </li>
  *     <li> SVGファイルからの読み込み用に static Shape* newFromSvg(*)メソッドを実装すること </li>
- *     <li> シリアライズ化可能であること </li>
+ *     <li> シリアライズ化可能であること (以前の内部データ形式の読み込み用) </li>
+ *     <li> 内部データ形式 (ShapeCodec)用に writeData()と static Shape* newFromData(DataInput, ShapeStyle)メソッドを実装し、
+ *          ShapeCodecの種類の番号に追加すること </li>
  * </ol>
+ * <div>
+ *     移動は座標を書き換えずに移動量として保持し、描画時に反映する (頂点数によらずO(1)で移動できる) <br>
+ *     派生クラスの座標、描画、範囲は移動量を含まない座標で扱う <br>
+ *     移動量は図形の変更時に座標に反映する (applyOffset())
+ *     SVG出力、シリアライズ時は移動量を反映した複製を出力する (toBaked())
+ * </div>
+ * <div>
+ *     文書のスナップショット (DocumentSnapshot)、描画内容 (ShapeSnapshot)に含まれる図形は変更しない。
+ *     変更する場合、ShapeManagerが複製して置き換える (ownerVersion、getLatest()) <br>
+ *     描画用のキャッシュ (範囲、記録した描画内容、パス)はスナップショットに含める前にUIスレッドで作成しておき
+ *     (prepareDraw()、prepareDrawScaled())、他のスレッドでの描画時は読み取りのみ行う
+ * </div>
  */
 abstract class ShapeBase implements Serializable {
     // serialVersionUID: 以下の理由から定義しない (デフォルトを使用する)
     //   * 派生クラスで定義するのが面倒
     //   * シリアライズ化する変数を変更することがほぼない
     //   * 一時保存用なので読み込み失敗しても問題ない
-    private transient Paint paint;  // writeObject() readObject()でシリアライズ対応する
+    private ShapeStyle style;  // 見た目 (同じ見た目の図形と共有する)
     private String attrId = null;  // ID属性
+    private transient int zOrder = 0;  // 描画順 (ShapeManagerが設定する)
+    private transient boolean selected = false;  // 複数選択中の場合、真 (ShapeManagerが設定する)
+    private transient float offsetX = 0;  // 座標に未反映の移動量 x軸方向
+    private transient float offsetY = 0;  // 座標に未反映の移動量 y軸方向
+    private transient RectF shapeBounds = null;  // 移動量を含まない図形の範囲 (図形の変更時に求め直す)
+    private transient boolean shapeBoundsValid = false;  // shapeBoundsが現在の図形の範囲の場合、真
+    private transient Picture picture = null;  // 描画内容の記録 (図形の変更時に破棄する)
+    private transient float pictureLeft = 0;  // 記録時の描画範囲の左端
+    private transient float pictureTop = 0;  // 記録時の描画範囲の上端
+    private transient int ownerVersion = 0;  // 変更できる文書の版 (ShapeManagerが設定する 未設定の場合、0)
+    private transient ShapeBase replacement = null;  // 複製して置き換えた後の図形 (置き換えていない場合、null)
 
-    ShapeBase(Paint paint) {
-        this.paint = new Paint(paint);
+    ShapeBase(ShapeStyle style) {
+        this.style = style;
     }
 
     /**
      * 描画時の線の見た目を取得
-     * @return 見た目の設定
+     * @return 見た目の設定 (同じ見た目の図形と共有するため、変更しないこと)
      */
     final Paint getPaint() {
-        return paint;
+        return style.getPaint();
     }
 
     /**
-     * 描画時の線の見た目を設定
-     * @param paint 見た目の設定
+     * 見た目を取得
+     * @return 見た目
      */
-    final void setPaint(Paint paint) {
-        this.paint = paint;
+    final ShapeStyle getStyle() {
+        return style;
+    }
+
+    /**
+     * 見た目を設定
+     * @param style 見た目 (ShapeStyleTableで共有しているもの)
+     */
+    final void setStyle(ShapeStyle style) {
+        this.style = style;
     }
 
     /**
@@ -59,6 +94,274 @@ abstract class ShapeBase implements Serializable {
     // どこを代表となる位置とするかは図形ごとに決める
     abstract protected float getY();
 
+    /**
+     * 描画順を取得する
+     * @return 描画順 (大きいものほど手前に描画する)
+     */
+    final int getZOrder() {
+        return zOrder;
+    }
+
+    /**
+     * 描画順を設定する
+     * @param zOrder 描画順
+     */
+    final void setZOrder(int zOrder) {
+        this.zOrder = zOrder;
+    }
+
+    /**
+     * 複数選択中か
+     * @return 選択中の場合、真
+     */
+    final boolean isSelected() {
+        return selected;
+    }
+
+    /**
+     * 複数選択中かを設定する
+     * @param selected 選択中の場合、真
+     */
+    final void setSelected(boolean selected) {
+        this.selected = selected;
+    }
+
+    /**
+     * 変更できる文書の版を取得する
+     * @return 版 (未設定の場合、0)
+     */
+    final int getOwnerVersion() {
+        return ownerVersion;
+    }
+
+    /**
+     * 変更できる文書の版を設定する (ShapeManagerが設定する)
+     * @param ownerVersion 版 (この版のスナップショットを作成するまで、複製せずに変更できる)
+     */
+    final void setOwnerVersion(int ownerVersion) {
+        this.ownerVersion = ownerVersion;
+    }
+
+    /**
+     * 置き換えた後の図形を設定する (履歴等の古い参照から最新の図形を辿る用)
+     * @param replacement 置き換えた後の図形
+     */
+    final void setReplacement(ShapeBase replacement) {
+        this.replacement = replacement;
+    }
+
+    /**
+     * 最新の図形を返す
+     * @return 置き換えた後の図形 (置き換えていない場合、この図形)
+     */
+    final ShapeBase getLatest() {
+        ShapeBase latest = this;
+        while (latest.replacement != null)
+            latest = latest.replacement;
+        return latest;
+    }
+
+    /**
+     * 線の太さを含めた描画範囲を取得する
+     * @param bounds 描画範囲の格納先
+     */
+    final void getBounds(RectF bounds) {
+        getLocalBounds(bounds);
+        bounds.offset(offsetX, offsetY);
+    }
+
+    /**
+     * 移動量を含まない、線の太さを含めた描画範囲を取得する
+     * <div>
+     *     図形の範囲は頂点数に比例した時間がかかるため、図形を変更するまで使い回す
+     * </div>
+     * @param bounds 描画範囲の格納先
+     */
+    private void getLocalBounds(RectF bounds) {
+        if (shapeBounds == null)
+            shapeBounds = new RectF();
+        if (!shapeBoundsValid) {
+            getShapeBounds(shapeBounds);
+            shapeBounds.sort();
+            shapeBoundsValid = true;
+        }
+        bounds.set(shapeBounds);
+        final float outset = getStrokeOutset();
+        bounds.inset(-outset, -outset);
+    }
+
+    /**
+     * 図形を移動する (座標は書き換えず、描画時に反映する)
+     * @param dx x軸方向の移動量
+     * @param dy y軸方向の移動量
+     */
+    final void translate(float dx, float dy) {
+        offsetX += dx;
+        offsetY += dy;
+    }
+
+    /**
+     * 座標に未反映の移動量があるか
+     * @return 移動量がある場合、真
+     */
+    final boolean hasOffset() {
+        return offsetX != 0 || offsetY != 0;
+    }
+
+    final float getOffsetX() {
+        return offsetX;
+    }
+
+    final float getOffsetY() {
+        return offsetY;
+    }
+
+    /**
+     * 未反映の移動量を座標に反映する
+     * <div>
+     *     座標を変更する操作 (setPoint() addPoint() setData() makeSvg()等)の前に呼び出すこと
+     * </div>
+     */
+    final void applyOffset() {
+        if (!hasOffset())
+            return;
+        transferRelative(offsetX, offsetY);
+        offsetX = 0;
+        offsetY = 0;
+        discardRecording();
+    }
+
+    /**
+     * 移動量を含めて同じ図形を作成する
+     * @return 同じ位置に描画される図形
+     */
+    final ShapeBase copyWithOffset() {
+        final ShapeBase copy = copyShape();
+        copy.offsetX = offsetX;
+        copy.offsetY = offsetY;
+        return copy;
+    }
+
+    /**
+     * 移動量を含めて同じ図形を描画用に作成する (描画内容の操作の対象用)
+     * <div>
+     *     操作の対象の図形は描画のたびに変更されるため、以前に作成した図形に写して再利用する (メモリを確保しない)
+     * </div>
+     * @param reuse 以前に作成した図形 (無い場合、null 他のスレッドで描画中でないこと)
+     * @return 同じ位置に描画される図形 (reuseが同じ種類の図形の場合、reuse)
+     */
+    final ShapeBase copyForDraw(ShapeBase reuse) {
+        final ShapeBase copy;
+        if (reuse != null && reuse.getClass() == getClass()) {
+            copyGeometryTo(reuse);
+            reuse.style = style;
+            reuse.discardRecording();
+            copy = reuse;
+        } else {
+            copy = copyShape();
+        }
+        copy.offsetX = offsetX;
+        copy.offsetY = offsetY;
+        return copy;
+    }
+
+    /**
+     * 移動量、ID属性、描画順、選択状態を含めて同じ図形を作成する (置き換え用)
+     * @return 置き換え後の図形
+     */
+    final ShapeBase copyWithState() {
+        final ShapeBase copy = copyWithOffset();
+        copy.attrId = attrId;
+        copy.zOrder = zOrder;
+        copy.selected = selected;
+        return copy;
+    }
+
+    /**
+     * 移動量を座標に反映した図形を返す (この図形は変更しない)
+     * @return 移動量が無い場合、この図形 ある場合、反映した複製
+     */
+    final ShapeBase toBaked() {
+        if (!hasOffset())
+            return this;
+        final ShapeBase copy = copyWithState();
+        copy.applyOffset();
+        return copy;
+    }
+
+    /**
+     * 線の太さを含まない図形の範囲を取得する
+     * @param bounds 範囲の格納先 (左右、上下の大小関係は問わない)
+     */
+    abstract void getShapeBounds(RectF bounds);
+
+    /**
+     * 指定の位置から図形の線までの距離を返す (選択時の判定用)
+     * <div>
+     *     線の太さは含まない (線の中心までの距離) <br>
+     *     既定では図形の範囲までの距離とする (範囲内の場合、0)
+     * </div>
+     * @param x x座標
+     * @param y y座標
+     * @return 距離
+     */
+    float distanceTo(float x, float y) {
+        final RectF bounds = new RectF();
+        getShapeBounds(bounds);
+        final float dx = Math.max(0, Math.max(Math.min(bounds.left, bounds.right) - x, x - Math.max(bounds.left, bounds.right)));
+        final float dy = Math.max(0, Math.max(Math.min(bounds.top, bounds.bottom) - y, y - Math.max(bounds.top, bounds.bottom)));
+        return (float)Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * 図形が範囲内に含まれるか (複数選択時の判定用)
+     * <div>
+     *     図形の輪郭 (辺、または曲線を分割した折れ線)が全て範囲内にある場合に含まれるとする <br>
+     *     初期値は図形の範囲の四辺で判定する
+     * </div>
+     * @param area 範囲
+     * @return 含まれる場合、真
+     */
+    boolean isInside(SelectionArea area) {
+        final RectF bounds = new RectF();
+        getShapeBounds(bounds);
+        return area.containsSegment(bounds.left, bounds.top, bounds.right, bounds.top)
+                && area.containsSegment(bounds.right, bounds.top, bounds.right, bounds.bottom)
+                && area.containsSegment(bounds.right, bounds.bottom, bounds.left, bounds.bottom)
+                && area.containsSegment(bounds.left, bounds.bottom, bounds.left, bounds.top);
+    }
+
+    /**
+     * 点から線分までの距離を返す
+     * @param px 点のx座標
+     * @param py 点のy座標
+     * @param ax 線分の始点のx座標
+     * @param ay 線分の始点のy座標
+     * @param bx 線分の終点のx座標
+     * @param by 線分の終点のy座標
+     * @return 距離
+     */
+    static float segmentDistance(float px, float py, float ax, float ay, float bx, float by) {
+        final float abx = bx - ax;
+        final float aby = by - ay;
+        final float length2 = abx * abx + aby * aby;
+        float t = 0;
+        if (length2 > 0)
+            t = Math.max(0, Math.min(1, ((px - ax) * abx + (py - ay) * aby) / length2));
+        final float dx = px - (ax + abx * t);
+        final float dy = py - (ay + aby * t);
+        return (float)Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * 線の太さによって図形の範囲からはみ出す量を返す
+     * @return はみ出す量
+     */
+    float getStrokeOutset() {
+        // 線の太さの半分 + アンチエイリアス分
+        return style.getStrokeWidth() / 2 + 1;
+    }
+
     /**
      * svgの構築
      * @param svg SVG構築先
@@ -66,11 +369,142 @@ abstract class ShapeBase implements Serializable {
     abstract void makeSvg(ISvgWriter svg);
 
     /**
-     * 図形の描画
+     * 内部データ形式で図形固有の値 (座標等)を書き込む
+     * <div>
+     *     見た目、ID属性はShapeCodecが書き込む。移動量は含まないため、反映済みの図形 (toBaked())から呼び出すこと
+     * </div>
+     * @param out 書き込み先
+     * @throws IOException 書き込み失敗
+     */
+    abstract void writeData(DataOutput out) throws IOException;
+
+    /**
+     * 図形の描画 (移動量は反映しない)
      * @param canvas 描画先
      */
     abstract void draw(Canvas canvas);
 
+    /**
+     * 移動量を反映して図形を描画する
+     * @param canvas 描画先
+     */
+    final void drawWithOffset(Canvas canvas) {
+        if (!hasOffset()) {
+            draw(canvas);
+            return;
+        }
+        canvas.save();
+        canvas.translate(offsetX, offsetY);
+        draw(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * 同じ見た目の図形とまとめて描画するために追加する (移動量は追加先で反映する)
+     * @param batch 追加先
+     * @param scale 描画時の拡大率
+     * @return 追加した場合、真 (まとめて描画できない図形の場合、偽)
+     */
+    boolean addTo(ShapeBatch batch, float scale) {
+        return false;
+    }
+
+    /**
+     * draw()で使うキャッシュを作成する
+     * <div>
+     *     他のスレッドで描画する前にUIスレッドから呼び出す (描画時にキャッシュを作成しないようにする) <br>
+     *     既定では見た目の描画用のPaintのみ作成する
+     * </div>
+     */
+    void prepareDraw() {
+        getPaint();
+    }
+
+    /**
+     * drawScaled()、addTo()で使うキャッシュを作成する
+     * <div>
+     *     他のスレッドで描画する前にUIスレッドから呼び出す (描画時にキャッシュを作成しないようにする) <br>
+     *     既定では描画内容を記録する
+     * </div>
+     * @param scale 描画時の拡大率
+     */
+    void prepareDrawScaled(float scale) {
+        getPaint();
+        getRecording();
+    }
+
+    /**
+     * 拡大率に応じた詳細度で図形を描画する (移動量は反映しない)
+     * <div>
+     *     既定では記録した描画内容を描画する
+     * </div>
+     * @param canvas 描画先
+     * @param scale 描画時の拡大率
+     */
+    void drawScaled(Canvas canvas, float scale) {
+        playRecording(canvas, 0, 0);
+    }
+
+    /**
+     * 描画内容を記録しておき、記録した内容を移動量を反映して描画する
+     * <div>
+     *     初回の呼び出し時にdraw()の内容を記録し、以降は記録した内容を再生する <br>
+     *     移動量を含まない座標で記録するため、移動しても記録し直さない <br>
+     *     図形を変更した場合、discardRecording()を呼び出すこと
+     * </div>
+     * @param canvas 描画先
+     */
+    final void drawRecorded(Canvas canvas) {
+        playRecording(canvas, offsetX, offsetY);
+    }
+
+    /**
+     * 記録した描画内容を描画する (記録していない場合、記録する)
+     * @param canvas 描画先
+     * @param dx 描画位置のx軸方向の移動量
+     * @param dy 描画位置のy軸方向の移動量
+     */
+    private void playRecording(Canvas canvas, float dx, float dy) {
+        final Picture picture = getRecording();
+        canvas.save();
+        canvas.translate(pictureLeft + dx, pictureTop + dy);
+        canvas.drawPicture(picture);
+        canvas.restore();
+    }
+
+    /**
+     * 記録した描画内容を返す (記録していない場合、記録する)
+     * @return 記録した描画内容 (描画範囲の左上を原点とする)
+     */
+    private Picture getRecording() {
+        if (picture == null) {
+            final RectF bounds = new RectF();
+            getLocalBounds(bounds);
+            pictureLeft = bounds.left;
+            pictureTop = bounds.top;
+            // 記録範囲外は描画されないため、描画範囲の左上を原点として記録する
+            final Picture recording = new Picture();
+            final Canvas recordingCanvas = recording.beginRecording(
+                    Math.max(1, (int)Math.ceil(bounds.width())), Math.max(1, (int)Math.ceil(bounds.height())));
+            recordingCanvas.translate(-bounds.left, -bounds.top);
+            draw(recordingCanvas);
+            recording.endRecording();
+            picture = recording;
+        }
+        return picture;
+    }
+
+    /**
+     * 記録した描画内容と図形の範囲を破棄する (次回のdrawRecorded()、getBounds()時に求め直す)
+     * <div>
+     *     図形を変更した場合、必ず呼び出すこと (移動量の変更のみの場合は不要)
+     * </div>
+     */
+    final void discardRecording() {
+        picture = null;
+        shapeBoundsValid = false;
+    }
+
     /**
      * svgでのID属性を設定する
      * @param attrId ID属性の値
@@ -130,6 +564,26 @@ abstract class ShapeBase implements Serializable {
      */
     abstract ShapeBase copyShape();
 
+    /**
+     * 座標を同じ種類の図形に写す (copyForDraw()用)
+     * @param dst 写す先 (この図形と同じクラス)
+     */
+    abstract void copyGeometryTo(ShapeBase dst);
+
+    /**
+     * 座標の格納先を変更する
+     * <div>
+     *     頂点を配列で保持する図形のみ変更する
+     * </div>
+     * @param arena 格納先のアリーナ (nullの場合、Javaヒープ)
+     */
+    void moveGeometryTo(GeometryArena arena) {}
+
+    /**
+     * アリーナに格納した座標を解放する (図形を破棄する場合に呼び出す)
+     */
+    void releaseGeometry() {}
+
     /**
      * 追加のデータを設定する
      * @param data 設定するデータ
@@ -137,34 +591,32 @@ abstract class ShapeBase implements Serializable {
     void setData(Object data) {}
 
     /**
-     * transient変数のシリアライズ
-     * @param stream	出力先
-     * @throws IOException 書き込み失敗
+     * 追加のデータを返す (setData()の取り消し用)
+     * @return データ (無い場合、null)
      */
-    // private宣言である必要がある
-    private void writeObject(ObjectOutputStream stream) throws IOException {
-        stream.defaultWriteObject();
+    Object getData() {
+        return null;
+    }
 
-        stream.writeFloat(paint.getStrokeWidth());
-        stream.writeFloat(paint.getTextSize());
-        stream.writeInt(paint.getColor());
-        stream.writeObject(paint.getStyle());
+    /**
+     * 最後に追加した点を削除する (addPoint()の取り消し用)
+     * @param point 削除した点の座標の格納先 (x, yの順)
+     * @return 削除した場合、真 (点を追加できない図形、または削除できる点が無い場合、偽)
+     */
+    boolean removeLastPoint(float[] point) {
+        return false;
     }
 
     /**
-     * transient変数のデシリアライズ
-     * @param stream 入力元
-     * @throws IOException 読み込み失敗
-     * @throws ClassNotFoundException キャスト失敗
+     * 図形が使用するメモリのおおよその大きさを返す (履歴の記憶量の見積もり用)
+     * @return バイト数
      */
-    // private宣言である必要がある
-    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
-        stream.defaultReadObject();
+    int estimateByteSize() {
+        return 64;
+    }
 
-        paint = new Paint();
-        paint.setStrokeWidth(stream.readFloat());
-        paint.setTextSize(stream.readFloat());
-        paint.setColor(stream.readInt());
-        paint.setStyle((Paint.Style) stream.readObject());
+    Object writeReplace() throws ObjectStreamException {
+        // 移動量は保存しないため、座標に反映した複製を保存する (スナップショットの図形を変更しないため)
+        return toBaked();
     }
 }
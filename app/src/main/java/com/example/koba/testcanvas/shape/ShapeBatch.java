@@ -0,0 +1,135 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import java.util.List;
+
+/**
+ * 同じ見た目の図形をまとめて描画する
+ * <div>
+ *     描画順に並んだ図形のうち、連続する同じ見た目の図形を1回の描画命令にまとめる <br>
+ *     直線はdrawLines()、折れ線、多角形、四角形は1つのPathにまとめる <br>
+ *     重なった部分の見た目が変わらないように、不透明な線の図形のみまとめる
+ *     (同じ見た目で不透明なため、まとめた図形同士の描画順が入れ替わっても見た目は変わらない)
+ * </div>
+ */
+final class ShapeBatch {
+    /** まとめた直線の座標 (x1, y1, x2, y2の順) 描画ごとに使い回す */
+    private float[] lines = new float[64];
+    private int lineCount = 0;
+    /** まとめたパス 描画ごとに使い回す */
+    private final Path path = new Path();
+    private boolean pathEmpty = true;
+    /** まとめている図形の見た目 */
+    private ShapeStyle batchStyle = null;
+    /** 追加中の図形の移動量 (ShapeBase.translate()で移動した量) */
+    private float offsetX = 0;
+    private float offsetY = 0;
+
+    /**
+     * 図形を描画順に描画する
+     * @param canvas 描画先
+     * @param shapes 描画する図形 (描画順に並んでいること)
+     * @param scale 描画時の拡大率 (拡大率に応じて図形の詳細度を下げる)
+     */
+    void draw(Canvas canvas, List<ShapeBase> shapes, float scale) {
+        for (int i = 0; i < shapes.size(); i++) {
+            final ShapeBase shape = shapes.get(i);
+            final ShapeStyle style = shape.getStyle();
+            if (style != batchStyle)
+                flush(canvas);
+
+            if (isBatchable(style)) {
+                batchStyle = style;
+                offsetX = shape.getOffsetX();
+                offsetY = shape.getOffsetY();
+                if (shape.addTo(this, scale))
+                    continue;
+                flush(canvas);
+            }
+            if (shape.hasOffset()) {
+                canvas.save();
+                canvas.translate(shape.getOffsetX(), shape.getOffsetY());
+                shape.drawScaled(canvas, scale);
+                canvas.restore();
+            } else {
+                shape.drawScaled(canvas, scale);
+            }
+        }
+        flush(canvas);
+    }
+
+    /**
+     * まとめて描画できる見た目か
+     * @param style 見た目
+     * @return まとめられる場合、真
+     */
+    static boolean isBatchable(ShapeStyle style) {
+        // (Color.alpha()と同じ 単体テストではandroid.graphics.Colorの処理が使えないため直接求める)
+        return style.getStyle() == Paint.Style.STROKE && (style.getColor() >>> 24) == 0xff;
+    }
+
+    /**
+     * 直線を追加する (追加中の図形の移動量を反映する 以下同様)
+     * @param x1 始点のx座標
+     * @param y1 始点のy座標
+     * @param x2 終点のx座標
+     * @param y2 終点のy座標
+     */
+    void addLine(float x1, float y1, float x2, float y2) {
+        if (lineCount + 4 > lines.length) {
+            final float[] newLines = new float[lines.length * 2];
+            System.arraycopy(lines, 0, newLines, 0, lineCount);
+            lines = newLines;
+        }
+        lines[lineCount++] = x1 + offsetX;
+        lines[lineCount++] = y1 + offsetY;
+        lines[lineCount++] = x2 + offsetX;
+        lines[lineCount++] = y2 + offsetY;
+    }
+
+    /**
+     * パスを追加する
+     * @param shapePath 追加するパス
+     */
+    void addPath(Path shapePath) {
+        if (offsetX == 0 && offsetY == 0)
+            path.addPath(shapePath);
+        else
+            path.addPath(shapePath, offsetX, offsetY);
+        pathEmpty = false;
+    }
+
+    /**
+     * 四角形を追加する
+     * @param left 左端
+     * @param top 上端
+     * @param right 右端
+     * @param bottom 下端
+     */
+    void addRect(float left, float top, float right, float bottom) {
+        path.addRect(left + offsetX, top + offsetY, right + offsetX, bottom + offsetY, Path.Direction.CW);
+        pathEmpty = false;
+    }
+
+    /**
+     * まとめた図形を描画する
+     * @param canvas 描画先
+     */
+    private void flush(Canvas canvas) {
+        if (batchStyle == null)
+            return;
+        final Paint paint = batchStyle.getPaint();
+        if (lineCount > 0)
+            canvas.drawLines(lines, 0, lineCount, paint);
+        if (!pathEmpty)
+            canvas.drawPath(path, paint);
+
+        lineCount = 0;
+        path.rewind();
+        pathEmpty = true;
+        batchStyle = null;
+    }
+}
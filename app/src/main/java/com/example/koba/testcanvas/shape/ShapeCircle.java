@@ -1,7 +1,11 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ShapeCircle extends ShapeBase {
     private float x;
@@ -9,8 +13,8 @@ class ShapeCircle extends ShapeBase {
     private float r;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeCircle(float x, float y, Paint paint) {
-        super(paint);
+    ShapeCircle(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
@@ -18,14 +22,14 @@ class ShapeCircle extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x 同名メンバ変数
      * @param y 同名メンバ変数
      * @param r 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeCircle(float x, float y, float r, Paint paint) {
-        super(new Paint(paint));
+    ShapeCircle(float x, float y, float r, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
@@ -37,14 +41,14 @@ class ShapeCircle extends ShapeBase {
      * @param x 同名メンバ変数
      * @param y 同名メンバ変数
      * @param r 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapeCircle newFromSvg(double x, double y, double r, Paint paint) {
-        if (paint == null)
+    static ShapeCircle newFromSvg(double x, double y, double r, ShapeStyle style) {
+        if (style == null)
             return null;
 
-        return  new ShapeCircle((float)x, (float)y, (float)r, paint);
+        return  new ShapeCircle((float)x, (float)y, (float)r, style);
     }
 
     @Override
@@ -59,12 +63,48 @@ class ShapeCircle extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
         svg.addCircle(x, y, r);
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     */
+    static ShapeCircle newFromData(ByteBuffer in, ShapeStyle style) {
+        final float x = in.getFloat();
+        final float y = in.getFloat();
+        final float r = in.getFloat();
+        return new ShapeCircle(x, y, r, style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x);
+        out.writeFloat(y);
+        out.writeFloat(r);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        bounds.set(x - r, y - r, x + r, y + r);
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        final float d = (float)Math.hypot(x - this.x, y - this.y);
+        return Math.abs(d - r);
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        return area.containsArc(x, y, r, r, 0, 360);
+    }
+
     @Override
     void draw(Canvas canvas) {
         canvas.drawCircle(x, y, r, getPaint());
@@ -83,8 +123,16 @@ class ShapeCircle extends ShapeBase {
         y += dy;
     }
 
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapeCircle circle = (ShapeCircle)dst;
+        circle.x = x;
+        circle.y = y;
+        circle.r = r;
+    }
+
     @Override
     ShapeBase copyShape() {
-        return new ShapeCircle(x, y, r, getPaint());
+        return new ShapeCircle(x, y, r, getStyle());
     }
 }
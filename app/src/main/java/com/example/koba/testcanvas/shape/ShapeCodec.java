@@ -0,0 +1,279 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * 内部データの形式 (図形と戻るした図形の保存用)
+ * <div>
+ *     Javaのシリアライズは使わず、値のみを順に書き込む (DataOutput ビッグエンディアン) <br>
+ *     読み込みは全体を読み込んだByteBufferから行う (座標はまとめて読み込む) <br>
+ *     ヘッダ: 識別子 (MAGIC) int、形式の版 (VERSION) int <br>
+ *     見た目の表: 数 int、見た目ごとに 線の太さ float、文字の大きさ float、色 int、塗りつぶし byte <br>
+ *     図形、戻るした図形の順に: 数 int、図形ごとに
+ *     種類 byte (ID属性がある場合、FLAG_ATTR_IDを加える)、見た目の表の番号 int、ID属性 (ある場合)、
+ *     図形固有の値 (ShapeBase.writeData() 座標はfloatで詰めて書き込む) <br>
+ *     文字列は UTF-8のバイト数 int、バイト列とする
+ * </div>
+ * <div>
+ *     形式を変更する場合、VERSIONを増やし、以前の版も読み込めるようにすること
+ *     (種類の番号は保存済みのファイルで使うため、変更しない)
+ * </div>
+ */
+final class ShapeCodec {
+    /** 識別子 ("TCID" Javaのシリアライズの先頭 (0xACED)とは重ならない) */
+    static final int MAGIC = 0x54434944;
+    /** 形式の版 */
+    static final int VERSION = 1;
+
+    // 図形の種類の番号
+    private static final int TYPE_LINE = 0;
+    private static final int TYPE_RECT = 1;
+    private static final int TYPE_CIRCLE = 2;
+    private static final int TYPE_ARC = 3;
+    private static final int TYPE_ELLIPSE = 4;
+    private static final int TYPE_POLYLINE = 5;
+    private static final int TYPE_POLYGON = 6;
+    private static final int TYPE_TEXT = 7;
+    /** ID属性がある場合に種類の番号に加える */
+    private static final int FLAG_ATTR_ID = 0x80;
+
+    // 塗りつぶしの番号
+    private static final int PAINT_FILL = 0;
+    private static final int PAINT_STROKE = 1;
+    private static final int PAINT_FILL_AND_STROKE = 2;
+
+    private ShapeCodec() {
+    }
+
+    /**
+     * 読み込んだ内部データ
+     */
+    static final class InnerData {
+        /** 図形 (描画順) */
+        final ShapeStore shapes;
+        /** 戻るした図形 (戻した順) */
+        final ShapeStore undoneShapes;
+
+        InnerData(ShapeStore shapes, ShapeStore undoneShapes) {
+            this.shapes = shapes;
+            this.undoneShapes = undoneShapes;
+        }
+    }
+
+    /**
+     * 内部データを書き込む (図形は変更しない 移動量は反映した値を書き込む)
+     * @param out 書き込み先
+     * @param shapes 図形 (描画順)
+     * @param undoneShapes 戻るした図形 (戻した順)
+     * @throws IOException 書き込み失敗
+     */
+    static void write(DataOutput out, ShapeVector shapes, ShapeVector undoneShapes) throws IOException {
+        // 同じ見た目の図形は同じインスタンスを共有しているため、インスタンスごとに表に加える
+        final IdentityHashMap<ShapeStyle, Integer> styleIndexes = new IdentityHashMap<>();
+        final ArrayList<ShapeStyle> styles = new ArrayList<>();
+        collectStyles(shapes, styleIndexes, styles);
+        collectStyles(undoneShapes, styleIndexes, styles);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(styles.size());
+        for (int i = 0; i < styles.size(); i++) {
+            final ShapeStyle style = styles.get(i);
+            out.writeFloat(style.getStrokeWidth());
+            out.writeFloat(style.getTextSize());
+            out.writeInt(style.getColor());
+            out.writeByte(toPaintCode(style.getStyle()));
+        }
+        writeShapes(out, shapes, styleIndexes);
+        writeShapes(out, undoneShapes, styleIndexes);
+    }
+
+    /**
+     * 内部データの形式か
+     * @param head 先頭の4バイト以上
+     * @return 識別子が一致する場合、真
+     */
+    static boolean isInnerData(byte[] head) {
+        return head.length >= 4 && ByteBuffer.wrap(head).getInt() == MAGIC;
+    }
+
+    /**
+     * 内部データを読み込む
+     * @param in 読み込み元 (内部データ全体 ビッグエンディアン)
+     * @param styleTable 見た目の共有表 (読み込んだ見た目を共有の見た目に置き換える)
+     * @return 読み込んだ図形
+     * @throws IOException 識別子、版、値が不正な場合、途中で終わっている場合
+     */
+    static InnerData read(ByteBuffer in, ShapeStyleTable styleTable) throws IOException {
+        try {
+            if (in.getInt() != MAGIC)
+                throw new IOException("not inner data");
+            final int version = in.getInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException("unsupported version " + version);
+
+            final int styleCount = in.getInt();
+            if (styleCount < 0 || styleCount > in.remaining())
+                throw new IOException("invalid style count " + styleCount);
+            final ShapeStyle[] styles = new ShapeStyle[styleCount];
+            for (int i = 0; i < styleCount; i++) {
+                final float strokeWidth = in.getFloat();
+                final float textSize = in.getFloat();
+                final int color = in.getInt();
+                final Paint.Style paintStyle = toPaintStyle(in.get());
+                styles[i] = styleTable.intern(new ShapeStyle(strokeWidth, textSize, color, paintStyle));
+            }
+            final ShapeStore shapes = readShapes(in, styles);
+            final ShapeStore undoneShapes = readShapes(in, styles);
+            return new InnerData(shapes, undoneShapes);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated inner data", e);
+        }
+    }
+
+    /**
+     * 文字列を書き込む (UTF-8 長さの制限は無い)
+     * @param out 書き込み先
+     * @param str 文字列
+     * @throws IOException 書き込み失敗
+     */
+    static void writeString(DataOutput out, String str) throws IOException {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 文字列を読み込む
+     * @param in 読み込み元 (writeString()で書き込んだ値の位置)
+     * @return 文字列
+     * @throws IOException 長さが不正な場合
+     */
+    static String readString(ByteBuffer in) throws IOException {
+        final int length = in.getInt();
+        if (length < 0 || length > in.remaining())
+            throw new IOException("invalid string length " + length);
+        final String str = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return str;
+    }
+
+    private static void collectStyles(ShapeVector shapes, IdentityHashMap<ShapeStyle, Integer> styleIndexes,
+                                      ArrayList<ShapeStyle> styles) {
+        for (int i = 0; i < shapes.size(); i++) {
+            final ShapeStyle style = shapes.get(i).getStyle();
+            if (!styleIndexes.containsKey(style)) {
+                styleIndexes.put(style, styles.size());
+                styles.add(style);
+            }
+        }
+    }
+
+    private static void writeShapes(DataOutput out, ShapeVector shapes,
+                                    IdentityHashMap<ShapeStyle, Integer> styleIndexes) throws IOException {
+        out.writeInt(shapes.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            final ShapeBase shape = shapes.get(i).toBaked();  // 移動量は座標に反映して書き込む
+            final String attrId = shape.getAttrId();
+            out.writeByte(toTypeCode(shape) | ((attrId != null) ? FLAG_ATTR_ID : 0));
+            out.writeInt(styleIndexes.get(shape.getStyle()));
+            if (attrId != null)
+                writeString(out, attrId);
+            shape.writeData(out);
+        }
+    }
+
+    private static ShapeStore readShapes(ByteBuffer in, ShapeStyle[] styles) throws IOException {
+        final int count = in.getInt();
+        if (count < 0 || count > in.remaining())
+            throw new IOException("invalid shape count " + count);
+        final ShapeStore store = new ShapeStore();
+        for (int i = 0; i < count; i++) {
+            final int type = in.get() & 0xff;
+            final int styleIndex = in.getInt();
+            if (styleIndex < 0 || styleIndex >= styles.length)
+                throw new IOException("invalid style index " + styleIndex);
+            final String attrId = ((type & FLAG_ATTR_ID) != 0) ? readString(in) : null;
+            final ShapeBase shape = readShape(in, type & ~FLAG_ATTR_ID, styles[styleIndex]);
+            shape.setAttrId(attrId);
+            store.add(shape);
+        }
+        return store;
+    }
+
+    private static ShapeBase readShape(ByteBuffer in, int type, ShapeStyle style) throws IOException {
+        switch (type) {
+            case TYPE_LINE:
+                return ShapeLine.newFromData(in, style);
+            case TYPE_RECT:
+                return ShapeRect.newFromData(in, style);
+            case TYPE_CIRCLE:
+                return ShapeCircle.newFromData(in, style);
+            case TYPE_ARC:
+                return ShapeArc.newFromData(in, style);
+            case TYPE_ELLIPSE:
+                return ShapeEllipse.newFromData(in, style);
+            case TYPE_POLYLINE:
+                return ShapePolyline.newFromData(in, style);
+            case TYPE_POLYGON:
+                return ShapePolygon.newFromData(in, style);
+            case TYPE_TEXT:
+                return ShapeText.newFromData(in, style);
+            default:
+                throw new IOException("unknown shape type " + type);
+        }
+    }
+
+    private static int toTypeCode(ShapeBase shape) throws IOException {
+        final Class<? extends ShapeBase> clazz = shape.getClass();
+        if (clazz == ShapeLine.class)
+            return TYPE_LINE;
+        if (clazz == ShapeRect.class)
+            return TYPE_RECT;
+        if (clazz == ShapeCircle.class)
+            return TYPE_CIRCLE;
+        if (clazz == ShapeArc.class)
+            return TYPE_ARC;
+        if (clazz == ShapeEllipse.class)
+            return TYPE_ELLIPSE;
+        if (clazz == ShapePolyline.class)
+            return TYPE_POLYLINE;
+        if (clazz == ShapePolygon.class)
+            return TYPE_POLYGON;
+        if (clazz == ShapeText.class)
+            return TYPE_TEXT;
+        throw new IOException("unknown shape class " + clazz.getName());
+    }
+
+    private static int toPaintCode(Paint.Style style) {
+        switch (style) {
+            case FILL:
+                return PAINT_FILL;
+            case FILL_AND_STROKE:
+                return PAINT_FILL_AND_STROKE;
+            default:
+                return PAINT_STROKE;
+        }
+    }
+
+    private static Paint.Style toPaintStyle(int code) throws IOException {
+        switch (code) {
+            case PAINT_FILL:
+                return Paint.Style.FILL;
+            case PAINT_STROKE:
+                return Paint.Style.STROKE;
+            case PAINT_FILL_AND_STROKE:
+                return Paint.Style.FILL_AND_STROKE;
+            default:
+                throw new IOException("unknown paint style " + code);
+        }
+    }
+}
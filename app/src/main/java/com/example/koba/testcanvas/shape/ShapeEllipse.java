@@ -1,7 +1,11 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ShapeEllipse extends ShapeBase {
     private float cx;
@@ -10,8 +14,8 @@ class ShapeEllipse extends ShapeBase {
     private float ry;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeEllipse(float x, float y, Paint paint) {
-        super(paint);
+    ShapeEllipse(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.cx = x;
         this.cy = y;
@@ -20,15 +24,15 @@ class ShapeEllipse extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param cx 同名メンバ変数
      * @param cy 同名メンバ変数
      * @param rx 同名メンバ変数
      * @param ry 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeEllipse(float cx, float cy, float rx, float ry, Paint paint) {
-        super(new Paint(paint));
+    ShapeEllipse(float cx, float cy, float rx, float ry, ShapeStyle style) {
+        super(style);
 
         this.cx = cx;
         this.cy = cy;
@@ -42,14 +46,14 @@ class ShapeEllipse extends ShapeBase {
      * @param cy 同名メンバ変数
      * @param rx 同名メンバ変数
      * @param ry 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapeEllipse newFromSvg(double cx, double cy, double rx, double ry, Paint paint) {
-        if (paint == null)
+    static ShapeEllipse newFromSvg(double cx, double cy, double rx, double ry, ShapeStyle style) {
+        if (style == null)
             return null;
 
-        return new ShapeEllipse((float)cx, (float)cy, (float)rx, (float)ry, paint);
+        return new ShapeEllipse((float)cx, (float)cy, (float)rx, (float)ry, style);
     }
 
     @Override
@@ -64,12 +68,60 @@ class ShapeEllipse extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
         svg.addEllipse(cx, cy, rx, ry);
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     */
+    static ShapeEllipse newFromData(ByteBuffer in, ShapeStyle style) {
+        final float cx = in.getFloat();
+        final float cy = in.getFloat();
+        final float rx = in.getFloat();
+        final float ry = in.getFloat();
+        return new ShapeEllipse(cx, cy, rx, ry, style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(cx);
+        out.writeFloat(cy);
+        out.writeFloat(rx);
+        out.writeFloat(ry);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        bounds.set(cx - rx, cy - ry, cx + rx, cy + ry);
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        final float dx = x - cx;
+        final float dy = y - cy;
+        if (rx <= 0 || ry <= 0) {
+            // 線分とみなす
+            return segmentDistance(x, y, cx - rx, cy - ry, cx + rx, cy + ry);
+        }
+        // 中心から指定の位置への半直線と楕円の交点までの距離で近似する
+        final float k = (float)Math.sqrt((dx / rx) * (dx / rx) + (dy / ry) * (dy / ry));
+        if (k == 0)
+            return Math.min(rx, ry);
+        final float d = (float)Math.sqrt(dx * dx + dy * dy);
+        return Math.abs(d - d / k);
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        return area.containsArc(cx, cy, rx, ry, 0, 360);
+    }
+
     @Override
     void draw(Canvas canvas) {
         final float x1 = cx - rx;
@@ -91,8 +143,17 @@ class ShapeEllipse extends ShapeBase {
         cy += dy;
     }
 
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapeEllipse ellipse = (ShapeEllipse)dst;
+        ellipse.cx = cx;
+        ellipse.cy = cy;
+        ellipse.rx = rx;
+        ellipse.ry = ry;
+    }
+
     @Override
     ShapeBase copyShape() {
-        return new ShapeEllipse(cx, cy, rx, ry, getPaint());
+        return new ShapeEllipse(cx, cy, rx, ry, getStyle());
     }
 }
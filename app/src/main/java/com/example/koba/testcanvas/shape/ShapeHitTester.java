@@ -0,0 +1,62 @@
+package com.example.koba.testcanvas.shape;
+
+import java.util.ArrayList;
+
+/**
+ * 指定の位置にある図形を探す (選択時の判定用)
+ * <div>
+ *     空間インデックスで位置の近くに描画範囲がある図形に絞り込んでから、
+ *     図形ごとに線までの距離 (ShapeBase.distanceTo())で判定する <br>
+ *     線の太さの半分と許容誤差以内にある図形のうち、最も手前 (描画順が最大)のものを返す
+ * </div>
+ */
+final class ShapeHitTester {
+    /** 図形の描画範囲 (線の太さを含む)による空間インデックス */
+    private final RTree<ShapeBase> index;
+    /** 判定対象の図形 (判定時に使い回す) */
+    private final ArrayList<ShapeBase> candidates = new ArrayList<>();
+
+    /**
+     * @param index 図形の描画範囲 (線の太さを含む)による空間インデックス
+     */
+    ShapeHitTester(RTree<ShapeBase> index) {
+        this.index = index;
+    }
+
+    /**
+     * 指定の位置にある最も手前の図形を返す
+     * @param x x座標 (図形の座標)
+     * @param y y座標 (図形の座標)
+     * @param tolerance 線からの距離の許容誤差 (図形の座標)
+     * @return 図形 (無い場合、null)
+     */
+    ShapeBase hitTest(float x, float y, float tolerance) {
+        candidates.clear();
+        index.search(x - tolerance, y - tolerance, x + tolerance, y + tolerance, candidates);
+
+        ShapeBase hit = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            final ShapeBase shape = candidates.get(i);
+            if (hit != null && shape.getZOrder() < hit.getZOrder())
+                continue;  // 手前の図形が見つかっている
+            if (isHit(shape, x, y, tolerance))
+                hit = shape;
+        }
+        candidates.clear();
+        return hit;
+    }
+
+    /**
+     * 図形が指定の位置にあるか
+     * @param shape 図形
+     * @param x x座標
+     * @param y y座標
+     * @param tolerance 線からの距離の許容誤差
+     * @return 指定の位置にある場合、真
+     */
+    static boolean isHit(ShapeBase shape, float x, float y, float tolerance) {
+        // 図形の座標は移動量を含まない
+        final float distance = shape.distanceTo(x - shape.getOffsetX(), y - shape.getOffsetY());
+        return distance <= shape.getStyle().getStrokeWidth() / 2 + tolerance;
+    }
+}
@@ -1,7 +1,11 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ShapeLine extends ShapeBase {
     private float x1;
@@ -10,8 +14,8 @@ class ShapeLine extends ShapeBase {
     private float y2;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeLine(float x, float y, Paint paint) {
-        super(paint);
+    ShapeLine(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.x1 = x;
         this.y1 = y;
@@ -20,15 +24,15 @@ class ShapeLine extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x1 同名メンバ変数
      * @param y1 同名メンバ変数
      * @param x2 同名メンバ変数
      * @param y2 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeLine(float x1, float y1, float x2, float y2, Paint paint) {
-        super(new Paint(paint));
+    ShapeLine(float x1, float y1, float x2, float y2, ShapeStyle style) {
+        super(style);
 
         this.x1 = x1;
         this.y1 = y1;
@@ -42,14 +46,14 @@ class ShapeLine extends ShapeBase {
      * @param y1 同名メンバ変数
      * @param x2 同名メンバ変数
      * @param y2 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapeLine newFromSvg(double x1, double y1, double x2, double y2, Paint paint) {
-        if (paint == null)
+    static ShapeLine newFromSvg(double x1, double y1, double x2, double y2, ShapeStyle style) {
+        if (style == null)
             return null;
 
-        return new ShapeLine((float)x1, (float)y1, (float)x2, (float)y2, paint);
+        return new ShapeLine((float)x1, (float)y1, (float)x2, (float)y2, style);
     }
 
     @Override
@@ -64,17 +68,69 @@ class ShapeLine extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
         svg.addLine(x1, y1, x2, y2);
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     */
+    static ShapeLine newFromData(ByteBuffer in, ShapeStyle style) {
+        final float x1 = in.getFloat();
+        final float y1 = in.getFloat();
+        final float x2 = in.getFloat();
+        final float y2 = in.getFloat();
+        return new ShapeLine(x1, y1, x2, y2, style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x1);
+        out.writeFloat(y1);
+        out.writeFloat(x2);
+        out.writeFloat(y2);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        bounds.set(x1, y1, x2, y2);
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        return segmentDistance(x, y, x1, y1, x2, y2);
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        return area.containsSegment(x1, y1, x2, y2);
+    }
+
     @Override
     void draw(Canvas canvas) {
         canvas.drawLine(x1, y1, x2, y2, getPaint());
     }
 
+    @Override
+    void prepareDrawScaled(float scale) {
+        // まとめて描画する場合、記録した描画内容は使わない
+        if (ShapeBatch.isBatchable(getStyle()))
+            getPaint();
+        else
+            super.prepareDrawScaled(scale);
+    }
+
+    @Override
+    boolean addTo(ShapeBatch batch, float scale) {
+        batch.addLine(x1, y1, x2, y2);
+        return true;
+    }
+
     @Override
     void setPoint(float x, float y) {
         this.x2 = x;
@@ -97,8 +153,17 @@ class ShapeLine extends ShapeBase {
         transferRelative(dx, dy);
     }
 
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapeLine line = (ShapeLine)dst;
+        line.x1 = x1;
+        line.y1 = y1;
+        line.x2 = x2;
+        line.y2 = y2;
+    }
+
     @Override
     ShapeBase copyShape() {
-        return new ShapeLine(x1, y1, x2, y2, getPaint());
+        return new ShapeLine(x1, y1, x2, y2, getStyle());
     }
 }
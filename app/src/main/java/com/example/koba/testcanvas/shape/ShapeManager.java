@@ -1,27 +1,32 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Bundle;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 
 import com.example.koba.testcanvas.R;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.EventListener;
-import java.util.LinkedList;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-
 /**
  * ShapeBase継承クラスの管理 (生成、削除等)
  */
@@ -30,24 +35,93 @@ public final class ShapeManager {
     private int selectedShape;
 
     @ColorInt private final static int DEFAULT_COLOR = 0xffff00ff;
-    @ColorInt private final static int UNDO_COLOR = 0x20000000;
-    @ColorInt private final static int HIGHLIGHT_COLOR = DEFAULT_COLOR;
-    @ColorInt private final static int NO_HIGHLIGHT_COLOR = 0x30ff00ff;
+    @ColorInt final static int UNDO_COLOR = 0x20000000;
+    @ColorInt final static int HIGHLIGHT_COLOR = DEFAULT_COLOR;
+    @ColorInt final static int NO_HIGHLIGHT_COLOR = 0x30ff00ff;
     private final static float DEFAULT_STROKE_WIDTH = 20;
     private final static float DEFAULT_TEXT_SIZE = 60;
-    private Paint paint;
-    private Paint textPaint;
+    /** 図形の見た目の共有表 */
+    private final ShapeStyleTable styleTable = new ShapeStyleTable();
+    private ShapeStyle style;
+    private ShapeStyle textStyle;
 
     private double width = -1;
     private double height = -1;
-    private LinkedList<ShapeBase> shapeList;  // 書いた順に格納する
-    private LinkedList<ShapeBase> undoList;  // 戻した順に格納する
+    private ShapeStore shapeList;  // 書いた順に格納する
+    /** 戻る、進むの履歴 */
+    private final EditHistory history = new EditHistory();
+    /** 戻るした図形 (描画時に使い回す) */
+    private final ArrayList<ShapeBase> undoneShapes = new ArrayList<>();
+    /** 移動中の操作の記録 (移動の開始時に作成し、移動量をまとめる) */
+    private EditCommand.Translate pendingTranslate = null;
     /** 図形の描画を継続中の場合、真 */
     private boolean drawing = false;
+    /** 確定済みの図形の描画結果 (最新の図形以外) */
+    private final ShapeTileCache tileCache = new ShapeTileCache();
+    /** 同じ見た目の図形をまとめて描画する (描画時に使い回す) */
+    private final ShapeBatch shapeBatch = new ShapeBatch();
+    /** タイルに描画していない図形 (変更中の最新の図形) */
+    private ShapeBase tiledActive = null;
+    /** 描画内容 (ShapeSnapshot)を使って他のスレッドで描画している場合、真 (タイルは使わない) */
+    private boolean snapshotRendering = false;
+    /** shapeListの図形の描画範囲による空間インデックス */
+    private final RTree<ShapeBase> shapeIndex = new RTree<>();
+    /** 図形の座標の格納先 (nullの場合、Javaヒープ) */
+    private GeometryArena geometryArena = null;
+    /** 文書の版 (文書のスナップショット、描画内容を作成するごとに増やす 図形の未設定の版 (0)とは区別する) */
+    private int documentVersion = 1;
+    /** 参照中の文書のスナップショットの数 */
+    private int openSnapshots = 0;
+    /** 座標の解放を保留している図形 (スナップショットの参照中に置き換え、破棄した図形) */
+    private final ArrayList<ShapeBase> retiredShapes = new ArrayList<>();
+    /** 選択した位置にある図形の判定 */
+    private final ShapeHitTester hitTester = new ShapeHitTester(shapeIndex);
+    /** 操作の対象として選択した図形のshapeListでのハンドル (選択していない場合、-1) */
+    private int selectedHandle = -1;
+    /** 複数選択した図形 (描画順 選択中の図形はタイルに描画しない) */
+    private final ArrayList<ShapeBase> selectedShapes = new ArrayList<>();
+    /** 表示範囲内の選択中の図形 (描画時に使い回す) */
+    private final ArrayList<ShapeBase> visibleSelection = new ArrayList<>();
+    /** 複数選択の範囲 (指定中のみ表示する) */
+    private final SelectionArea selectionArea = new SelectionArea();
+    /** 複数選択の範囲の輪郭の描画用 */
+    private final Paint selectionAreaPaint = createSelectionAreaPaint();
+    /** 次に追加する図形の描画順 */
+    private int nextZOrder = 0;
+    /** 範囲内の図形 (描画時に使い回す) */
+    private final ArrayList<ShapeBase> visibleShapes = new ArrayList<>();
+    /** 図形の座標から画面の座標への変換 */
+    private final Matrix viewMatrix = new Matrix();
+    /** 表示範囲 (図形の座標) */
+    private final RectF visibleRect = new RectF();
+    /** 表示範囲が求められている場合、真 (偽の場合、visibleRectは全体) */
+    private boolean visibleRectKnown = false;
+    /** 表示範囲の算出用 (viewMatrixの逆行列) */
+    private final Matrix inverseMatrix = new Matrix();
+
+    /** 予測したタッチ位置への仮の線を表示する場合、真 (図形には追加しない) */
+    private boolean predicting = false;
+    private float predictFromX = 0;  // 仮の線の始点 x座標
+    private float predictFromY = 0;  // 仮の線の始点 y座標
+    private float predictToX = 0;  // 仮の線の終点 x座標
+    private float predictToY = 0;  // 仮の線の終点 y座標
 
     private float baseX = 0;  // 移動量の基準位置 x座標
     private float baseY = 0;  // 移動量の基準位置 y座標
 
+    private final RectF boundsBefore = new RectF();  // 変更前の描画範囲
+    private final RectF boundsAfter = new RectF();  // 変更後の描画範囲
+    private final RectF boundsTemp = new RectF();  // 描画時の判定用
+    private final RectF selectionBounds = new RectF();  // 選択中の図形の一括操作時の再描画範囲
+    private final float[] matrixValues = new float[9];  // 描画時の拡大率取得用
+
+    /** 強調表示時の最新の図形のレイヤーの合成用 */
+    private final Paint highlightLayerPaint = createTintPaint(HIGHLIGHT_COLOR);
+    /** 強調表示時の最新以外の図形のレイヤーの合成用 */
+    private final Paint noHighlightLayerPaint = createTintPaint(NO_HIGHLIGHT_COLOR);
+    /** 戻るした図形のレイヤーの合成用 */
+    private final Paint undoLayerPaint = createTintPaint(UNDO_COLOR);
+
     private static final String BUNDLE_KEY_SHAPELIST = "ShapeManagerShapeList";
     private static final String BUNDLE_KEY_UNDOLIST = "ShapeManagerUndoList";
     private static final String BUNDLE_KEY_DRAWING = "ShapeManagerDrawing";
@@ -69,7 +143,7 @@ public final class ShapeManager {
                 new ShapeCreator.OnCreatedListener() {
                     @Override
                     public void onCreated(final ShapeBase shape) {
-                        shape.setPaint(textPaint);  // 文字列表示用のPaintに変更する
+                        shape.setStyle(textStyle);  // 文字列表示用の見た目に変更する
                         // テキスト取得イベント呼び出し
                         if (onSetTextListener != null)
                             onSetTextListener.onSetText();
@@ -77,18 +151,12 @@ public final class ShapeManager {
                 }));
         selectedShape = 0;
 
-        paint = new Paint();
-        paint.setStrokeWidth(DEFAULT_STROKE_WIDTH);
-        paint.setColor(DEFAULT_COLOR);
-        paint.setStyle(Paint.Style.STROKE);
+        // Paintの初期値 (線の太さ 0、文字の大きさ 12)に合わせる
+        style = styleTable.intern(new ShapeStyle(DEFAULT_STROKE_WIDTH, 12, DEFAULT_COLOR, Paint.Style.STROKE));
+        textStyle = styleTable.intern(new ShapeStyle(0, DEFAULT_TEXT_SIZE, DEFAULT_COLOR, Paint.Style.FILL));
 
-        textPaint = new Paint();
-        textPaint.setTextSize(DEFAULT_TEXT_SIZE);
-        textPaint.setColor(DEFAULT_COLOR);
-        textPaint.setStyle(Paint.Style.FILL);
-
-        shapeList = new LinkedList<>();
-        undoList = new LinkedList<>();
+        shapeList = new ShapeStore();
+        updateVisibleRect();
     }
 
     /**
@@ -97,7 +165,7 @@ public final class ShapeManager {
      */
     public void saveInstanceState(@NonNull Bundle outState) {
         outState.putSerializable(BUNDLE_KEY_SHAPELIST, shapeList);
-        outState.putSerializable(BUNDLE_KEY_UNDOLIST, undoList);
+        outState.putSerializable(BUNDLE_KEY_UNDOLIST, getUndoneStore());
         outState.putBoolean(BUNDLE_KEY_DRAWING, drawing);
     }
 
@@ -105,23 +173,37 @@ public final class ShapeManager {
      * 状態保存した値を読み込む
      * @param savedInstanceState 状態保存先
      */
-    @SuppressWarnings("unchecked")  // ジェネリック型(LinkedList<>)へのキャスト (回避不可)
     public void restoreInstanceState(Bundle savedInstanceState) {
         if (savedInstanceState == null)
             return;
 
-        shapeList = (LinkedList<ShapeBase>) savedInstanceState.getSerializable(BUNDLE_KEY_SHAPELIST);
-        undoList = (LinkedList<ShapeBase>) savedInstanceState.getSerializable(BUNDLE_KEY_UNDOLIST);
+        releaseGeometry(shapeList);
+        shapeList = ShapeStore.fromSerialized(savedInstanceState.getSerializable(BUNDLE_KEY_SHAPELIST));
+        restoreUndoneStore(ShapeStore.fromSerialized(savedInstanceState.getSerializable(BUNDLE_KEY_UNDOLIST)));
         drawing = savedInstanceState.getBoolean(BUNDLE_KEY_DRAWING);
+        rebuildIndex();
     }
 
     /**
      * 図形を削除、履歴も削除
      */
     public void clean() {
+        releaseGeometry(shapeList);
+        history.clear();
+        pendingTranslate = null;
+        if (geometryArena != null) {
+            if (openSnapshots > 0)
+                geometryArena = new GeometryArena();  // スナップショットが参照しているため、使い終わるまで残す
+            else
+                geometryArena.clear();  // 確保済みの領域も破棄する
+        }
         shapeList.clear();
-        undoList.clear();
+        selectedHandle = -1;
+        selectedShapes.clear();
         drawing = false;
+        shapeIndex.clear();
+        nextZOrder = 0;
+        clearTiles();
     }
 
     /**
@@ -161,9 +243,17 @@ public final class ShapeManager {
      * @param text 図形に設定する文字列
      */
     public void setText(String text) {
-        if (shapeList.isEmpty())
+        final ShapeBase current = getTarget();
+        if (current == null)
             return;
-        shapeList.getLast().setData(text);
+        final Object oldData = current.getData();
+        if (oldData == null)
+            return;  // 文字列を持たない図形
+        final ShapeBase target = prepareWrite(current);
+        target.applyOffset();
+        target.setData(text);
+        indexShape(target);
+        record(new EditCommand.SetData(target, oldData, text));
     }
 
     /**
@@ -172,9 +262,12 @@ public final class ShapeManager {
      * @param attrId ID属性
      */
     public void setAttrId(String attrId) {
-        if (shapeList.isEmpty())
+        final ShapeBase current = getTarget();
+        if (current == null)
             return;
-        shapeList.getLast().setAttrId(attrId);
+        final ShapeBase target = prepareWrite(current);
+        record(new EditCommand.SetAttrId(target, target.getAttrId(), attrId));
+        target.setAttrId(attrId);
     }
 
     /**
@@ -184,10 +277,11 @@ public final class ShapeManager {
      */
     @NonNull
     public String getAttrId() {
-        if (shapeList.isEmpty())
+        final ShapeBase target = getTarget();
+        if (target == null)
             return "";
 
-        String attrId = shapeList.getLast().getAttrId();
+        String attrId = target.getAttrId();
         if (attrId == null)
             return "";
         return attrId;
@@ -197,35 +291,50 @@ public final class ShapeManager {
      * 図形の描画開始
      * @param x 描画する位置のx座標
      * @param y 描画する位置のy座標
+     * @return 再描画が必要な範囲
      */
-    public void start(float x, float y) {
+    @NonNull
+    public Rect start(float x, float y) {
+        clearSelection();  // 描画した図形を操作の対象とする
         final ShapeCreator shapeCreator = shapeCreatorList.get(selectedShape);
         final Class<? extends ShapeBase> clazz = shapeCreator.clazz;
         if (drawing && !shapeList.isEmpty() && shapeList.getLast().getClass() == clazz) {
             // 現在の図形の描画を続ける
-            shapeList.getLast().addPoint(x, y);
-            return;
+            final ShapeBase last = prepareWrite(shapeList.getLast());
+            last.applyOffset();  // 移動後の図形の場合、座標に反映してから点を追加する
+            last.getBounds(boundsBefore);
+            last.addPoint(x, y);
+            final Rect dirty = updateShape(boundsBefore, last);
+            return record(new EditCommand.AddPoint(last)) ? getFullRect() : dirty;
         }
 
-        final ShapeBase shape = shapeCreator.create(x, y, paint);
+        final ShapeBase shape = shapeCreator.create(x, y, style);
         if (shape == null)
-            return;  // 生成に失敗した場合、何もしない
+            return new Rect();  // 生成に失敗した場合、何もしない
 
         drawing = shapeCreator.drawing;  // 次回のstart()時も描画を続行する場合、真
 
-        shapeList.addLast(shape);
-        undoList.clear();  // 履歴を削除
+        addShape(shape);
+        boundsBefore.setEmpty();
+        final Rect dirty = updateShape(boundsBefore, shape);
+        return record(new EditCommand.AddShapes(shape)) ? getFullRect() : dirty;
     }
 
     /**
      * 図形の変更
      * @param x 変更先の位置のx座標
      * @param y 変更先の位置のy座標
+     * @return 再描画が必要な範囲
      */
-    public void move(float x, float y) {
+    @NonNull
+    public Rect move(float x, float y) {
         if (shapeList.isEmpty())
-            return;
-        shapeList.getLast().setPoint(x, y);
+            return new Rect();
+        final ShapeBase last = prepareWrite(shapeList.getLast());
+        last.applyOffset();
+        last.getBounds(boundsBefore);
+        last.setPoint(x, y);
+        return updateShape(boundsBefore, last);
     }
 
     /**
@@ -235,6 +344,70 @@ public final class ShapeManager {
         drawing = false;
     }
 
+    /**
+     * 予測したタッチ位置への仮の線を設定する
+     * <div>
+     *     最新の図形の見た目で描画するが、図形には追加しない
+     *     (線で描く図形以外の場合、表示しない)
+     * </div>
+     * @param fromX 始点のx座標 (現在のタッチ位置)
+     * @param fromY 始点のy座標 (現在のタッチ位置)
+     * @param toX 終点のx座標 (予測したタッチ位置)
+     * @param toY 終点のy座標 (予測したタッチ位置)
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    public Rect setPrediction(float fromX, float fromY, float toX, float toY) {
+        getPredictionBounds(boundsBefore);
+        predictFromX = fromX;
+        predictFromY = fromY;
+        predictToX = toX;
+        predictToY = toY;
+        predicting = !shapeList.isEmpty() && shapeList.getLast().getStyle().getStyle() == Paint.Style.STROKE;
+        return getPredictionDirty(boundsBefore);
+    }
+
+    /**
+     * 予測したタッチ位置への仮の線を消す
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    public Rect clearPrediction() {
+        getPredictionBounds(boundsBefore);
+        predicting = false;
+        return getPredictionDirty(boundsBefore);
+    }
+
+    /**
+     * 仮の線の描画範囲を取得する
+     * @param bounds 描画範囲の格納先 (表示していない場合、空)
+     */
+    private void getPredictionBounds(RectF bounds) {
+        if (!predicting || shapeList.isEmpty()) {
+            bounds.setEmpty();
+            return;
+        }
+        bounds.set(predictFromX, predictFromY, predictToX, predictToY);
+        bounds.sort();
+        final float outset = shapeList.getLast().getStyle().getStrokeWidth() / 2 + 1;
+        bounds.inset(-outset, -outset);
+    }
+
+    /**
+     * 仮の線の変更前と変更後の描画範囲を合わせた範囲を返す
+     * @param before 変更前の描画範囲
+     * @return 再描画が必要な範囲 (画面の座標)
+     */
+    @NonNull
+    private Rect getPredictionDirty(RectF before) {
+        getPredictionBounds(boundsAfter);
+        boundsAfter.union(before);
+        viewMatrix.mapRect(boundsAfter);
+        final Rect dirty = new Rect();
+        boundsAfter.roundOut(dirty);
+        return dirty;
+    }
+
     /**
      * 図形の移動 基準位置を決める
      * @param x 移動量の基準位置 x座標
@@ -243,122 +416,1302 @@ public final class ShapeManager {
     public void preTransfer(float x, float y) {
         baseX = x;
         baseY = y;
+        pendingTranslate = null;  // 次の移動から新しい操作として記録する
     }
 
     /**
      * 図形の移動 基準位置からの移動量分を移動する
+     * <div>
+     *     座標は書き換えずに移動量として保持するため、頂点数によらずO(1)で移動できる
+     * </div>
      * @param x 移動量を決めるためのx座標
      * @param y 移動量を決めるためのy座標
+     * @return 再描画が必要な範囲
      */
-    public void transfer(float x, float y) {
-        if (shapeList.isEmpty())
-            return;
+    @NonNull
+    public Rect transfer(float x, float y) {
+        if (!selectedShapes.isEmpty())
+            return transferSelection(x, y);
+        final ShapeBase current = getTarget();
+        if (current == null)
+            return new Rect();
+        final ShapeBase target = prepareWrite(current);
+        final float dx = x - baseX;
+        final float dy = y - baseY;
+        final boolean discarded = (pendingTranslate == null) && recordTranslate(new ShapeBase[] {target});
+        pendingTranslate.add(dx, dy);
+        target.getBounds(boundsBefore);
+        target.translate(dx, dy);
+
+        baseX = x;
+        baseY = y;
+        final Rect dirty = updateTranslatedShape(boundsBefore, target);
+        return discarded ? getFullRect() : dirty;
+    }
+
+    /**
+     * 選択中の図形をまとめて基準位置からの移動量分移動する
+     * <div>
+     *     選択中の図形はタイルに描画していないため、タイルは描画し直さない
+     *     (再描画範囲は全ての図形の変更前と変更後の範囲を合わせた1つの範囲とする)
+     * </div>
+     * @param x 移動量を決めるためのx座標
+     * @param y 移動量を決めるためのy座標
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    private Rect transferSelection(float x, float y) {
         final float dx = x - baseX;
         final float dy = y - baseY;
-        shapeList.getLast().transferRelative(dx, dy);
+        final boolean discarded = (pendingTranslate == null) && recordTranslate(selectedShapes.toArray(new ShapeBase[0]));
+        pendingTranslate.add(dx, dy);
+        selectionBounds.setEmpty();
+        for (int i = 0; i < selectedShapes.size(); i++) {
+            final ShapeBase shape = prepareWrite(selectedShapes.get(i));
+            shape.getBounds(boundsBefore);
+            selectionBounds.union(boundsBefore);
+            shape.translate(dx, dy);
+            updateIndex(shape);
+            selectionBounds.union(boundsAfter);
+        }
 
         baseX = x;
         baseY = y;
+        return discarded ? getFullRect() : toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 移動の操作を履歴に記録する
+     * <div>
+     *     1回の移動の操作の間は、移動量をpendingTranslateにまとめる <br>
+     *     移動中に図形の配列を作らないように、移動の開始時 (pendingTranslateがnullの場合)のみ呼び出す
+     * </div>
+     * @param shapes 移動する図形
+     * @return 進むの対象の図形を破棄した場合、真
+     */
+    private boolean recordTranslate(ShapeBase[] shapes) {
+        final EditCommand.Translate command = new EditCommand.Translate(shapes);
+        final boolean discarded = record(command);
+        pendingTranslate = command;
+        return discarded;
     }
 
     /**
-     * 最新の図形と同じ図形を指定の位置に複製する
+     * 実行済みの操作を履歴に記録する
+     * @param command 操作
+     * @return 進むの対象の図形 (戻るした図形)を破棄した場合、真 (戻るした図形の表示が消えるため、全体を再描画すること)
+     */
+    private boolean record(EditCommand command) {
+        pendingTranslate = null;
+        return history.record(command);
+    }
+
+    /**
+     * 操作の対象の図形と同じ図形を指定の位置に複製する
+     * (複製した図形が操作の対象になる)
+     * <div>
+     *     複数選択中の場合、選択中の図形を位置関係を保ったまま全て複製し、
+     *     複製した図形を選択する (最も奥の図形の代表となる位置を複製先とする)
+     * </div>
      * @param x 複製先のx座標
      * @param y 複製先のx座標
+     * @return 再描画が必要な範囲
      */
-    public void copy(float x, float y) {
-        if (shapeList.isEmpty())
+    @NonNull
+    public Rect copy(float x, float y) {
+        if (!selectedShapes.isEmpty())
+            return copySelection(x, y);
+        final ShapeBase target = getTarget();
+        if (target == null)
+            return new Rect();
+
+        target.getBounds(boundsBefore);  // 強調表示の対象から外れるため、複製元も再描画する
+        // 座標は書き換えずに複製先へ移動する
+        final ShapeBase cpShape = target.copyShape();
+        cpShape.translate(x - cpShape.getX(), y - cpShape.getY());
+        addShape(cpShape);
+        selectedHandle = -1;
+        final Rect dirty = updateShape(boundsBefore, cpShape);
+        return record(new EditCommand.AddShapes(cpShape)) ? getFullRect() : dirty;
+    }
+
+    /**
+     * 選択中の図形をまとめて複製する
+     * @param x 複製先のx座標
+     * @param y 複製先のx座標
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    private Rect copySelection(float x, float y) {
+        final ShapeBase first = selectedShapes.get(0);
+        final float dx = x - (first.getX() + first.getOffsetX());
+        final float dy = y - (first.getY() + first.getOffsetY());
+        final ArrayList<ShapeBase> copies = new ArrayList<>(selectedShapes.size());
+        selectionBounds.setEmpty();
+        for (int i = 0; i < selectedShapes.size(); i++) {
+            final ShapeBase shape = selectedShapes.get(i);
+            shape.getBounds(boundsBefore);  // 強調表示の対象から外れるため、複製元も再描画する
+            selectionBounds.union(boundsBefore);
+            shape.setSelected(false);
+
+            final ShapeBase cpShape = shape.copyWithOffset();
+            cpShape.translate(dx, dy);
+            addShape(cpShape);
+            updateIndex(cpShape);
+            selectionBounds.union(boundsAfter);
+            cpShape.setSelected(true);
+            copies.add(cpShape);
+        }
+        // 複製元がタイルに描画されるようになるため、タイルを描画し直す
+        selectedShapes.clear();
+        selectedShapes.addAll(copies);
+        invalidateSelectionTiles();
+        // まとめて1回の戻るで削除する
+        return record(new EditCommand.AddShapes(copies.toArray(new ShapeBase[0])))
+                ? getFullRect() : toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 操作の対象の図形 (複数選択中の場合、選択中の図形)を格子状に並べて複製する
+     * <div>
+     *     元の図形を左上として、元の図形の範囲の大きさに間隔を加えた距離ごとに並べる <br>
+     *     複製した図形は頂点の座標を元の図形と共有し (変更時に複製する)、まとめて1回の戻るで削除できる <br>
+     *     選択は解除する
+     * </div>
+     * @param columns 横に並べる数 (元の図形を含む)
+     * @param rows 縦に並べる数 (元の図形を含む)
+     * @param gap 図形の間隔 (図形の座標)
+     * @return 再描画が必要な範囲 (複製しなかった場合、空)
+     */
+    @NonNull
+    public Rect duplicateGrid(int columns, int rows, float gap) {
+        fix();
+        final ArrayList<ShapeBase> sources = new ArrayList<>(selectedShapes);
+        if (sources.isEmpty()) {
+            final ShapeBase target = getTarget();
+            if (target != null)
+                sources.add(target);
+        }
+        if (sources.isEmpty() || columns < 1 || rows < 1 || columns * rows == 1)
+            return new Rect();
+        clearSelection();
+
+        final RectF sourceBounds = new RectF();
+        for (int i = 0; i < sources.size(); i++) {
+            sources.get(i).getBounds(boundsTemp);
+            sourceBounds.union(boundsTemp);
+        }
+        final float pitchX = sourceBounds.width() + gap;
+        final float pitchY = sourceBounds.height() + gap;
+
+        final ArrayList<ShapeBase> copies = new ArrayList<>((columns * rows - 1) * sources.size());
+        selectionBounds.set(sourceBounds);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (row == 0 && column == 0)
+                    continue;  // 元の図形
+                for (int i = 0; i < sources.size(); i++) {
+                    final ShapeBase cpShape = sources.get(i).copyWithOffset();
+                    cpShape.translate(pitchX * column, pitchY * row);
+                    addShape(cpShape);
+                    copies.add(cpShape);
+                    updateIndex(cpShape);
+                    selectionBounds.union(boundsAfter);
+                }
+            }
+        }
+        // 最新の図形が変わるため、タイルを描画し直す
+        invalidateSelectionTiles();
+        // まとめて1回の戻るで削除する
+        return record(new EditCommand.AddShapes(copies.toArray(new ShapeBase[0])))
+                ? getFullRect() : toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 選択中の図形をまとめて削除する (1回の戻るで元に戻せる)
+     * @return 再描画が必要な範囲 (選択中の図形が無い場合、空)
+     */
+    @NonNull
+    public Rect deleteSelection() {
+        if (selectedShapes.isEmpty())
+            return new Rect();
+        selectionBounds.setEmpty();
+        for (int i = 0; i < selectedShapes.size(); i++) {
+            final ShapeBase shape = selectedShapes.get(i);
+            shape.getBounds(boundsTemp);
+            selectionBounds.union(boundsTemp);
+            shapeIndex.remove(shape);
+        }
+        shapeList.removeSelected();
+        // 削除した図形は履歴のみが保持する (履歴から破棄した時点で座標を解放する)
+        final boolean discarded = record(new EditCommand.DeleteShapes(selectedShapes.toArray(new ShapeBase[0])));
+        for (int i = 0; i < selectedShapes.size(); i++)
+            selectedShapes.get(i).setSelected(false);
+        selectedShapes.clear();
+        selectedHandle = -1;
+        invalidateSelectionTiles();
+        return discarded ? getFullRect() : toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 選択中の図形の色をまとめて変更する
+     * <div>
+     *     同じ見た目を使っている選択中以外の図形の色は変えない <br>
+     *     選択中の図形はタイルに描画していないため、タイルは描画し直さない
+     * </div>
+     * @param color 変更後の色
+     * @return 再描画が必要な範囲 (選択中の図形が無い場合、空)
+     */
+    @NonNull
+    public Rect recolorSelection(@ColorInt int color) {
+        if (selectedShapes.isEmpty())
+            return new Rect();
+        final int count = selectedShapes.size();
+        final ShapeBase[] shapes = selectedShapes.toArray(new ShapeBase[0]);
+        final ShapeStyle[] oldStyles = new ShapeStyle[count];
+        final ShapeStyle[] newStyles = new ShapeStyle[count];
+        selectionBounds.setEmpty();
+        for (int i = 0; i < count; i++) {
+            final ShapeBase shape = prepareWrite(shapes[i]);
+            shapes[i] = shape;
+            oldStyles[i] = shape.getStyle();
+            newStyles[i] = styleTable.withColor(oldStyles[i], color);
+            shape.setStyle(newStyles[i]);
+            shape.discardRecording();
+            shape.getBounds(boundsTemp);
+            selectionBounds.union(boundsTemp);
+        }
+        final boolean discarded = record(new EditCommand.SetStyle(shapes, oldStyles, newStyles));
+        return discarded ? getFullRect() : toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 複数選択中の図形の数を返す
+     * @return 図形の数
+     */
+    public int getSelectedCount() {
+        return selectedShapes.size();
+    }
+
+    /**
+     * 図形の座標の範囲を再描画範囲 (画面の座標)に変換する
+     * @param bounds 範囲 (図形の座標)
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    private Rect toDirtyRect(RectF bounds) {
+        boundsTemp.set(bounds);
+        viewMatrix.mapRect(boundsTemp);
+        final Rect dirty = new Rect();
+        boundsTemp.roundOut(dirty);
+        return dirty;
+    }
+
+    /**
+     * 図形の変更を空間インデックスに反映し、
+     * 変更前の描画範囲と図形の現在の描画範囲を合わせた範囲を返す
+     * @param before 変更前の描画範囲 (空の場合、図形の現在の描画範囲のみ)
+     * @param shape 変更後の図形
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    private Rect updateShape(RectF before, ShapeBase shape) {
+        indexShape(shape);  // boundsAfterに現在の描画範囲が設定される
+        boundsAfter.union(before);
+        return toDirtyRect(boundsAfter);
+    }
+
+    /**
+     * 図形の移動 (translate())を空間インデックスに反映し、
+     * 変更前の描画範囲と図形の現在の描画範囲を合わせた範囲を返す
+     * (図形の形は変わらないため、記録済みの描画内容は破棄しない)
+     * @param before 変更前の描画範囲
+     * @param shape 移動後の図形
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    private Rect updateTranslatedShape(RectF before, ShapeBase shape) {
+        updateIndex(shape);  // boundsAfterに現在の描画範囲が設定される
+        boundsAfter.union(before);
+        return toDirtyRect(boundsAfter);
+    }
+
+    /**
+     * 図形を最前面に追加する
+     * @param shape 追加する図形
+     */
+    private void addShape(ShapeBase shape) {
+        if (shape.getOwnerVersion() == 0)
+            shape.setOwnerVersion(documentVersion);  // 新しい図形 (戻るした図形は作成時の版のまま)
+        shape.moveGeometryTo(geometryArena);
+        shape.setZOrder(nextZOrder++);
+        shapeList.add(shape);
+    }
+
+    /**
+     * 図形を変更する前に呼び出し、変更できる図形を返す
+     * <div>
+     *     図形が作成済みの文書のスナップショットに含まれる場合 (図形の版が古い場合)、複製して置き換える
+     *     (shapeList、空間インデックス、選択中の図形の参照も置き換える 履歴はgetLatest()で辿る) <br>
+     *     スナップショットを作成していない間は複製しない
+     * </div>
+     * @param shape 変更する図形 (置き換え済みの場合、最新の図形を対象とする)
+     * @return 変更できる図形
+     */
+    private ShapeBase prepareWrite(ShapeBase shape) {
+        final ShapeBase latest = shape.getLatest();
+        if (latest.getOwnerVersion() == documentVersion)
+            return latest;
+        final ShapeBase copy = latest.copyWithState();
+        copy.setOwnerVersion(documentVersion);
+        copy.moveGeometryTo(geometryArena);
+        latest.setReplacement(copy);
+
+        final int index = lowerBoundZOrder(latest.getZOrder());
+        if (index < shapeList.size() && shapeList.get(index) == latest) {
+            shapeList.set(index, copy);
+            shapeIndex.remove(latest);
+            copy.getBounds(boundsTemp);
+            shapeIndex.insert(copy, boundsTemp.left, boundsTemp.top, boundsTemp.right, boundsTemp.bottom);
+        }
+        final int selectedIndex = selectedShapes.indexOf(latest);
+        if (selectedIndex >= 0)
+            selectedShapes.set(selectedIndex, copy);
+        if (tiledActive == latest)
+            tiledActive = copy;
+
+        // 置き換えた図形はスナップショットのみが参照する
+        if (openSnapshots > 0)
+            retiredShapes.add(latest);
+        else
+            latest.releaseGeometry();
+        return copy;
+    }
+
+    /**
+     * 図形の描画範囲を空間インデックスに追加 (更新)する
+     * <div>
+     *     図形を変更した場合 (setPoint() addPoint() transferRelative() setData())、必ず呼び出すこと
+     *     (記録済みの描画内容も破棄する)
+     * </div>
+     * @param shape 対象の図形
+     */
+    private void indexShape(ShapeBase shape) {
+        shape.discardRecording();
+        updateIndex(shape);
+    }
+
+    /**
+     * 図形の描画範囲を空間インデックスに追加 (更新)する (移動のみの場合)
+     * <div>
+     *     boundsAfterに現在の描画範囲を設定する
+     * </div>
+     * @param shape 対象の図形
+     */
+    private void updateIndex(ShapeBase shape) {
+        shape.getBounds(boundsAfter);
+        shapeIndex.insert(shape, boundsAfter.left, boundsAfter.top, boundsAfter.right, boundsAfter.bottom);
+    }
+
+    /**
+     * 空間インデックスをshapeListから作り直す
+     * (描画順が変わるため、タイルも破棄する)
+     */
+    private void rebuildIndex() {
+        clearSelection();
+        final ArrayList<ShapeBase> detachedShapes = new ArrayList<>();
+        history.collectDetachedShapes(detachedShapes);
+        internStyles(shapeList);
+        internStyles(detachedShapes);
+        moveGeometry(shapeList);
+        moveGeometry(detachedShapes);
+        shapeIndex.clear();
+        setOwnerVersion(shapeList);
+        setOwnerVersion(detachedShapes);
+        nextZOrder = 0;
+        for (ShapeBase shape : shapeList) {
+            shape.setZOrder(nextZOrder++);
+            indexShape(shape);
+        }
+        clearTiles();
+    }
+
+    /**
+     * 読み込んだ図形に現在の文書の版を設定する (設定済みの図形はそのままとする)
+     * @param shapes 対象の図形
+     */
+    private void setOwnerVersion(Iterable<ShapeBase> shapes) {
+        for (ShapeBase shape : shapes) {
+            if (shape.getOwnerVersion() == 0)
+                shape.setOwnerVersion(documentVersion);
+        }
+    }
+
+    /**
+     * 読み込んだ図形の見た目を共有の見た目に置き換える
+     * @param shapes 対象の図形
+     */
+    private void internStyles(Iterable<ShapeBase> shapes) {
+        for (ShapeBase shape : shapes)
+            shape.setStyle(styleTable.intern(shape.getStyle()));
+    }
+
+    /**
+     * 操作の対象の図形を返す
+     * @return 選択した図形 (複数選択中の場合、最も手前の図形 選択していない場合、最新の図形 図形が無い場合、null)
+     */
+    private ShapeBase getTarget() {
+        if (!selectedShapes.isEmpty())
+            return selectedShapes.get(selectedShapes.size() - 1);
+        final ShapeBase selected = shapeList.getByHandle(selectedHandle);
+        if (selected != null)
+            return selected;
+        return shapeList.isEmpty() ? null : shapeList.getLast();
+    }
+
+    /**
+     * 指定の位置にある最も手前の図形を操作の対象として選択する
+     * <div>
+     *     線の太さの半分と許容誤差以内にある図形を選択する <br>
+     *     無い場合は選択を解除する (最新の図形が操作の対象になる)
+     * </div>
+     * @param x x座標 (図形の座標)
+     * @param y y座標 (図形の座標)
+     * @param tolerance 許容誤差 (画面の座標でのピクセル数)
+     * @return 図形を選択した場合、真
+     */
+    public boolean select(float x, float y, float tolerance) {
+        clearSelection();
+        viewMatrix.getValues(matrixValues);
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        final float worldTolerance = (scale > 0) ? tolerance / scale : tolerance;
+        final ShapeBase hit = hitTester.hitTest(x, y, worldTolerance);
+        if (hit == null) {
+            selectedHandle = -1;
+            return false;
+        }
+        selectedHandle = shapeList.handleAt(lowerBoundZOrder(hit.getZOrder()));
+        return true;
+    }
+
+    /**
+     * 複数選択の範囲の指定を開始する
+     * @param x 始点のx座標 (図形の座標)
+     * @param y 始点のy座標 (図形の座標)
+     * @param lasso 投げ縄で指定する場合、真 (偽の場合、矩形)
+     */
+    public void startSelection(float x, float y, boolean lasso) {
+        selectionArea.start(x, y, lasso);
+    }
+
+    /**
+     * 複数選択の範囲を変更する
+     * @param x 現在位置のx座標 (図形の座標)
+     * @param y 現在位置のy座標 (図形の座標)
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    public Rect moveSelection(float x, float y) {
+        getSelectionAreaBounds(selectionBounds);
+        selectionArea.moveTo(x, y);
+        getSelectionAreaBounds(boundsAfter);
+        selectionBounds.union(boundsAfter);
+        return toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 複数選択の範囲の指定を終了し、範囲内の図形を選択する
+     * <div>
+     *     範囲が許容誤差より小さい場合、タップとみなしてselect()と同じく1つの図形を選択する <br>
+     *     範囲内の図形は空間インデックスで描画範囲が重なる図形に絞り込んでから、
+     *     図形ごとに輪郭が範囲内に含まれるか (ShapeBase.isInside())で判定する
+     * </div>
+     * @param tolerance 許容誤差 (画面の座標でのピクセル数)
+     * @return 図形を選択した場合、真
+     */
+    public boolean endSelection(float tolerance) {
+        if (!selectionArea.isActive())
+            return false;
+        viewMatrix.getValues(matrixValues);
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        final float worldTolerance = (scale > 0) ? tolerance / scale : tolerance;
+        final float left = selectionArea.getLeft();
+        final float top = selectionArea.getTop();
+        final float right = selectionArea.getRight();
+        final float bottom = selectionArea.getBottom();
+        if (right - left <= worldTolerance && bottom - top <= worldTolerance) {
+            selectionArea.clear();
+            return select((left + right) / 2, (top + bottom) / 2, tolerance);
+        }
+
+        clearSelection();
+        visibleShapes.clear();
+        shapeIndex.search(left, top, right, bottom, visibleShapes);
+        for (int i = 0; i < visibleShapes.size(); i++) {
+            final ShapeBase shape = visibleShapes.get(i);
+            selectionArea.setShapeOffset(shape.getOffsetX(), shape.getOffsetY());
+            if (shape.isInside(selectionArea))
+                selectedShapes.add(shape);
+        }
+        visibleShapes.clear();
+        selectionArea.clear();
+        if (selectedShapes.isEmpty())
+            return false;
+
+        sortByZOrder(selectedShapes);
+        for (int i = 0; i < selectedShapes.size(); i++)
+            selectedShapes.get(i).setSelected(true);
+        // 選択中の図形はタイルに描画しないため、タイルを描画し直す
+        invalidateSelectionTiles();
+        return true;
+    }
+
+    /**
+     * 複数選択の範囲の指定を取り消す (図形は選択しない)
+     * @return 再描画が必要な範囲
+     */
+    @NonNull
+    public Rect cancelSelection() {
+        getSelectionAreaBounds(selectionBounds);
+        selectionArea.clear();
+        return toDirtyRect(selectionBounds);
+    }
+
+    /**
+     * 図形の選択を解除する (最新の図形が操作の対象になる)
+     */
+    public void clearSelection() {
+        selectedHandle = -1;
+        if (selectedShapes.isEmpty())
+            return;
+        for (int i = 0; i < selectedShapes.size(); i++)
+            selectedShapes.get(i).setSelected(false);
+        selectedShapes.clear();
+        invalidateSelectionTiles();
+    }
+
+    /**
+     * 複数選択の開始、解除時にタイルを全て描画し直す
+     * <div>
+     *     複数選択中は選択中以外の全ての図形をタイルに描画し、
+     *     それ以外は操作の対象の図形より奥の図形をタイルに描画するため、内容が変わる
+     * </div>
+     */
+    private void invalidateSelectionTiles() {
+        tileCache.invalidateAll();
+        tiledActive = null;
+    }
+
+    /**
+     * 複数選択の範囲の輪郭の描画範囲を取得する
+     * @param bounds 描画範囲の格納先 (指定中でない場合、空)
+     */
+    private void getSelectionAreaBounds(RectF bounds) {
+        if (!selectionArea.isActive()) {
+            bounds.setEmpty();
             return;
+        }
+        bounds.set(selectionArea.getLeft(), selectionArea.getTop(),
+                selectionArea.getRight(), selectionArea.getBottom());
+        // 輪郭は画面上で1ピクセルの線で描画する
+        viewMatrix.getValues(matrixValues);
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        final float outset = (scale > 0) ? 2 / scale : 2;
+        bounds.inset(-outset, -outset);
+    }
+
+    /**
+     * 複数選択の範囲の輪郭の描画用Paintを作成する
+     * @return 描画用のPaint (線の太さ 0 (1ピクセル))
+     */
+    static Paint createSelectionAreaPaint() {
+        final Paint paint = new Paint();
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(0);
+        paint.setColor(HIGHLIGHT_COLOR);
+        return paint;
+    }
 
-        final ShapeBase cpShape = shapeList.getLast().copyShape();
-        cpShape.transferAbsolute(x, y);
-        shapeList.addLast(cpShape);
-        // 履歴は削除しない
+    /**
+     * 描画順が指定の値以上の最初の図形の位置を返す (shapeListは描画順に並んでいる)
+     * @param zOrder 描画順
+     * @return shapeListでの位置 (無い場合、shapeListの大きさ)
+     */
+    private int lowerBoundZOrder(int zOrder) {
+        int low = 0;
+        int high = shapeList.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (shapeList.get(mid).getZOrder() < zOrder)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
     }
 
     /**
-     * 作成した図形を描画する
-     * @param canvas 描画先
+     * 2つの図形の描画順の間に他の図形があるか
+     * @param a 図形
+     * @param b 図形
+     * @return 間に図形がある場合、真
+     */
+    private boolean hasShapesBetween(ShapeBase a, ShapeBase b) {
+        final int low = Math.min(a.getZOrder(), b.getZOrder());
+        final int high = Math.max(a.getZOrder(), b.getZOrder());
+        final int index = lowerBoundZOrder(low + 1);
+        return index < shapeList.size() && shapeList.get(index).getZOrder() < high;
+    }
+
+    /**
+     * 図形の座標を現在の格納先に移す
+     * @param shapes 対象の図形
+     */
+    private void moveGeometry(Iterable<ShapeBase> shapes) {
+        for (ShapeBase shape : shapes)
+            shape.moveGeometryTo(geometryArena);
+    }
+
+    /**
+     * 破棄する図形のアリーナに格納した座標を解放する
+     * (文書のスナップショットの参照中の場合、全て使い終わるまで保留する)
+     * @param shapes 破棄する図形
+     */
+    private void releaseGeometry(Iterable<ShapeBase> shapes) {
+        for (ShapeBase shape : shapes) {
+            if (openSnapshots > 0)
+                retiredShapes.add(shape);
+            else
+                shape.releaseGeometry();
+        }
+    }
+
+    /**
+     * 図形の座標をJavaヒープ外のアリーナに格納するか設定する
+     * <div>
+     *     頂点数の非常に多い図面でGCの負荷を減らす場合に使う
+     *     (既存の図形の座標も移す) <br>
+     *     スナップショットに含まれる図形は変更せず、複製して置き換えてから移す
+     * </div>
+     * @param enabled アリーナに格納する場合、真
+     */
+    public void setGeometryArenaEnabled(boolean enabled) {
+        if (enabled == (geometryArena != null))
+            return;
+        final GeometryArena oldArena = geometryArena;
+        geometryArena = enabled ? new GeometryArena() : null;
+        final ArrayList<ShapeBase> detachedShapes = new ArrayList<>();
+        history.collectDetachedShapes(detachedShapes);
+        for (int i = 0; i < shapeList.size(); i++)
+            prepareWrite(shapeList.get(i)).moveGeometryTo(geometryArena);
+        for (ShapeBase shape : detachedShapes)
+            prepareWrite(shape).moveGeometryTo(geometryArena);
+        // 文書のスナップショットが参照している場合、使い終わるまで残す
+        if (oldArena != null && openSnapshots == 0)
+            oldArena.clear();
+    }
+
+    /**
+     * タイルを全て破棄する
+     */
+    private void clearTiles() {
+        tileCache.clear();
+        tiledActive = null;
+    }
+
+    /**
+     * タイルの使用するメモリ量の上限を設定する
+     * @param bytes 上限 (バイト数)
+     */
+    public void setTileCacheBudget(long bytes) {
+        tileCache.setMemoryBudget(bytes);
+    }
+
+    /**
+     * 表示範囲内にある図形を描画順に並べて返す
+     * @param fromZOrder 描画順がこの値以上の図形のみ返す
+     * @param toZOrder 描画順がこの値未満の図形のみ返す
+     * @return 表示範囲内の図形 (次回の呼び出しまで有効)
+     */
+    private List<ShapeBase> getVisibleShapes(int fromZOrder, int toZOrder) {
+        return getShapesIn(visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom,
+                fromZOrder, toZOrder);
+    }
+
+    /**
+     * 指定の範囲内にある図形を描画順に並べて返す (複数選択中の図形は除く)
+     * @param left 範囲の左端 (図形の座標)
+     * @param top 範囲の上端 (図形の座標)
+     * @param right 範囲の右端 (図形の座標)
+     * @param bottom 範囲の下端 (図形の座標)
+     * @param fromZOrder 描画順がこの値以上の図形のみ返す
+     * @param toZOrder 描画順がこの値未満の図形のみ返す
+     * @return 範囲内の図形 (次回の呼び出しまで有効)
+     */
+    private List<ShapeBase> getShapesIn(float left, float top, float right, float bottom,
+                                        int fromZOrder, int toZOrder) {
+        visibleShapes.clear();
+        shapeIndex.search(left, top, right, bottom, visibleShapes);
+
+        // 描画順の範囲外のもの、選択中のものを取り除く
+        int n = 0;
+        for (int i = 0; i < visibleShapes.size(); i++) {
+            final ShapeBase shape = visibleShapes.get(i);
+            final int zOrder = shape.getZOrder();
+            if (fromZOrder <= zOrder && zOrder < toZOrder && !shape.isSelected())
+                visibleShapes.set(n++, shape);
+        }
+        for (int i = visibleShapes.size() - 1; i >= n; i--)
+            visibleShapes.remove(i);
+
+        sortByZOrder(visibleShapes);
+        return visibleShapes;
+    }
+
+    /**
+     * 図形を描画順に並べ替える
+     * <div>
+     *     描画のたびに呼び出すため、作業領域を確保しないヒープソートで並べ替える
+     *     (描画順は図形ごとに異なるため、安定でなくてもよい)
+     * </div>
+     * @param shapes 並べ替える図形
+     */
+    static void sortByZOrder(List<ShapeBase> shapes) {
+        final int n = shapes.size();
+        for (int i = n / 2 - 1; i >= 0; i--)
+            siftDown(shapes, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            shapes.set(0, shapes.set(end, shapes.get(0)));
+            siftDown(shapes, 0, end);
+        }
+    }
+
+    /**
+     * ヒープの指定位置の図形を子と比較して下げる
+     * @param shapes ヒープ
+     * @param index 下げる図形の位置
+     * @param size ヒープの大きさ
+     */
+    private static void siftDown(List<ShapeBase> shapes, int index, int size) {
+        final ShapeBase shape = shapes.get(index);
+        final int zOrder = shape.getZOrder();
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && shapes.get(child + 1).getZOrder() > shapes.get(child).getZOrder())
+                child++;
+            if (shapes.get(child).getZOrder() <= zOrder)
+                break;
+            shapes.set(index, shapes.get(child));
+            index = child;
+        }
+        shapes.set(index, shape);
+    }
+
+    /**
+     * 図形が表示範囲内にあるか
+     * @param shape 判定する図形
+     * @return 表示範囲内の場合、真
+     */
+    private boolean isVisible(ShapeBase shape) {
+        shape.getBounds(boundsTemp);
+        return RectF.intersects(boundsTemp, visibleRect);
+    }
+
+    /**
+     * 表示範囲 (図形の座標)を更新する
+     */
+    private void updateVisibleRect() {
+        visibleRectKnown = width >= 0 && height >= 0 && viewMatrix.invert(inverseMatrix);
+        if (!visibleRectKnown) {
+            // 表示範囲が不明な場合、全てを表示範囲とする
+            visibleRect.set(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+            return;
+        }
+        visibleRect.set(0, 0, (float)width, (float)height);
+        inverseMatrix.mapRect(visibleRect);
+    }
+
+    /**
+     * 図形の座標から画面の座標への変換を設定する (拡大縮小、表示位置の移動)
+     * @param matrix 変換行列
+     */
+    public void setViewMatrix(Matrix matrix) {
+        viewMatrix.set(matrix);
+        updateVisibleRect();
+    }
+
+    /**
+     * 描画領域全体を返す
+     * @return 描画領域全体
+     */
+    @NonNull
+    private Rect getFullRect() {
+        if (width < 0 || height < 0)
+            return new Rect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        return new Rect(0, 0, (int)Math.ceil(width), (int)Math.ceil(height));
+    }
+
+    /**
+     * 作成した図形を描画する (表示範囲外の図形は描画しない)
+     * @param canvas 描画先 (画面の座標)
      */
     public void drawShapes(Canvas canvas) {
-        for (ShapeBase shape : shapeList)
-            shape.draw(canvas);
+        if (!selectedShapes.isEmpty()) {
+            drawSelectedShapes(canvas, false);
+            return;
+        }
+        final ShapeBase target = getTarget();
+        if (target == null)
+            return;
+
+        canvas.save();
+        canvas.concat(viewMatrix);
+        drawCommittedShapes(canvas, target);
+
+        // 操作の対象の図形は変更中の可能性があるため、記録せずに描画する
+        if (isVisible(target))
+            target.drawWithOffset(canvas);
+        drawShapesAbove(canvas, target);
+        if (predicting)
+            canvas.drawLine(predictFromX, predictFromY, predictToX, predictToY, target.getPaint());
+        selectionArea.draw(canvas, selectionAreaPaint);
+        canvas.restore();
     }
 
     /**
-     * 一時的に色を変更して図形を描画し、もとに戻す
-     * @param canvas 描画先
-     * @param shape 描画する図形
-     * @param tempColor 一時的な色
+     * 複数選択中の図形を最前面に描画する (選択中以外の図形はタイルを使用する)
+     * @param canvas 描画先 (画面の座標)
+     * @param highlight 選択中の図形を強調する場合、真
+     */
+    private void drawSelectedShapes(Canvas canvas, boolean highlight) {
+        canvas.save();
+        canvas.concat(viewMatrix);
+        if (highlight)
+            saveTintLayer(canvas, noHighlightLayerPaint);
+        drawCommittedShapes(canvas, null);
+        if (highlight) {
+            canvas.restore();
+            saveTintLayer(canvas, highlightLayerPaint);
+        }
+        viewMatrix.getValues(matrixValues);
+        shapeBatch.draw(canvas, getVisibleSelection(), matrixValues[Matrix.MSCALE_X]);
+        if (highlight)
+            canvas.restore();
+        selectionArea.draw(canvas, selectionAreaPaint);
+        canvas.restore();
+    }
+
+    /**
+     * 表示範囲内の選択中の図形を描画順に並べて返す
+     * @return 表示範囲内の選択中の図形 (次回の呼び出しまで有効)
+     */
+    private List<ShapeBase> getVisibleSelection() {
+        visibleSelection.clear();
+        for (int i = 0; i < selectedShapes.size(); i++) {
+            final ShapeBase shape = selectedShapes.get(i);
+            if (isVisible(shape))
+                visibleSelection.add(shape);
+        }
+        return visibleSelection;
+    }
+
+    /**
+     * 操作の対象の図形より奥の図形を描画する
+     * @param canvas 描画先 (図形の座標に変換済み)
+     * @param target 操作の対象の図形 (複数選択中の場合、null 選択中以外の全ての図形を描画する)
+     */
+    private void drawCommittedShapes(Canvas canvas, ShapeBase target) {
+        viewMatrix.getValues(matrixValues);
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        if (!visibleRectKnown) {
+            // 表示範囲が不明な場合、タイルを使わずに描画する
+            final int activeZOrder = (target != null) ? target.getZOrder() : nextZOrder;
+            shapeBatch.draw(canvas, getVisibleShapes(0, activeZOrder), scale);
+        } else {
+            // 操作の対象より奥の図形は変更されないため、タイルの描画結果を使い回す
+            if (target != null)
+                updateTiledActive(target);
+            tileCache.draw(canvas, visibleRect, scale, tileRenderer);
+        }
+    }
+
+    /**
+     * 操作の対象の図形より手前の図形を描画する (最新の図形以外を選択している場合)
+     * <div>
+     *     タイルには操作の対象より奥の図形のみ描画するため、手前の図形は毎回描画する
+     * </div>
+     * @param canvas 描画先 (図形の座標に変換済み)
+     * @param target 操作の対象の図形
+     */
+    private void drawShapesAbove(Canvas canvas, ShapeBase target) {
+        if (target == shapeList.getLast())
+            return;
+        viewMatrix.getValues(matrixValues);
+        shapeBatch.draw(canvas, getVisibleShapes(target.getZOrder() + 1, nextZOrder), matrixValues[Matrix.MSCALE_X]);
+    }
+
+    /**
+     * タイルに描画しない図形を変更する
+     * <div>
+     *     追加、戻る、進む、選択等で操作の対象の図形が変わった場合、
+     *     前回の対象の図形と今回の対象の図形の範囲のタイルを描画し直す
+     *     (描画順の間に他の図形がある場合、それらの図形の有無も変わるため全て描画し直す)
+     * </div>
+     * @param active 操作の対象の図形
+     */
+    private void updateTiledActive(ShapeBase active) {
+        if (tiledActive == active)
+            return;
+        if (tiledActive != null && hasShapesBetween(tiledActive, active)) {
+            tileCache.invalidateAll();
+        } else {
+            if (tiledActive != null) {
+                tiledActive.getBounds(boundsTemp);
+                tileCache.invalidate(boundsTemp);
+            }
+            active.getBounds(boundsTemp);
+            tileCache.invalidate(boundsTemp);
+        }
+        tiledActive = active;
+    }
+
+    /** タイルの内容の描画 (操作の対象の図形より奥の図形 複数選択中の場合、選択中以外の全ての図形) */
+    private final ShapeTileCache.Renderer tileRenderer = new ShapeTileCache.Renderer() {
+        @Override
+        public void render(Canvas canvas, float left, float top, float right, float bottom, float scale) {
+            final int activeZOrder = (tiledActive != null) ? tiledActive.getZOrder() : nextZOrder;
+            shapeBatch.draw(canvas, getShapesIn(left, top, right, bottom, 0, activeZOrder), scale);
+        }
+    };
+
+    /**
+     * レイヤーの内容を指定の色に置き換えて合成するPaintを作成する
+     * <div>
+     *     レイヤーの各ピクセルの色を指定の色とし、透明度は指定の色の透明度を掛け合わせる
+     * </div>
+     * @param color 置き換える色
+     * @return 合成用のPaint
      */
-    private void drawShapeTempColor(Canvas canvas, ShapeBase shape, @ColorInt int tempColor) {
-        @ColorInt final int color = shape.getPaint().getColor();
-        shape.getPaint().setColor(tempColor);
-        shape.draw(canvas);
-        shape.getPaint().setColor(color);
+    static Paint createTintPaint(@ColorInt int color) {
+        final Paint paint = new Paint();
+        paint.setColorFilter(new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN));
+        return paint;
     }
 
     /**
-     * 最新の図形を強調する
-     * （最新の図形以外は薄く表示）
+     * 色を置き換えて合成するレイヤーを開始する (restore()で合成する)
+     * @param canvas 描画先 (図形の座標に変換済み)
+     * @param layerPaint 合成用のPaint
+     */
+    private void saveTintLayer(Canvas canvas, Paint layerPaint) {
+        // 表示範囲が不明な場合、描画先全体をレイヤーとする
+        canvas.saveLayer(visibleRectKnown ? visibleRect : null, layerPaint);
+    }
+
+    /**
+     * 操作の対象の図形 (選択していない場合、最新の図形 複数選択中の場合、選択中の図形)を強調する
+     * （操作の対象以外は薄く表示）
+     * <div>
+     *     図形の色は変更せず、レイヤー単位で色を置き換える
+     *     (操作の対象以外は通常の描画と同じくタイルを使用する 操作の対象は最前面に表示する)
+     * </div>
      * @param canvas 描画先
      */
     public void drawShapesLastHighlight(Canvas canvas) {
-        if (shapeList.isEmpty())
+        if (!selectedShapes.isEmpty()) {
+            drawSelectedShapes(canvas, true);
+            return;
+        }
+        final ShapeBase target = getTarget();
+        if (target == null)
+            return;
+        canvas.save();
+        canvas.concat(viewMatrix);
+
+        saveTintLayer(canvas, noHighlightLayerPaint);
+        drawCommittedShapes(canvas, target);
+        drawShapesAbove(canvas, target);
+        canvas.restore();
+
+        if (isVisible(target)) {
+            saveTintLayer(canvas, highlightLayerPaint);
+            target.drawWithOffset(canvas);
+            canvas.restore();
+        }
+
+        selectionArea.draw(canvas, selectionAreaPaint);
+        canvas.restore();
+    }
+
+    /**
+     * 現在の描画内容を設定する (UIスレッド以外で描画する場合に使う)
+     * <div>
+     *     表示範囲内の図形のみ含める <br>
+     *     描画ごとに呼び出すため、メモリを確保しない (描画内容は再利用する) <br>
+     *     タイルは使わないため、この描画方法を使っている間はsetSnapshotRendering()で指定しておく
+     * </div>
+     * @param snapshot 設定先 (以前の内容は全て置き換える)
+     * @param showUndo 戻るした図形も表示する場合、真
+     * @param highlight 操作の対象の図形を強調する場合、真
+     */
+    public void createSnapshot(@NonNull ShapeSnapshot snapshot, boolean showUndo, boolean highlight) {
+        // 描画中に図形を変更しないように、以降に変更する図形は複製して置き換える
+        // (操作の対象の図形は複製を渡すため、他のスナップショットが参照していない場合は置き換えない)
+        final ShapeBase target = selectedShapes.isEmpty() ? getTarget() : null;
+        final boolean targetWritable = target != null && target.getOwnerVersion() == documentVersion;
+        documentVersion++;
+        if (targetWritable)
+            target.setOwnerVersion(documentVersion);
+
+        snapshot.clear();
+        snapshot.viewMatrix.set(viewMatrix);
+        viewMatrix.getValues(matrixValues);
+        snapshot.scale = matrixValues[Matrix.MSCALE_X];
+        snapshot.visibleRect.set(visibleRect);
+        snapshot.visibleRectKnown = visibleRectKnown;
+        snapshot.highlight = highlight;
+
+        if (showUndo) {
+            final List<ShapeBase> undone = getUndoneShapes();
+            for (int i = 0; i < undone.size(); i++) {
+                final ShapeBase shape = undone.get(i);
+                if (isVisible(shape))
+                    snapshot.undoShapes.add(shape);
+            }
+        }
+
+        snapshot.selecting = selectionArea.copyPathTo(snapshot.selectionArea);
+        if (!selectedShapes.isEmpty()) {
+            addAll(snapshot.committedShapes, getVisibleShapes(0, nextZOrder));
+            addAll(snapshot.selectedShapes, getVisibleSelection());
+            snapshot.prepareDraw();
             return;
-        final ShapeBase last = shapeList.getLast();
-        drawShapeTempColor(canvas, last, HIGHLIGHT_COLOR);
+        }
+
+        if (target != null) {
+            addAll(snapshot.committedShapes, getVisibleShapes(0, target.getZOrder()));
+            if (target != shapeList.getLast())
+                addAll(snapshot.aboveShapes, getVisibleShapes(target.getZOrder() + 1, nextZOrder));
+            if (isVisible(target) || predicting) {
+                snapshot.setActiveShape(target);
+                if (predicting) {
+                    snapshot.predicting = true;
+                    snapshot.prediction[0] = predictFromX;
+                    snapshot.prediction[1] = predictFromY;
+                    snapshot.prediction[2] = predictToX;
+                    snapshot.prediction[3] = predictToY;
+                }
+            }
+        }
+        snapshot.prepareDraw();
+    }
 
-        final int lastNum = shapeList.size() - 1;  // 最後の要素を除く
-        if (lastNum <= 0)
+    /**
+     * 図形をまとめて追加する (ArrayList.addAll()は配列を確保するため使わない)
+     * @param dst 追加先
+     * @param shapes 追加する図形
+     */
+    private static void addAll(ArrayList<ShapeBase> dst, List<ShapeBase> shapes) {
+        for (int i = 0; i < shapes.size(); i++)
+            dst.add(shapes.get(i));
+    }
+
+    /**
+     * 描画内容 (ShapeSnapshot)を使って他のスレッドで描画するかを設定する
+     * <div>
+     *     描画内容を使う間はタイルを描画、更新しないため、描画方法を変更した時点でタイルを破棄する
+     * </div>
+     * @param enabled 描画内容を使う場合、真
+     */
+    public void setSnapshotRendering(boolean enabled) {
+        if (enabled == snapshotRendering)
             return;
-        final List<ShapeBase> otherList = shapeList.subList(0, lastNum);
-        for (ShapeBase shape : otherList)
-            drawShapeTempColor(canvas, shape, NO_HIGHLIGHT_COLOR);
+        snapshotRendering = enabled;
+        clearTiles();
     }
 
     /**
      * undoした図形を色を変更して描画する
+     * <div>
+     *     図形の色は変更せず、レイヤー単位で色を置き換える
+     * </div>
      * @param canvas 描画先
      */
     public void drawUndo(Canvas canvas) {
-        for (ShapeBase shape : undoList)
-            drawShapeTempColor(canvas, shape, UNDO_COLOR);
+        final List<ShapeBase> undone = getUndoneShapes();
+        if (undone.isEmpty())
+            return;
+        canvas.save();
+        canvas.concat(viewMatrix);
+        saveTintLayer(canvas, undoLayerPaint);
+        for (int i = 0; i < undone.size(); i++) {
+            final ShapeBase shape = undone.get(i);
+            if (isVisible(shape))
+                shape.drawRecorded(canvas);
+        }
+        canvas.restore();
+        canvas.restore();
+    }
+
+    /**
+     * 戻るした図形を返す
+     * @return 図形 (戻した順 呼び出しごとに内容を更新する)
+     */
+    @NonNull
+    private List<ShapeBase> getUndoneShapes() {
+        undoneShapes.clear();
+        history.collectUndoneShapes(undoneShapes);
+        return undoneShapes;
     }
 
+    /**
+     * 戻るした図形を保存用に返す
+     * @return 図形 (戻した順)
+     */
+    @NonNull
+    private ShapeStore getUndoneStore() {
+        final ShapeStore store = new ShapeStore();
+        for (ShapeBase shape : getUndoneShapes())
+            store.add(shape);
+        return store;
+    }
+
+    /**
+     * 保存した戻るした図形から履歴を作り直す (移動等の操作の履歴は保存しない)
+     * @param undone 戻るした図形 (戻した順)
+     */
+    private void restoreUndoneStore(ShapeStore undone) {
+        history.clear();
+        pendingTranslate = null;
+        for (ShapeBase shape : undone)
+            history.pushUndone(new EditCommand.AddShapes(shape));
+    }
+
+    /**
+     * 履歴の操作の対象 (戻る、進むで変更した図形をタイル、空間インデックスに反映する)
+     * <div>
+     *     図形の変更前と変更後の範囲のタイルのみ描画し直す
+     * </div>
+     */
+    private final EditCommand.Document historyDocument = new EditCommand.Document() {
+        @Override
+        public void addShape(ShapeBase shape) {
+            // 戻るした図形も描画内容、文書のスナップショットに含まれる場合があるため、描画順の設定前に複製する
+            final ShapeBase target = ShapeManager.this.prepareWrite(shape);
+            ShapeManager.this.addShape(target);
+            updateIndex(target);  // 形は変わらないため、記録済みの描画内容は破棄しない
+            tileCache.invalidate(boundsAfter);
+        }
+
+        @Override
+        public void insertShapes(ShapeBase[] shapes) {
+            for (int i = 0; i < shapes.length; i++)
+                shapes[i] = ShapeManager.this.prepareWrite(shapes[i]);
+            shapeList.insertByZOrder(shapes);
+            for (ShapeBase shape : shapes) {
+                shape.moveGeometryTo(geometryArena);
+                updateIndex(shape);
+                tileCache.invalidate(boundsAfter);
+            }
+        }
+
+        @Override
+        public void removeShapes(ShapeBase[] shapes) {
+            for (ShapeBase shape : shapes) {
+                shape.getBounds(boundsTemp);
+                tileCache.invalidate(boundsTemp);
+                shapeIndex.remove(shape);
+            }
+            if (shapes.length == 1 && shapeList.getLast() == shapes[0]) {
+                shapeList.removeLast();
+                return;
+            }
+            // 選択中の図形の削除と同じく、まとめて詰める (戻る、進むの前に選択は解除している)
+            for (ShapeBase shape : shapes)
+                shape.setSelected(true);
+            shapeList.removeSelected();
+            for (ShapeBase shape : shapes)
+                shape.setSelected(false);
+        }
+
+        @Override
+        public ShapeBase prepareWrite(ShapeBase shape) {
+            return ShapeManager.this.prepareWrite(shape);
+        }
+
+        @Override
+        public void beginChange(ShapeBase shape) {
+            shape.getBounds(boundsTemp);
+            tileCache.invalidate(boundsTemp);
+        }
+
+        @Override
+        public void endChange(ShapeBase shape, boolean translated) {
+            if (translated)
+                updateIndex(shape);
+            else
+                indexShape(shape);
+            tileCache.invalidate(boundsAfter);
+        }
+    };
+
+    /**
+     * 最新の操作を取り消す
+     * <div>
+     *     履歴の無い図形 (読み込んだ図形等)は、最新の図形を削除する
+     * </div>
+     * @return 取り消した場合、真
+     */
     public boolean undo() {
         fix();
+        clearSelection();
+        pendingTranslate = null;
 
+        if (history.canUndo())
+            return history.undo(historyDocument);
         if (shapeList.isEmpty())
             return false;
 
-        final ShapeBase last = shapeList.removeLast();
-        undoList.addLast(last);
+        final EditCommand command = new EditCommand.AddShapes(shapeList.getLast());
+        command.undo(historyDocument);
+        history.pushUndone(command);
         return true;
     }
 
+    /**
+     * 最後に取り消した操作をやり直す
+     * @return やり直した場合、真
+     */
     public boolean redo() {
         fix();
+        clearSelection();
+        pendingTranslate = null;
 
-        if (undoList.isEmpty())
-            return false;
-
-        final ShapeBase last = undoList.removeLast();
-        shapeList.addLast(last);
-        return true;
+        return history.redo(historyDocument);
     }
 
     public boolean canUndo() {
-        return !shapeList.isEmpty();
+        return history.canUndo() || !shapeList.isEmpty();
     }
 
     public boolean canRedo() {
-        return !undoList.isEmpty();
+        return history.canRedo();
+    }
+
+    /**
+     * 戻るの履歴の記憶量の上限を設定する (超えた場合、古い操作から戻れなくなる)
+     * @param bytes 上限 (バイト数)
+     */
+    public void setHistoryBudget(long bytes) {
+        history.setBudget(bytes);
     }
 
     public void setSize(double width, double height) {
         this.width = width;
         this.height = height;
+        updateVisibleRect();
     }
 
     /**
@@ -367,27 +1720,90 @@ public final class ShapeManager {
      * @return 出力に成功した場合、真
      */
     public boolean writeTo(Writer writer) {
-        final ISvgWriter svg;
-        try {
-            svg = new TinySvgWriter();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-            return false;
-        }
+        // 呼び出し中に図形は変更されないため、版を進めずに現在の並びを出力する
+        return new DocumentSnapshot(shapeList.snapshot(), ShapeVector.EMPTY, width, height, null).writeTo(writer);
+    }
 
-        if (width >= 0 && height >= 0)
-            svg.setSvgSize(width, height);
+    /**
+     * 文書のスナップショットを作成する
+     * <div>
+     *     図形の並びはO(1)で取り出す (戻るした図形のみ複写する) <br>
+     *     以降に変更する図形は複製して置き換えるため、スナップショットの内容は変更されない。
+     *     保存、SVG出力は他のスレッドから行ってよい <br>
+     *     他のスレッドでは図形を読み取るのみとするため、未反映の移動量は作成時にUIスレッドで座標に反映しておく
+     *     (保存時に複製 (toBaked())しない) <br>
+     *     使い終わったら、UIスレッドからDocumentSnapshot.release()を呼び出すこと
+     * </div>
+     * @return スナップショット
+     */
+    @NonNull
+    public DocumentSnapshot createDocumentSnapshot() {
+        applyOffsets();
+        documentVersion++;  // 現在の図形は変更前に複製する
+        if (openSnapshots++ == 0)
+            history.setReleaseQueue(retiredShapes);
+        return new DocumentSnapshot(shapeList.snapshot(), getUndoneVector(), width, height, this);
+    }
+
+    /**
+     * 全ての図形 (戻るした図形を含む)の未反映の移動量を座標に反映する
+     * <div>
+     *     描画内容は変わらないため、空間インデックス、タイルは更新しない
+     * </div>
+     */
+    private void applyOffsets() {
+        for (int i = 0; i < shapeList.size(); i++) {
+            if (shapeList.get(i).hasOffset())
+                prepareWrite(shapeList.get(i)).applyOffset();
+        }
+        final List<ShapeBase> undone = getUndoneShapes();
+        for (int i = 0; i < undone.size(); i++) {
+            if (undone.get(i).hasOffset())
+                prepareWrite(undone.get(i)).applyOffset();
+        }
+    }
 
-        for (ShapeBase shape : shapeList)
-            shape.makeSvg(svg);
+    /**
+     * 戻るした図形を並びとして返す
+     * @return 図形 (戻した順)
+     */
+    @NonNull
+    private ShapeVector getUndoneVector() {
+        final List<ShapeBase> undone = getUndoneShapes();
+        final ShapeVector.Builder undoneVector = new ShapeVector.Builder();
+        for (int i = 0; i < undone.size(); i++)
+            undoneVector.add(undone.get(i));
+        return undoneVector.snapshot();
+    }
 
-        return svg.writeTo(writer);
+    /**
+     * 文書のスナップショットを使い終わった場合に呼び出す (DocumentSnapshot.release()から呼び出される)
+     * <div>
+     *     全て使い終わった場合、保留していた座標の解放を行う
+     * </div>
+     */
+    void releaseDocumentSnapshot() {
+        if (--openSnapshots > 0)
+            return;
+        history.setReleaseQueue(null);
+        for (int i = 0; i < retiredShapes.size(); i++)
+            retiredShapes.get(i).releaseGeometry();
+        retiredShapes.clear();
     }
 
+    /**
+     * SVGファイルを読み込み、図形を最前面に追加する
+     * <div>
+     *     読み込んだ図形の追加は1回の操作として履歴に記録する (戻るでまとめて取り消せる)
+     * </div>
+     * @param stream 読み込み元
+     * @return 読み込みに成功した場合、真
+     */
     public boolean read(InputStream stream) {
         final ISvgReader svg = new TinySvgReader();
         if (!svg.read(stream))
             return false;
+        final ArrayList<ShapeBase> loaded = new ArrayList<>();  // 読み込んだ図形 (描画順)
 
         // 各図形のイベント設定
         svg.setOnPathArcListener(new ISvgReader.OnPathArcListener() {
@@ -396,133 +1812,188 @@ public final class ShapeManager {
                                   double xAxisRotation, boolean largeArcFlag, boolean sweepFlag,
                                   double x,  double y, String attrId) {
                 final ShapeArc shape = ShapeArc.newFromSvg(mx, my, rx, ry,
-                        xAxisRotation, largeArcFlag, sweepFlag, x, y, readPaint(svg));
+                        xAxisRotation, largeArcFlag, sweepFlag, x, y, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnCircleListener(new ISvgReader.OnCircleListener() {
             @Override
             public void onCircle(ISvgReader svg, double cx, double cy, double r, String attrId) {
-                final ShapeCircle shape = ShapeCircle.newFromSvg(cx, cy, r, readPaint(svg));
+                final ShapeCircle shape = ShapeCircle.newFromSvg(cx, cy, r, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnEllipseListener(new ISvgReader.OnEllipseListener() {
             @Override
             public void onEllipse(ISvgReader svg, double cx, double cy, double rx, double ry, String attrId) {
-                final ShapeEllipse shape = ShapeEllipse.newFromSvg(cx, cy, rx, ry, readPaint(svg));
+                final ShapeEllipse shape = ShapeEllipse.newFromSvg(cx, cy, rx, ry, readStyle(svg));
                 if (shape == null)
                     return;
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnLineListener(new ISvgReader.OnLineListener() {
             @Override
             public void onLine(ISvgReader svg, double x1, double y1, double x2, double y2, String attrId) {
-                final ShapeLine shape = ShapeLine.newFromSvg(x1, y1, x2, y2, readPaint(svg));
+                final ShapeLine shape = ShapeLine.newFromSvg(x1, y1, x2, y2, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnPolygonListener(new ISvgReader.OnPolygonListener() {
             @Override
             public void onPolygon(ISvgReader svg, List<Double> points, String attrId) {
-                final ShapePolygon shape = ShapePolygon.newFromSvg(points, readPaint(svg));
+                final ShapePolygon shape = ShapePolygon.newFromSvg(points, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnPolylineListener(new ISvgReader.OnPolylineListener() {
             @Override
             public void onPolyline(ISvgReader svg, List<Double> points, String attrId) {
-                final ShapePolyline shape = ShapePolyline.newFromSvg(points, readPaint(svg));
+                final ShapePolyline shape = ShapePolyline.newFromSvg(points, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnRectListener(new ISvgReader.OnRectListener() {
             @Override
             public void onRect(ISvgReader svg, double x, double y, double width, double height, String attrId) {
-                final ShapeRect shape = ShapeRect.newFromSvg(x, y, width, height, readPaint(svg));
+                final ShapeRect shape = ShapeRect.newFromSvg(x, y, width, height, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
         svg.setOnTextListener(new ISvgReader.OnTextListener() {
             @Override
             public void onText(ISvgReader svg, double x, double y, String str, String attrId) {
-                final ShapeText shape = ShapeText.newFromSvg(x, y, str, readPaint(svg));
+                final ShapeText shape = ShapeText.newFromSvg(x, y, str, readStyle(svg));
                 if (shape == null)
                     return;
 
                 shape.setAttrId(attrId);
-                shapeList.addLast(shape);
+                loaded.add(shape);
             }
         });
 
-        return svg.parse();
+        final boolean parsed = svg.parse();
+        if (loaded.isEmpty())
+            return parsed;
+
+        // 既存の図形の描画順、履歴はそのままとし、読み込んだ図形を最前面に追加した1回の操作として記録する
+        fix();
+        clearSelection();
+        for (int i = 0; i < loaded.size(); i++) {
+            final ShapeBase shape = loaded.get(i);
+            addShape(shape);
+            indexShape(shape);
+        }
+        record(new EditCommand.AddShapes(loaded.toArray(new ShapeBase[0])));
+        clearTiles();
+        return parsed;
     }
 
-    private Paint readPaint(ISvgReader svg) {
-        final Paint paint = new Paint();
-        paint.setStrokeWidth(svg.getStrokeWidth());
-        paint.setTextSize(svg.getFontSize());
+    private ShapeStyle readStyle(ISvgReader svg) {
+        // 塗りつぶしの指定が無い場合、Paintの初期値 (塗りつぶし、黒)とする
+        Paint.Style paintStyle = Paint.Style.FILL;
+        @ColorInt int color = Color.BLACK;
         final String fill = svg.getFill();
         if (fill.equals("none")) {
-            paint.setStyle(Paint.Style.STROKE);
-            paint.setColor(svg.getStrokeColor());
+            paintStyle = Paint.Style.STROKE;
+            color = svg.getStrokeColor();
         } else if (fill.startsWith("#")) {
-            paint.setStyle(Paint.Style.FILL);
-            paint.setColor(svg.getFillColor());
+            paintStyle = Paint.Style.FILL;
+            color = svg.getFillColor();
         }
-        return paint;
+        return styleTable.intern(new ShapeStyle(svg.getStrokeWidth(), svg.getFontSize(), color, paintStyle));
     }
 
     /**
-     * 内部データの保存
-     * @param stream 保存先
+     * 内部データの保存 (ShapeCodecの形式)
+     * @param out 保存先
      * @throws IOException 保存先への書き込み失敗
      */
-    public void saveInnerData(ObjectOutputStream stream) throws IOException {
-        stream.writeObject(shapeList);
-        stream.writeObject(undoList);
+    public void saveInnerData(@NonNull DataOutput out) throws IOException {
+        // 呼び出し中に図形は変更されないため、版を進めずに現在の並びを書き込む
+        new DocumentSnapshot(shapeList.snapshot(), getUndoneVector(), width, height, null).saveInnerData(out);
     }
 
     /**
      * 内部データの読込
+     * <div>
+     *     以前の形式 (Javaのシリアライズ)の場合も読み込む (次回の保存時にShapeCodecの形式になる)
+     * </div>
+     * @param stream 保存先
+     * @throws IOException 保存先からの読み込み失敗、形式が不正な場合
+     */
+    public void restoreInnerData(@NonNull InputStream stream) throws IOException {
+        // 全体をまとめて読み込み、ByteBufferから値を取り出す
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int length;
+        while ((length = stream.read(buffer)) != -1)
+            bytes.write(buffer, 0, length);
+        final byte[] data = bytes.toByteArray();
+        if (!ShapeCodec.isInnerData(data)) {
+            restoreSerializedInnerData(new LegacyShapeInputStream(new ByteArrayInputStream(data)));
+            return;
+        }
+        restoreCodecInnerData(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * 内部データの読込 (ShapeCodecの形式)
+     * @param in 保存先の内容
+     * @throws IOException 形式が不正な場合
+     */
+    private void restoreCodecInnerData(ByteBuffer in) throws IOException {
+        // 全て読み込めた場合のみ置き換える
+        final ShapeCodec.InnerData innerData = ShapeCodec.read(in, styleTable);
+        releaseGeometry(shapeList);
+        shapeList = innerData.shapes;
+        restoreUndoneStore(innerData.undoneShapes);
+        rebuildIndex();
+    }
+
+    /**
+     * 以前の形式 (Javaのシリアライズ)の内部データの読込
      * @param stream 保存先
-     * @throws IOException 保存先からの読み込み失敗
+     * @throws IOException 保存先からの読み込み失敗、以前の形式の図形でない場合
      */
-    @SuppressWarnings("unchecked")  // ジェネリック型(LinkedList<>)へのキャスト (回避不可)
-    public void restoreInnerData(ObjectInputStream stream) throws IOException {
+    private void restoreSerializedInnerData(LegacyShapeInputStream stream) throws IOException {
         try {
-            shapeList = (LinkedList<ShapeBase>) stream.readObject();
-            undoList = (LinkedList<ShapeBase>) stream.readObject();
+            // (以前の形式では図形、戻るした図形の順にLinkedListとして保存されている)
+            final ShapeStore newShapeList = stream.readShapes();
+            final ShapeStore newUndoList = stream.readShapes();
+            releaseGeometry(shapeList);
+            shapeList = newShapeList;
+            restoreUndoneStore(newUndoList);
         } catch (ClassNotFoundException e) {
             // キャスト失敗時、何もしない
             e.printStackTrace();
         }
+        rebuildIndex();
     }
 
     /**
@@ -545,12 +2016,12 @@ public final class ShapeManager {
             this.onCreatedListener = onCreatedListener;
         }
 
-        ShapeBase create(float x, float y, Paint paint) {
+        ShapeBase create(float x, float y, ShapeStyle style) {
             final ShapeBase shape;
             try {
                 // コンストラクタ呼び出し
-                final Constructor<? extends ShapeBase> c = clazz.getDeclaredConstructor(float.class, float.class, Paint.class);
-                shape = c.newInstance(x, y, paint);
+                final Constructor<? extends ShapeBase> c = clazz.getDeclaredConstructor(float.class, float.class, ShapeStyle.class);
+                shape = c.newInstance(x, y, style);
             } catch (NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
                 e.printStackTrace();
                 return null;
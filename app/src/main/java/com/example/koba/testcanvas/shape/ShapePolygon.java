@@ -3,61 +3,66 @@ package com.example.koba.testcanvas.shape;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.RectF;
 
-import java.util.ArrayList;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 class ShapePolygon extends ShapeBase {
     private float x;
     private float y;
-    private ArrayList<Float> pointList;
+    private PointBuffer pointList;  // 始点以降の点の座標
+    private transient Path path = null;  // pointListから作成した描画用のパス (変更時は差分のみ反映する)
+    private transient PathDetailLevels detailLevels = null;  // 縮小表示用の頂点を間引いたパス
+    private transient boolean pathClosed = false;  // pathを閉じている場合、真
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapePolygon(float x, float y, Paint paint) {
-        super(paint);
+    ShapePolygon(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
-        pointList = new ArrayList<>();
-        pointList.add(x);
-        pointList.add(y);
+        pointList = new PointBuffer();
+        pointList.add(x, y);
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x 同名メンバ変数
      * @param y 同名メンバ変数
      * @param pointList 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapePolygon(float x, float y, List<Float> pointList, Paint paint) {
-        super(new Paint(paint));
+    ShapePolygon(float x, float y, PointBuffer pointList, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
-        this.pointList = new ArrayList<>(pointList);
+        this.pointList = new PointBuffer(pointList);
     }
 
     /**
      * SVGの属性用
      * @param points 座標のリスト
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapePolygon newFromSvg(List<Double> points, Paint paint) {
-        if (paint == null)
+    static ShapePolygon newFromSvg(List<Double> points, ShapeStyle style) {
+        if (style == null)
             return null;
         // 線が描けないpointsの場合、何もしない
         final int pointsSize = points.size();
         if (pointsSize < 2 || pointsSize % 2 != 0)
             return null;
 
-        final ArrayList<Float> pointList = new ArrayList<>();
-        final float x = points.remove(0).floatValue();
-        final float y = points.remove(0).floatValue();
-        for (double p : points)
-            pointList.add((float)p);
-        return new ShapePolygon(x, y, pointList, paint);
+        final PointBuffer pointList = new PointBuffer();
+        final float x = points.get(0).floatValue();
+        final float y = points.get(1).floatValue();
+        for (int i = 2; i < pointsSize; i += 2)
+            pointList.add(points.get(i).floatValue(), points.get(i + 1).floatValue());
+        return new ShapePolygon(x, y, pointList, style);
     }
 
     @Override
@@ -72,52 +77,223 @@ class ShapePolygon extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
-        // cast List<Float> to List<Double>
-        final List<Double> dList = new ArrayList<>();
-        for(double point : pointList)
-            dList.add(point);
-        svg.addPolygon(x, y, dList);
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
+        svg.addPolygon(x, y, pointList.array(), pointList.size());
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     * @throws IOException 値が不正な場合
+     */
+    static ShapePolygon newFromData(ByteBuffer in, ShapeStyle style) throws IOException {
+        final float x = in.getFloat();
+        final float y = in.getFloat();
+        return new ShapePolygon(x, y, PointBuffer.readFrom(in), style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x);
+        out.writeFloat(y);
+        pointList.writeTo(out);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        bounds.set(x, y, x, y);
+        for (int i = 0; i < pointList.size(); i += 2)
+            bounds.union(pointList.get(i), pointList.get(i + 1));
+    }
+
+    @Override
+    float getStrokeOutset() {
+        // 角の部分は線の太さの半分よりはみ出す
+        final Paint paint = getPaint();
+        return paint.getStrokeWidth() / 2 * Math.max(1, paint.getStrokeMiter()) + 1;
+    }
+
+    /**
+     * 描画用のパスを返す 無い場合は作成する
+     * @return 閉じたパス
+     */
+    private Path getPath() {
+        if (path == null) {
+            path = new Path();
+            path.incReserve(pointList.size() / 2 + 1);
+            path.moveTo(x, y);
+            for(int i = 0; i < pointList.size(); i += 2)
+                path.lineTo(pointList.get(i), pointList.get(i + 1));
+            pathClosed = false;
+        }
+        if (!pathClosed) {
+            path.close();
+            pathClosed = true;
+        }
+        return path;
+    }
+
+    /**
+     * 拡大率に応じて頂点を間引いたパスを返す
+     * @param scale 描画時の拡大率
+     * @return パス
+     */
+    private Path getPath(float scale) {
+        final int level = PathDetailLevels.getLevel(scale);
+        if (level == 0)
+            return getPath();
+
+        if (detailLevels == null)
+            detailLevels = new PathDetailLevels();
+        final Path detailPath = detailLevels.get(level);
+        if (detailPath != null)
+            return detailPath;
+        if (!detailLevels.hasPoints()) {
+            final float[] points = new float[pointList.size() + 2];
+            points[0] = x;
+            points[1] = y;
+            pointList.copyTo(points, 2);
+            detailLevels.setPoints(points);
+        }
+        return detailLevels.build(level, true);
+    }
+
+    /**
+     * 頂点の変更時に間引いたパスを破棄する
+     */
+    private void invalidateDetailLevels() {
+        if (detailLevels != null)
+            detailLevels.invalidate();
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        float min = Float.MAX_VALUE;
+        float prevX = this.x;
+        float prevY = this.y;
+        for (int i = 0; i < pointList.size(); i += 2) {
+            final float px = pointList.get(i);
+            final float py = pointList.get(i + 1);
+            min = Math.min(min, segmentDistance(x, y, prevX, prevY, px, py));
+            prevX = px;
+            prevY = py;
+        }
+        // 閉じる辺
+        min = Math.min(min, segmentDistance(x, y, prevX, prevY, this.x, this.y));
+        return min;
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        return area.containsPolyline(x, y, pointList, true);
+    }
+
     @Override
     void draw(Canvas canvas) {
-        final Path path = new Path();
-        path.moveTo(x, y);
-        for(int i = 0; i < pointList.size(); i += 2)
-            path.lineTo(pointList.get(i), pointList.get(i + 1));
-        path.close();
-        canvas.drawPath(path, getPaint());
+        canvas.drawPath(getPath(), getPaint());
+    }
+
+    @Override
+    void prepareDraw() {
+        getPaint();
+        getPath();
+    }
+
+    @Override
+    void prepareDrawScaled(float scale) {
+        getPaint();
+        getPath(scale);
+    }
+
+    @Override
+    void drawScaled(Canvas canvas, float scale) {
+        canvas.drawPath(getPath(scale), getPaint());
+    }
+
+    @Override
+    boolean addTo(ShapeBatch batch, float scale) {
+        batch.addPath(getPath(scale));
+        return true;
     }
 
     @Override
     void setPoint(float x, float y) {
-        final int lastIndex = pointList.size() - 1;
-        pointList.set(lastIndex - 1, x);
-        pointList.set(lastIndex, y);
+        pointList.setLast(x, y);
+        invalidateDetailLevels();
+        // closeは点を追加しないため、閉じた後でも末端の点を変更できる
+        if (path != null)
+            path.setLastPoint(x, y);
     }
 
     @Override
     void addPoint(float x, float y) {
-        pointList.add(x);
-        pointList.add(y);
+        pointList.add(x, y);
+        invalidateDetailLevels();
+        if (path == null)
+            return;
+        if (pathClosed)
+            path = null;  // 閉じた後は点を追加できないため、次回の描画時に作り直す
+        else
+            path.lineTo(x, y);
+    }
+
+    @Override
+    boolean removeLastPoint(float[] point) {
+        if (pointList.size() <= 2)
+            return false;  // 始点以外の点が無い
+        pointList.removeLast(point);
+        invalidateDetailLevels();
+        path = null;  // 次回の描画時に作り直す
+        return true;
+    }
+
+    @Override
+    int estimateByteSize() {
+        return 64 + pointList.size() * 4;
     }
 
     @Override
     void transferRelative(float dx, float dy) {
         x += dx;
         y += dy;
-        for (int i = 0; i < pointList.size(); i += 2)
-        {
-            pointList.set(i, pointList.get(i) + dx);
-            pointList.set(i + 1, pointList.get(i + 1) + dy);
-        }
+        if (path != null)
+            path.offset(dx, dy);
+        if (detailLevels != null)
+            detailLevels.offset(dx, dy);
+        pointList.offset(dx, dy);
+    }
+
+    @Override
+    void moveGeometryTo(GeometryArena arena) {
+        pointList.moveTo(arena);
+        invalidateDetailLevels();  // 間引く前の頂点の複製 (Javaヒープ)も破棄する
+    }
+
+    @Override
+    void releaseGeometry() {
+        pointList.release();
+    }
+
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapePolygon polygon = (ShapePolygon)dst;
+        polygon.x = x;
+        polygon.y = y;
+        polygon.pointList.set(pointList);
+        polygon.invalidateDetailLevels();
+        // パスは作り直さずに写す (この図形のパスは変更時に差分のみ反映している)
+        if (polygon.path == null)
+            polygon.path = new Path();
+        polygon.path.set(getPath());
+        polygon.pathClosed = true;
     }
 
     @Override
     ShapeBase copyShape() {
-        return new ShapePolygon(x, y, pointList, getPaint());
+        return new ShapePolygon(x, y, pointList, getStyle());
     }
 }
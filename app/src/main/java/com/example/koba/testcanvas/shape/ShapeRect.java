@@ -1,7 +1,11 @@
 package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
-import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ShapeRect extends ShapeBase {
     private float x1;
@@ -10,8 +14,8 @@ class ShapeRect extends ShapeBase {
     private float y2;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeRect(float x, float y, Paint paint) {
-        super(paint);
+    ShapeRect(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.x1 = x;
         this.y1 = y;
@@ -20,15 +24,15 @@ class ShapeRect extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x1 同名メンバ変数
      * @param y1 同名メンバ変数
      * @param x2 同名メンバ変数
      * @param y2 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeRect(float x1, float y1, float x2, float y2, Paint paint) {
-        super(new Paint(paint));
+    ShapeRect(float x1, float y1, float x2, float y2, ShapeStyle style) {
+        super(style);
 
         this.x1 = x1;
         this.y1 = y1;
@@ -42,11 +46,11 @@ class ShapeRect extends ShapeBase {
      * @param y 右上のy座標
      * @param width 幅
      * @param height 高さ
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapeRect newFromSvg(double x, double y, double width, double height, Paint paint) {
-        if (paint == null)
+    static ShapeRect newFromSvg(double x, double y, double width, double height, ShapeStyle style) {
+        if (style == null)
             return null;
 
         final float x1 = (float)x;
@@ -54,7 +58,7 @@ class ShapeRect extends ShapeBase {
         final float x2 = (float)(x + width);
         final float y2 = (float)(y + height);
 
-        return new ShapeRect(x1, y1, x2, y2, paint);
+        return new ShapeRect(x1, y1, x2, y2, style);
     }
 
     @Override
@@ -69,8 +73,8 @@ class ShapeRect extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setStrokeWidth(getPaint().getStrokeWidth());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setStrokeWidth(getStyle().getStrokeWidth());
         final double x = Math.min(x1, x2);
         final double y = Math.min(y1, y2);
         final double width = Math.abs(x2 - x1);
@@ -79,11 +83,69 @@ class ShapeRect extends ShapeBase {
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     */
+    static ShapeRect newFromData(ByteBuffer in, ShapeStyle style) {
+        final float x1 = in.getFloat();
+        final float y1 = in.getFloat();
+        final float x2 = in.getFloat();
+        final float y2 = in.getFloat();
+        return new ShapeRect(x1, y1, x2, y2, style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x1);
+        out.writeFloat(y1);
+        out.writeFloat(x2);
+        out.writeFloat(y2);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        bounds.set(x1, y1, x2, y2);
+    }
+
+    @Override
+    float distanceTo(float x, float y) {
+        // 4辺のうち最も近い辺までの距離
+        final float top = segmentDistance(x, y, x1, y1, x2, y1);
+        final float bottom = segmentDistance(x, y, x1, y2, x2, y2);
+        final float left = segmentDistance(x, y, x1, y1, x1, y2);
+        final float right = segmentDistance(x, y, x2, y1, x2, y2);
+        return Math.min(Math.min(top, bottom), Math.min(left, right));
+    }
+
+    @Override
+    boolean isInside(SelectionArea area) {
+        return area.containsSegment(x1, y1, x2, y1) && area.containsSegment(x2, y1, x2, y2)
+                && area.containsSegment(x2, y2, x1, y2) && area.containsSegment(x1, y2, x1, y1);
+    }
+
     @Override
     void draw(Canvas canvas) {
         canvas.drawRect(x1, y1, x2, y2, getPaint());
     }
 
+    @Override
+    void prepareDrawScaled(float scale) {
+        // まとめて描画する場合、記録した描画内容は使わない
+        if (ShapeBatch.isBatchable(getStyle()))
+            getPaint();
+        else
+            super.prepareDrawScaled(scale);
+    }
+
+    @Override
+    boolean addTo(ShapeBatch batch, float scale) {
+        batch.addRect(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+        return true;
+    }
+
     @Override
     void setPoint(float x, float y) {
         this.x2 = x;
@@ -98,8 +160,17 @@ class ShapeRect extends ShapeBase {
         y2 += dy;
     }
 
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapeRect rect = (ShapeRect)dst;
+        rect.x1 = x1;
+        rect.y1 = y1;
+        rect.x2 = x2;
+        rect.y2 = y2;
+    }
+
     @Override
     ShapeBase copyShape() {
-        return new ShapeRect(x1, y1, x2, y2, getPaint());
+        return new ShapeRect(x1, y1, x2, y2, getStyle());
     }
 }
@@ -0,0 +1,156 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ある時点の描画内容 (ShapeManager.createSnapshot()で内容を設定する)
+ * <div>
+ *     設定後は変更されないため、UIスレッド以外から描画できる <br>
+ *     描画ごとにメモリを確保しないように、描画し終わった描画内容は再利用する (内容は設定時に全て置き換える) <br>
+ *     図形は参照のみ保持する。作成時に文書の版を進めるため、以降に変更する図形はShapeManagerが複製して置き換え、
+ *     保持している図形は変更されない (DocumentSnapshotと同じ仕組み) <br>
+ *     ただし、操作の対象の図形は描画中に毎回変更されるため、参照ではなく再利用する複製に写す
+ *     (変更のたびに置き換えると、長い折れ線等で描画ごとに頂点やパスを複製することになる) <br>
+ *     描画用のキャッシュは作成時にUIスレッドで作成し (prepareDraw())、描画時は図形を読み取るのみとする
+ * </div>
+ */
+public final class ShapeSnapshot {
+    /** 図形の座標から画面の座標への変換 */
+    final Matrix viewMatrix = new Matrix();
+    /** 拡大率 */
+    float scale = 1;
+    /** 表示範囲 (図形の座標) */
+    final RectF visibleRect = new RectF();
+    /** 表示範囲が分かる場合、真 */
+    boolean visibleRectKnown = false;
+    /** 表示範囲内の操作の対象より奥の図形 (描画順) */
+    final ArrayList<ShapeBase> committedShapes = new ArrayList<>();
+    /** 操作の対象の図形の複製 (無い、または表示範囲外の場合、null) */
+    ShapeBase activeShape = null;
+    /** 操作の対象の図形の複製先 (再利用する) */
+    private ShapeBase activeCopy = null;
+    /** 表示範囲内の操作の対象より手前の図形 (描画順 最新の図形が操作の対象の場合、空) */
+    final ArrayList<ShapeBase> aboveShapes = new ArrayList<>();
+    /** 表示範囲内の複数選択中の図形 (描画順 最前面に描画する 選択していない場合、空) */
+    final ArrayList<ShapeBase> selectedShapes = new ArrayList<>();
+    /** 複数選択の範囲の輪郭 */
+    final Path selectionArea = new Path();
+    /** 複数選択の範囲を指定中の場合、真 */
+    boolean selecting = false;
+    /** 表示範囲内の戻るした図形 (表示しない場合、空) */
+    final ArrayList<ShapeBase> undoShapes = new ArrayList<>();
+    /** 操作の対象の図形を強調する場合、真 */
+    boolean highlight = false;
+    /** 予測したタッチ位置への仮の線 (始点x, 始点y, 終点x, 終点y) */
+    final float[] prediction = new float[4];
+    /** 予測したタッチ位置への仮の線を表示する場合、真 */
+    boolean predicting = false;
+
+    public ShapeSnapshot() {
+    }
+
+    /**
+     * 図形の参照を破棄する (再利用時に内容を設定し直す前に呼び出す)
+     */
+    void clear() {
+        committedShapes.clear();
+        activeShape = null;
+        aboveShapes.clear();
+        selectedShapes.clear();
+        undoShapes.clear();
+        selecting = false;
+        predicting = false;
+    }
+
+    /**
+     * 操作の対象の図形を設定する
+     * @param shape 図形 (以降も変更されるため、複製に写す)
+     */
+    void setActiveShape(ShapeBase shape) {
+        activeCopy = shape.copyForDraw(activeCopy);
+        activeShape = activeCopy;
+    }
+
+    /**
+     * 含まれる図形の描画用のキャッシュを作成する (UIスレッドから、他のスレッドに渡す前に呼び出す)
+     */
+    void prepareDraw() {
+        prepareDrawScaled(undoShapes);
+        prepareDrawScaled(committedShapes);
+        prepareDrawScaled(aboveShapes);
+        prepareDrawScaled(selectedShapes);
+        if (activeShape != null)
+            activeShape.prepareDraw();
+    }
+
+    private void prepareDrawScaled(List<ShapeBase> shapes) {
+        for (int i = 0; i < shapes.size(); i++)
+            shapes.get(i).prepareDrawScaled(scale);
+    }
+
+    /**
+     * 描画内容を描画する (スレッドごとに1つ使う)
+     */
+    public static final class Renderer {
+        private final ShapeBatch shapeBatch = new ShapeBatch();
+        private final Paint highlightLayerPaint = ShapeManager.createTintPaint(ShapeManager.HIGHLIGHT_COLOR);
+        private final Paint noHighlightLayerPaint = ShapeManager.createTintPaint(ShapeManager.NO_HIGHLIGHT_COLOR);
+        private final Paint undoLayerPaint = ShapeManager.createTintPaint(ShapeManager.UNDO_COLOR);
+        private final Paint selectionAreaPaint = ShapeManager.createSelectionAreaPaint();
+
+        /**
+         * 描画する
+         * @param canvas 描画先 (画面の座標)
+         * @param snapshot 描画内容
+         */
+        public void draw(Canvas canvas, ShapeSnapshot snapshot) {
+            canvas.save();
+            canvas.concat(snapshot.viewMatrix);
+
+            final RectF layerBounds = snapshot.visibleRectKnown ? snapshot.visibleRect : null;
+            if (!snapshot.undoShapes.isEmpty()) {
+                canvas.saveLayer(layerBounds, undoLayerPaint);
+                shapeBatch.draw(canvas, snapshot.undoShapes, snapshot.scale);
+                canvas.restore();
+            }
+
+            final ShapeBase active = snapshot.activeShape;
+            if (snapshot.highlight) {
+                // 強調する場合、操作の対象を最前面に表示する
+                canvas.saveLayer(layerBounds, noHighlightLayerPaint);
+                shapeBatch.draw(canvas, snapshot.committedShapes, snapshot.scale);
+                shapeBatch.draw(canvas, snapshot.aboveShapes, snapshot.scale);
+                canvas.restore();
+                if (active != null || !snapshot.selectedShapes.isEmpty()) {
+                    canvas.saveLayer(layerBounds, highlightLayerPaint);
+                    if (active != null)
+                        active.drawWithOffset(canvas);
+                    shapeBatch.draw(canvas, snapshot.selectedShapes, snapshot.scale);
+                    canvas.restore();
+                }
+            } else {
+                shapeBatch.draw(canvas, snapshot.committedShapes, snapshot.scale);
+                if (active != null)
+                    active.drawWithOffset(canvas);
+                shapeBatch.draw(canvas, snapshot.aboveShapes, snapshot.scale);
+                shapeBatch.draw(canvas, snapshot.selectedShapes, snapshot.scale);
+            }
+            if (snapshot.selecting)
+                canvas.drawPath(snapshot.selectionArea, selectionAreaPaint);
+
+            if (active != null && snapshot.predicting) {
+                final float[] p = snapshot.prediction;
+                canvas.drawLine(p[0], p[1], p[2], p[3], active.getPaint());
+            }
+
+            canvas.restore();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.koba.testcanvas.shape;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 図形を順に格納する (ShapeManagerの図形、戻るした図形用)
+ * <div>
+ *     図形は永続ベクター (ShapeVector)で保持するため、末尾への追加と末尾からの削除は償却O(1)、
+ *     添字での参照はO(log n)で行え、snapshot()で現在の並びをO(1)で取り出せる <br>
+ *     格納した図形には番号 (ハンドル)を割り当てる。ハンドルは並べ替えても変わらず、
+ *     削除した図形のハンドルは再利用しない <br>
+ *     描画時は添字で走査すること (拡張for文はIteratorを生成する)
+ * </div>
+ */
+final class ShapeStore implements Iterable<ShapeBase>, Serializable {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** 格納している図形 保存時は図形のみ書き込む */
+    private transient ShapeVector.Builder shapes = new ShapeVector.Builder();
+    /** 格納している図形のハンドル (添字はshapesと同じ) */
+    private transient int[] handles = new int[DEFAULT_CAPACITY];
+    /** ハンドルごとの図形の位置 (削除済みの場合、-1) */
+    private transient int[] indexOfHandle = new int[DEFAULT_CAPACITY];
+    /** 次に割り当てるハンドル */
+    private transient int nextHandle = 0;
+    /** 格納している図形の数 */
+    private transient int size = 0;
+
+    /**
+     * 保存した図形を読み込む
+     * <div>
+     *     以前の形式 (LinkedList、ArrayList)で保存されている場合、変換する
+     * </div>
+     * @param serialized 読み込んだオブジェクト
+     * @return 図形
+     * @throws ClassCastException 図形のリストではない場合
+     */
+    @SuppressWarnings("unchecked")  // ジェネリック型(List<>)へのキャスト (回避不可)
+    static ShapeStore fromSerialized(Object serialized) {
+        if (serialized instanceof ShapeStore)
+            return (ShapeStore)serialized;
+        final ShapeStore store = new ShapeStore();
+        for (ShapeBase shape : (List<ShapeBase>)serialized)
+            store.add(shape);
+        return store;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 図形を返す
+     * @param index 位置
+     * @return 図形
+     */
+    ShapeBase get(int index) {
+        checkIndex(index);
+        return shapes.get(index);
+    }
+
+    /**
+     * 最後の図形を返す
+     * @return 図形
+     * @throws NoSuchElementException 図形が無い場合
+     */
+    ShapeBase getLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return shapes.get(size - 1);
+    }
+
+    /**
+     * 図形のハンドルを返す
+     * @param index 位置
+     * @return ハンドル
+     */
+    int handleAt(int index) {
+        checkIndex(index);
+        return handles[index];
+    }
+
+    /**
+     * ハンドルから図形の位置を返す
+     * @param handle ハンドル
+     * @return 位置 (削除済みの場合、-1)
+     */
+    int indexOf(int handle) {
+        if (handle < 0 || handle >= nextHandle)
+            return -1;
+        return indexOfHandle[handle];
+    }
+
+    /**
+     * ハンドルから図形を返す
+     * @param handle ハンドル
+     * @return 図形 (削除済みの場合、null)
+     */
+    ShapeBase getByHandle(int handle) {
+        final int index = indexOf(handle);
+        return (index < 0) ? null : shapes.get(index);
+    }
+
+    /**
+     * 図形を末尾に追加する
+     * @param shape 図形
+     * @return 割り当てたハンドル
+     */
+    int add(ShapeBase shape) {
+        if (size == handles.length)
+            handles = Arrays.copyOf(handles, size * 2);
+        if (nextHandle == indexOfHandle.length)
+            indexOfHandle = Arrays.copyOf(indexOfHandle, nextHandle * 2);
+
+        final int handle = nextHandle++;
+        shapes.add(shape);
+        handles[size] = handle;
+        indexOfHandle[handle] = size;
+        size++;
+        return handle;
+    }
+
+    /**
+     * 最後の図形を削除する
+     * @return 削除した図形
+     * @throws NoSuchElementException 図形が無い場合
+     */
+    ShapeBase removeLast() {
+        final ShapeBase shape = getLast();
+        size--;
+        indexOfHandle[handles[size]] = -1;
+        shapes.removeLast();
+        return shape;
+    }
+
+    /**
+     * 指定の位置の図形を置き換える (ハンドルは変わらない)
+     * @param index 位置
+     * @param shape 図形
+     */
+    void set(int index, ShapeBase shape) {
+        checkIndex(index);
+        shapes.set(index, shape);
+    }
+
+    /**
+     * 現在の図形の並びを取り出す O(1)
+     * <div>
+     *     取り出した並びは以降の追加、削除の影響を受けない (構造を共有し、変更時に変更する部分のみ複製する)
+     * </div>
+     * @return 変更されない図形の並び
+     */
+    ShapeVector snapshot() {
+        return shapes.snapshot();
+    }
+
+    /**
+     * 図形を削除する (以降の図形は前に詰める)
+     * @param index 位置
+     * @return 削除した図形
+     */
+    ShapeBase remove(int index) {
+        checkIndex(index);
+        final ShapeBase[] array = toArray(size);
+        final ShapeBase shape = array[index];
+        indexOfHandle[handles[index]] = -1;
+        System.arraycopy(array, index + 1, array, index, size - index - 1);
+        System.arraycopy(handles, index + 1, handles, index, size - index - 1);
+        size--;
+        rebuild(array);
+        updateIndexes(index, size);
+        return shape;
+    }
+
+    /**
+     * 複数選択中の図形を全て削除する (以降の図形は前に詰める)
+     * <div>
+     *     1回の走査でまとめて詰めるため、削除する数によらずO(n)で行える
+     * </div>
+     * @return 削除した数
+     */
+    int removeSelected() {
+        final ShapeBase[] array = toArray(size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (array[i].isSelected()) {
+                indexOfHandle[handles[i]] = -1;
+                continue;
+            }
+            array[n] = array[i];
+            handles[n] = handles[i];
+            n++;
+        }
+        final int removed = size - n;
+        size = n;
+        rebuild(array);
+        updateIndexes(0, size);
+        return removed;
+    }
+
+    /**
+     * 描画順に並んだ図形を、描画順を保つ位置にまとめて挿入する (削除した図形を戻す場合に使う)
+     * <div>
+     *     1回の走査でまとめて挿入するため、挿入する数によらずO(n)で行える <br>
+     *     挿入した図形には新しいハンドルを割り当てる
+     * </div>
+     * @param inserted 挿入する図形 (描画順)
+     */
+    void insertByZOrder(ShapeBase[] inserted) {
+        final int newSize = size + inserted.length;
+        if (newSize > handles.length)
+            handles = Arrays.copyOf(handles, Math.max(newSize, handles.length * 2));
+        final ShapeBase[] array = toArray(newSize);
+        // 後ろから詰めて配置する
+        int src = size - 1;
+        int dst = newSize - 1;
+        for (int i = inserted.length - 1; i >= 0; i--) {
+            final ShapeBase shape = inserted[i];
+            while (src >= 0 && array[src].getZOrder() > shape.getZOrder()) {
+                array[dst] = array[src];
+                handles[dst] = handles[src];
+                src--;
+                dst--;
+            }
+            if (nextHandle == indexOfHandle.length)
+                indexOfHandle = Arrays.copyOf(indexOfHandle, nextHandle * 2);
+            array[dst] = shape;
+            handles[dst] = nextHandle++;
+            dst--;
+        }
+        size = newSize;
+        rebuild(array);
+        updateIndexes(0, size);
+    }
+
+    /**
+     * 図形の位置を変更する (ハンドルは変わらない)
+     * @param from 変更前の位置
+     * @param to 変更後の位置
+     */
+    void move(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        if (from == to)
+            return;
+        final ShapeBase[] array = toArray(size);
+        final ShapeBase shape = array[from];
+        final int handle = handles[from];
+        if (from < to) {
+            System.arraycopy(array, from + 1, array, from, to - from);
+            System.arraycopy(handles, from + 1, handles, from, to - from);
+        } else {
+            System.arraycopy(array, to, array, to + 1, from - to);
+            System.arraycopy(handles, to, handles, to + 1, from - to);
+        }
+        array[to] = shape;
+        handles[to] = handle;
+        rebuild(array);
+        updateIndexes(Math.min(from, to), Math.max(from, to) + 1);
+    }
+
+    /**
+     * 全ての図形を削除する
+     */
+    void clear() {
+        for (int i = 0; i < size; i++)
+            indexOfHandle[handles[i]] = -1;
+        shapes.clear();
+        size = 0;
+    }
+
+    /**
+     * 図形を配列に書き出す (途中への挿入、途中からの削除用)
+     * @param length 配列の長さ (size以上)
+     * @return 図形 (size以降は未使用)
+     */
+    private ShapeBase[] toArray(int length) {
+        final ShapeBase[] array = new ShapeBase[length];
+        for (int i = 0; i < size; i++)
+            array[i] = shapes.get(i);
+        return array;
+    }
+
+    /**
+     * 配列の先頭size個の図形で並びを作り直す
+     * @param array 図形
+     */
+    private void rebuild(ShapeBase[] array) {
+        shapes.clear();
+        for (int i = 0; i < size; i++)
+            shapes.add(array[i]);
+    }
+
+    /**
+     * 指定の範囲の図形の位置をハンドルごとの位置に反映する
+     * @param from 範囲の開始位置
+     * @param to 範囲の終了位置 (この位置は含まない)
+     */
+    private void updateIndexes(int from, int to) {
+        for (int i = from; i < to; i++)
+            indexOfHandle[handles[i]] = i;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+    }
+
+    @Override
+    public Iterator<ShapeBase> iterator() {
+        return new Iterator<ShapeBase>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public ShapeBase next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+                return shapes.get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        stream.writeInt(size);
+        for (int i = 0; i < size; i++)
+            stream.writeObject(shapes.get(i));
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        final int count = stream.readInt();
+        final int capacity = Math.max(count, DEFAULT_CAPACITY);
+        shapes = new ShapeVector.Builder();
+        handles = new int[capacity];
+        indexOfHandle = new int[capacity];
+        // ハンドルは読み込み時に割り当て直す
+        for (int i = 0; i < count; i++)
+            add((ShapeBase)stream.readObject());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+import android.support.annotation.ColorInt;
+
+import java.io.Serializable;
+
+/**
+ * 図形の見た目 (線の太さ、文字の大きさ、色、塗りつぶし)
+ * <div>
+ *     同じ見た目の図形は同じインスタンスを共有する (ShapeStyleTableで管理する) <br>
+ *     共有表のキーとなるため、値は変更できない
+ *     (図形の色を変える場合、ShapeStyleTable.withColor()で別の見た目に置き換える)
+ * </div>
+ */
+final class ShapeStyle implements Serializable {
+    private final float strokeWidth;
+    private final float textSize;
+    @ColorInt private final int color;
+    private final Paint.Style style;
+    private transient Paint paint = null;  // 描画用 (必要になった時点で作成する)
+
+    ShapeStyle(float strokeWidth, float textSize, @ColorInt int color, Paint.Style style) {
+        this.strokeWidth = strokeWidth;
+        this.textSize = textSize;
+        this.color = color;
+        this.style = style;
+    }
+
+    float getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    float getTextSize() {
+        return textSize;
+    }
+
+    @ColorInt
+    int getColor() {
+        return color;
+    }
+
+    Paint.Style getStyle() {
+        return style;
+    }
+
+    /**
+     * 描画用のPaintを返す
+     * <div>
+     *     同じ見た目の図形全てで共有するため、変更しないこと
+     * </div>
+     * @return 描画用のPaint
+     */
+    Paint getPaint() {
+        if (paint == null) {
+            paint = new Paint();
+            paint.setStrokeWidth(strokeWidth);
+            paint.setTextSize(textSize);
+            paint.setColor(color);
+            paint.setStyle(style);
+        }
+        return paint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ShapeStyle))
+            return false;
+        final ShapeStyle other = (ShapeStyle) obj;
+        return Float.compare(strokeWidth, other.strokeWidth) == 0
+                && Float.compare(textSize, other.textSize) == 0
+                && color == other.color
+                && style == other.style;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Float.floatToIntBits(strokeWidth);
+        hash = hash * 31 + Float.floatToIntBits(textSize);
+        hash = hash * 31 + color;
+        hash = hash * 31 + (style != null ? style.hashCode() : 0);
+        return hash;
+    }
+}
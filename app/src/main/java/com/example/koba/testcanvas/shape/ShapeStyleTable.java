@@ -0,0 +1,44 @@
+package com.example.koba.testcanvas.shape;
+
+import android.support.annotation.ColorInt;
+
+import java.util.HashMap;
+
+/**
+ * 図形の見た目の共有表
+ * <div>
+ *     同じ値の見た目を1つのインスタンスにまとめ、図形間で共有する <br>
+ *     (描画用のPaintも見た目ごとに1つのみとなる)
+ * </div>
+ */
+final class ShapeStyleTable {
+    private final HashMap<ShapeStyle, ShapeStyle> styleMap = new HashMap<>();
+
+    /**
+     * 同じ値の共有の見た目を返す 無い場合は登録する
+     * @param style 見た目
+     * @return 共有の見た目
+     */
+    ShapeStyle intern(ShapeStyle style) {
+        final ShapeStyle shared = styleMap.get(style);
+        if (shared != null)
+            return shared;
+        styleMap.put(style, style);
+        return style;
+    }
+
+    /**
+     * 色のみ異なる共有の見た目を返す (選択した図形の色の変更用)
+     * <div>
+     *     元の見た目は変更しないため、同じ見た目を使っている他の図形には影響しない
+     * </div>
+     * @param style 元の見た目
+     * @param color 色
+     * @return 共有の見た目
+     */
+    ShapeStyle withColor(ShapeStyle style, @ColorInt int color) {
+        if (style.getColor() == color)
+            return intern(style);
+        return intern(new ShapeStyle(style.getStrokeWidth(), style.getTextSize(), color, style.getStyle()));
+    }
+}
@@ -2,6 +2,11 @@ package com.example.koba.testcanvas.shape;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 // フォントを指定していないため、アプリ上の表示とSVGでの表示が異なる
 class ShapeText extends ShapeBase {
@@ -10,8 +15,8 @@ class ShapeText extends ShapeBase {
     private String str;
 
     @SuppressWarnings("unused")  // ShapeManagerでリフレクションによってのみ呼び出される
-    ShapeText(float x, float y, Paint paint) {
-        super(paint);
+    ShapeText(float x, float y, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
@@ -19,14 +24,14 @@ class ShapeText extends ShapeBase {
     }
 
     /**
-     * 複製用 （privateメンバの指定）
+     * 複製用、以前の形式の読み込み用 （privateメンバの指定）
      * @param x 同名メンバ変数
      * @param y 同名メンバ変数
      * @param str 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      */
-    private ShapeText(float x, float y, String str, Paint paint) {
-        super(paint);
+    ShapeText(float x, float y, String str, ShapeStyle style) {
+        super(style);
 
         this.x = x;
         this.y = y;
@@ -38,14 +43,14 @@ class ShapeText extends ShapeBase {
      * @param x 同名メンバ変数
      * @param y 同名メンバ変数
      * @param str 同名メンバ変数
-     * @param paint 同名メンバ変数
+     * @param style 同名メンバ変数
      * @return 新しいインスタンス
      */
-    static ShapeText newFromSvg(double x, double y, String str, Paint paint) {
-        if (paint == null)
+    static ShapeText newFromSvg(double x, double y, String str, ShapeStyle style) {
+        if (style == null)
             return null;
 
-        return new ShapeText((float)x, (float)y, str, paint);
+        return new ShapeText((float)x, (float)y, str, style);
     }
 
     @Override
@@ -60,12 +65,44 @@ class ShapeText extends ShapeBase {
 
     @Override
     void makeSvg(ISvgWriter svg) {
-        svg.setStrokeColor(getPaint().getColor());
-        svg.setFontSize(getPaint().getTextSize());
+        svg.setStrokeColor(getStyle().getColor());
+        svg.setFontSize(getStyle().getTextSize());
         svg.addText(x, y, str);
         svg.setAttrId(getAttrId());
     }
 
+    /**
+     * 内部データ形式用 (ShapeCodec)
+     * @param in 読み込み元 (writeData()で書き込んだ値の位置)
+     * @param style 見た目
+     * @return 新しいインスタンス
+     * @throws IOException 値が不正な場合
+     */
+    static ShapeText newFromData(ByteBuffer in, ShapeStyle style) throws IOException {
+        final float x = in.getFloat();
+        final float y = in.getFloat();
+        return new ShapeText(x, y, ShapeCodec.readString(in), style);
+    }
+
+    @Override
+    void writeData(DataOutput out) throws IOException {
+        out.writeFloat(x);
+        out.writeFloat(y);
+        ShapeCodec.writeString(out, str);
+    }
+
+    @Override
+    void getShapeBounds(RectF bounds) {
+        final Paint paint = getPaint();
+        bounds.set(x, y + paint.ascent(), x + paint.measureText(str), y + paint.descent());
+    }
+
+    @Override
+    float getStrokeOutset() {
+        // 塗りつぶしのため線の太さは関係しない
+        return 1;
+    }
+
     @Override
     void draw(Canvas canvas) {
         canvas.drawText(str, x, y, getPaint());
@@ -82,9 +119,17 @@ class ShapeText extends ShapeBase {
         this.y += dy;
     }
 
+    @Override
+    void copyGeometryTo(ShapeBase dst) {
+        final ShapeText text = (ShapeText)dst;
+        text.x = x;
+        text.y = y;
+        text.str = str;
+    }
+
     @Override
     ShapeBase copyShape() {
-        return new ShapeText(x, y, str, getPaint());
+        return new ShapeText(x, y, str, getStyle());
     }
 
     @Override
@@ -94,4 +139,14 @@ class ShapeText extends ShapeBase {
 
         str = (String)data;
     }
+
+    @Override
+    Object getData() {
+        return str;
+    }
+
+    @Override
+    int estimateByteSize() {
+        return 64 + str.length() * 2;
+    }
 }
@@ -0,0 +1,285 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.LongSparseArray;
+
+/**
+ * 確定済みの図形をタイル状に分割して描画しておくキャッシュ
+ * <div>
+ *     図形の座標を拡大率ごとに一定サイズ(画面上でTILE_SIZE四方)のタイルに分割し、
+ *     タイル単位でビットマップに描画しておく <br>
+ *     図形が変更された場合、invalidate()でその範囲のタイルのみ描画し直す <br>
+ *     タイルはメモリ使用量の上限を超えた時点で、最も長く使われていないものから破棄する <br>
+ *     描画時にメモリを確保しないように、タイルはキーをボックス化せずに保持し、
+ *     使用順はタイル自身の連結リストで管理する
+ * </div>
+ */
+final class ShapeTileCache {
+    /** タイルの一辺のピクセル数 */
+    private static final int TILE_SIZE = 256;
+    /** タイル1枚あたりのメモリ使用量 (ARGB_8888) */
+    static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    /** メモリ使用量の上限の初期値 */
+    private static final long DEFAULT_MEMORY_BUDGET = 32 * 1024 * 1024;
+
+    /** 描画済みのタイル */
+    private final LongSparseArray<Tile> tileMap = new LongSparseArray<>();
+    /** タイル数 */
+    private int tileCount = 0;
+    /** 最も長く使われていないタイル (使用順の連結リストの先頭) */
+    private Tile eldest = null;
+    /** 最も最近使われたタイル (使用順の連結リストの末尾) */
+    private Tile newest = null;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** 描画の度に増やす (現在の描画で使用中のタイルを破棄しないため) */
+    private int frame = 0;
+
+    private final Canvas tileCanvas = new Canvas();
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF tileRect = new RectF();
+
+    /**
+     * メモリ使用量の上限を設定する
+     * <div>
+     *     表示範囲のタイルが上限を超える場合、上限を超えて保持する
+     * </div>
+     * @param bytes 上限 (バイト数)
+     */
+    void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        trim(false);
+    }
+
+    /**
+     * 全てのタイルを破棄する
+     */
+    void clear() {
+        for (Tile tile = eldest; tile != null; tile = tile.next)
+            tile.bitmap.recycle();
+        tileMap.clear();
+        tileCount = 0;
+        eldest = null;
+        newest = null;
+    }
+
+    /**
+     * 指定の範囲を含むタイルを次回の描画時に描画し直す
+     * @param bounds 範囲 (図形の座標)
+     */
+    void invalidate(RectF bounds) {
+        for (Tile tile = eldest; tile != null; tile = tile.next) {
+            if (tile.valid && tile.intersects(bounds))
+                tile.valid = false;
+        }
+    }
+
+    /**
+     * 全てのタイルを次回の描画時に描画し直す
+     */
+    void invalidateAll() {
+        for (Tile tile = eldest; tile != null; tile = tile.next)
+            tile.valid = false;
+    }
+
+    /**
+     * 表示範囲のタイルを描画する (無効なタイルは描画し直す)
+     * @param canvas 描画先 (図形の座標に変換済みであること)
+     * @param visibleRect 表示範囲 (図形の座標)
+     * @param scale 拡大率
+     * @param renderer タイルの内容の描画処理
+     */
+    void draw(Canvas canvas, RectF visibleRect, float scale, Renderer renderer) {
+        frame++;
+
+        final int level = levelFor(scale);
+        final float tileWorldSize = TILE_SIZE / (float)Math.pow(2, level);
+
+        final int minX = (int)Math.floor(visibleRect.left / tileWorldSize);
+        final int minY = (int)Math.floor(visibleRect.top / tileWorldSize);
+        final int maxX = (int)Math.floor(visibleRect.right / tileWorldSize);
+        final int maxY = (int)Math.floor(visibleRect.bottom / tileWorldSize);
+        for (int ty = minY; ty <= maxY; ty++) {
+            for (int tx = minX; tx <= maxX; tx++) {
+                final Tile tile = getTile(level, tx, ty, tileWorldSize);
+                if (!tile.valid)
+                    render(tile, renderer);
+                tile.frame = frame;
+
+                tile.getRect(tileRect);
+                canvas.drawBitmap(tile.bitmap, null, tileRect, tilePaint);
+            }
+        }
+    }
+
+    /**
+     * 拡大率に対するタイルの拡大率を返す
+     * <div>
+     *     タイルは縮小してのみ表示するように (拡大してぼやけないように)、
+     *     拡大率以上で最も小さい2の累乗の拡大率で描画する
+     * </div>
+     * @param scale 拡大率
+     * @return タイルの拡大率 (2の累乗の指数)
+     */
+    static int levelFor(float scale) {
+        final int exponent = Math.getExponent(scale);  // log2(scale)の小数点以下切り捨て
+        return (scale == Math.scalb(1f, exponent)) ? exponent : exponent + 1;
+    }
+
+    /**
+     * タイルを取得する 無い場合は生成する
+     */
+    private Tile getTile(int level, int tx, int ty, float tileWorldSize) {
+        final long key = toKey(level, tx, ty);
+        Tile tile = tileMap.get(key);
+        if (tile != null) {
+            unlink(tile);
+            link(tile);  // 最も最近使われたタイルとする
+            return tile;
+        }
+
+        // 上限を超える場合、破棄するタイルのビットマップを再利用する
+        Bitmap bitmap = trim(true);
+        if (bitmap == null)
+            bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        tile = new Tile(key, bitmap, tx * tileWorldSize, ty * tileWorldSize, tileWorldSize);
+        tileMap.put(key, tile);
+        tileCount++;
+        link(tile);
+        return tile;
+    }
+
+    /**
+     * タイルを使用順の連結リストの末尾に追加する
+     */
+    private void link(Tile tile) {
+        tile.prev = newest;
+        tile.next = null;
+        if (newest != null)
+            newest.next = tile;
+        else
+            eldest = tile;
+        newest = tile;
+    }
+
+    /**
+     * タイルを使用順の連結リストから取り除く
+     */
+    private void unlink(Tile tile) {
+        if (tile.prev != null)
+            tile.prev.next = tile.next;
+        else
+            eldest = tile.next;
+        if (tile.next != null)
+            tile.next.prev = tile.prev;
+        else
+            newest = tile.prev;
+        tile.prev = null;
+        tile.next = null;
+    }
+
+    /**
+     * メモリ使用量が上限を超えないようにタイルを破棄する
+     * @param reserve これからタイルを1枚追加する場合、真
+     * @return 再利用可能なビットマップ (無い場合、null)
+     */
+    private Bitmap trim(boolean reserve) {
+        final long reserved = reserve ? TILE_BYTES : 0;
+        Bitmap reusable = null;
+        while (eldest != null && (tileCount * TILE_BYTES + reserved) > memoryBudget) {
+            final Tile tile = eldest;
+            if (tile.frame == frame)
+                break;  // 以降は現在の描画で使用中
+            unlink(tile);
+            tileMap.remove(tile.key);
+            tileCount--;
+            if (reusable == null && reserve)
+                reusable = tile.bitmap;
+            else
+                tile.bitmap.recycle();
+        }
+        return reusable;
+    }
+
+    /**
+     * タイルの内容を描画する
+     */
+    private void render(Tile tile, Renderer renderer) {
+        final float scale = TILE_SIZE / tile.size;
+        tile.bitmap.eraseColor(Color.TRANSPARENT);
+        tileCanvas.setBitmap(tile.bitmap);
+        tileCanvas.save();
+        tileCanvas.scale(scale, scale);
+        tileCanvas.translate(-tile.left, -tile.top);
+        renderer.render(tileCanvas, tile.left, tile.top, tile.left + tile.size, tile.top + tile.size, scale);
+        tileCanvas.restore();
+        tileCanvas.setBitmap(null);
+        tile.valid = true;
+    }
+
+    /**
+     * タイルの位置からキーを作る
+     * @param level 拡大率 (2の累乗の指数)
+     * @param tx タイルのx方向の位置
+     * @param ty タイルのy方向の位置
+     * @return キー
+     */
+    static long toKey(int level, int tx, int ty) {
+        return ((long)(level & 0xff) << 56) | ((long)(tx & 0xfffffff) << 28) | (ty & 0xfffffff);
+    }
+
+    /**
+     * タイル1枚分
+     */
+    private static final class Tile {
+        final long key;
+        final Bitmap bitmap;
+        /** 範囲 (図形の座標) */
+        final float left;
+        final float top;
+        final float size;
+        /** 描画済みの内容が有効な場合、真 */
+        boolean valid = false;
+        /** 最後に使用した描画 */
+        int frame = 0;
+        /** 使用順の連結リスト */
+        Tile prev = null;
+        Tile next = null;
+
+        Tile(long key, Bitmap bitmap, float left, float top, float size) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.left = left;
+            this.top = top;
+            this.size = size;
+        }
+
+        boolean intersects(RectF bounds) {
+            return left <= bounds.right && bounds.left <= left + size
+                    && top <= bounds.bottom && bounds.top <= top + size;
+        }
+
+        void getRect(RectF rect) {
+            rect.set(left, top, left + size, top + size);
+        }
+    }
+
+    /**
+     * タイルの内容の描画処理
+     */
+    interface Renderer {
+        /**
+         * 指定の範囲の図形を描画する
+         * @param canvas 描画先 (図形の座標に変換済み)
+         * @param left 範囲の左端
+         * @param top 範囲の上端
+         * @param right 範囲の右端
+         * @param bottom 範囲の下端
+         * @param scale 描画先の拡大率
+         */
+        void render(Canvas canvas, float left, float top, float right, float bottom, float scale);
+    }
+}
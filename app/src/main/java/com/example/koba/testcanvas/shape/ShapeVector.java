@@ -0,0 +1,296 @@
+package com.example.koba.testcanvas.shape;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 図形の永続ベクター (変更できない図形の並び)
+ * <div>
+ *     32分木の葉に図形を格納し、末尾の32個までは別の配列 (tail)に格納する <br>
+ *     Builderで変更し、snapshot()で現在の並びをO(1)で取り出す。
+ *     取り出した後の変更は、変更する節のみを複製する (O(log n) 取り出した並びとは構造を共有する) <br>
+ *     取り出した並びは変更されないため、他のスレッドから参照してもよい
+ * </div>
+ */
+final class ShapeVector {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /** 空の並び */
+    static final ShapeVector EMPTY = new ShapeVector(0, BITS, new Node(null), new ShapeBase[WIDTH]);
+
+    private final int size;
+    /** 根の高さ (葉の1つ上の節の場合、BITS) */
+    private final int shift;
+    private final Node root;
+    private final ShapeBase[] tail;
+
+    private ShapeVector(int size, int shift, Node root, ShapeBase[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 図形を返す O(log n)
+     * @param index 位置
+     * @return 図形
+     */
+    ShapeBase get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return get(root, shift, tail, size, index);
+    }
+
+    /**
+     * 32分木の節
+     * <div>
+     *     編集の識別子が現在の編集の識別子と同じ節のみ、複製せずに変更できる
+     * </div>
+     */
+    private static final class Node {
+        /** 作成した編集の識別子 (nullの場合、変更不可) */
+        final Object edit;
+        /** 子の節 (葉の場合、図形) */
+        final Object[] array;
+
+        Node(Object edit) {
+            this(edit, new Object[WIDTH]);
+        }
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    private static int tailOffset(int size) {
+        return (size < WIDTH) ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private static ShapeBase get(Node root, int shift, ShapeBase[] tail, int size, int index) {
+        if (index >= tailOffset(size))
+            return tail[index & MASK];
+        return (ShapeBase)leafFor(root, shift, index)[index & MASK];
+    }
+
+    /**
+     * 図形を格納している葉の配列を返す (tailに格納している位置は除く)
+     */
+    private static Object[] leafFor(Node root, int shift, int index) {
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Node)node.array[(index >>> level) & MASK];
+        return node.array;
+    }
+
+    /**
+     * 変更可能な図形の並び (UIスレッドからのみ使う)
+     */
+    static final class Builder {
+        private int size = 0;
+        private int shift = BITS;
+        private Node root;
+        private ShapeBase[] tail = new ShapeBase[WIDTH];
+        /** tailをsnapshot()で取り出した並びと共有している場合、真 (変更前に複製する) */
+        private boolean tailShared = false;
+        /** 現在の編集の識別子 (snapshot()ごとに変え、それ以前の節を変更不可にする) */
+        private Object edit = new Object();
+
+        Builder() {
+            root = new Node(edit);
+        }
+
+        int size() {
+            return size;
+        }
+
+        ShapeBase get(int index) {
+            return ShapeVector.get(root, shift, tail, size, index);
+        }
+
+        /**
+         * 現在の並びを取り出す O(1)
+         * @return 変更されない並び
+         */
+        ShapeVector snapshot() {
+            tailShared = true;
+            edit = new Object();
+            return new ShapeVector(size, shift, root, tail);
+        }
+
+        /**
+         * 図形を末尾に追加する (償却O(1))
+         * @param shape 図形
+         */
+        void add(ShapeBase shape) {
+            final int tailCount = size - tailOffset(size);
+            if (tailCount < WIDTH) {
+                ensureTail();
+                tail[tailCount] = shape;
+                size++;
+                return;
+            }
+            // tailを木に移す (共有している場合、変更不可の葉とする)
+            final Node tailNode = new Node(tailShared ? null : edit, tail);
+            if ((size >>> BITS) > (1 << shift)) {
+                // 根が一杯の場合、高さを増やす
+                final Node newRoot = new Node(edit);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(shift, root, tailNode);
+            }
+            tail = new ShapeBase[WIDTH];
+            tailShared = false;
+            tail[0] = shape;
+            size++;
+        }
+
+        /**
+         * 図形を変更する O(log n)
+         * @param index 位置
+         * @param shape 図形
+         */
+        void set(int index, ShapeBase shape) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+            if (index >= tailOffset(size)) {
+                ensureTail();
+                tail[index & MASK] = shape;
+                return;
+            }
+            root = set(shift, root, index, shape);
+        }
+
+        /**
+         * 最後の図形を削除する (償却O(1))
+         * @throws NoSuchElementException 図形が無い場合
+         */
+        void removeLast() {
+            if (size == 0)
+                throw new NoSuchElementException();
+            final int tailCount = size - tailOffset(size);
+            if (size == 1 || tailCount > 1) {
+                ensureTail();
+                tail[tailCount - 1] = null;
+                size--;
+                return;
+            }
+            // tailが空になるため、木の最後の葉をtailにする
+            tail = copyLeaf(leafFor(root, shift, size - 2));
+            tailShared = false;
+            Node newRoot = popTail(shift, root);
+            if (newRoot == null)
+                newRoot = new Node(edit);
+            if (shift > BITS && newRoot.array[1] == null) {
+                root = (Node)newRoot.array[0];
+                shift -= BITS;
+            } else {
+                root = newRoot;
+            }
+            size--;
+        }
+
+        /**
+         * 全ての図形を削除する
+         */
+        void clear() {
+            edit = new Object();
+            size = 0;
+            shift = BITS;
+            root = new Node(edit);
+            tail = new ShapeBase[WIDTH];
+            tailShared = false;
+        }
+
+        private void ensureTail() {
+            if (!tailShared)
+                return;
+            tail = tail.clone();
+            tailShared = false;
+        }
+
+        /**
+         * 変更できる節を返す (他の並びと共有している場合、複製する)
+         */
+        private Node editable(Node node) {
+            if (node.edit == edit)
+                return node;
+            return new Node(edit, node.array.clone());
+        }
+
+        private Node newPath(int level, Node node) {
+            if (level == 0)
+                return node;
+            final Node path = new Node(edit);
+            path.array[0] = newPath(level - BITS, node);
+            return path;
+        }
+
+        private Node pushTail(int level, Node parent, Node tailNode) {
+            final Node node = editable(parent);
+            final int subIndex = ((size - 1) >>> level) & MASK;
+            if (level == BITS) {
+                node.array[subIndex] = tailNode;
+            } else {
+                final Node child = (Node)node.array[subIndex];
+                node.array[subIndex] = (child != null)
+                        ? pushTail(level - BITS, child, tailNode) : newPath(level - BITS, tailNode);
+            }
+            return node;
+        }
+
+        private Node set(int level, Node parent, int index, ShapeBase shape) {
+            final Node node = editable(parent);
+            if (level == 0) {
+                node.array[index & MASK] = shape;
+            } else {
+                final int subIndex = (index >>> level) & MASK;
+                node.array[subIndex] = set(level - BITS, (Node)node.array[subIndex], index, shape);
+            }
+            return node;
+        }
+
+        /**
+         * 最後の葉を取り除く
+         * @return 変更後の節 (空になった場合、null)
+         */
+        private Node popTail(int level, Node parent) {
+            final int subIndex = ((size - 2) >>> level) & MASK;
+            if (level > BITS) {
+                final Node child = popTail(level - BITS, (Node)parent.array[subIndex]);
+                if (child == null && subIndex == 0)
+                    return null;
+                final Node node = editable(parent);
+                node.array[subIndex] = child;
+                return node;
+            }
+            if (subIndex == 0)
+                return null;
+            final Node node = editable(parent);
+            node.array[subIndex] = null;
+            return node;
+        }
+
+        /**
+         * 葉の配列をtail用に複製する (葉は他の並びと共有している場合があるため)
+         */
+        private static ShapeBase[] copyLeaf(Object[] leaf) {
+            final ShapeBase[] copy = new ShapeBase[WIDTH];
+            System.arraycopy(leaf, 0, copy, 0, WIDTH);
+            return copy;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.Writer;
-import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -187,36 +186,34 @@ class TinySvgWriter implements ISvgWriter {
     }
 
     @Override
-    public void addPolygon(double x, double y, List<Double> pointList) {
-        // 線が描けないpointListの場合、何もしない
-        final int pointListSize = pointList.size();
-        if (pointListSize < 4 || pointListSize % 2 != 0)
+    public void addPolygon(double x, double y, float[] points, int length) {
+        // 線が描けないpointsの場合、何もしない
+        if (length < 4 || length % 2 != 0)
             return;
 
         final Element polygon = document.createElement("polygon");
-        final StringBuilder points = new StringBuilder();
-        points.append(x).append(",").append(y);
-        for (int i = 0; i < pointList.size(); i += 2)
-            points.append(" ").append(pointList.get(i)).append(",").append(pointList.get(i + 1));
-        polygon.setAttribute("points", points.toString());
+        final StringBuilder pointsStr = new StringBuilder();
+        pointsStr.append(x).append(",").append(y);
+        for (int i = 0; i < length; i += 2)
+            pointsStr.append(" ").append((double)points[i]).append(",").append((double)points[i + 1]);
+        polygon.setAttribute("points", pointsStr.toString());
         setStroke(polygon);
         polygon.setAttribute("fill", "none");
         document.getDocumentElement().appendChild(polygon);
     }
 
     @Override
-    public void addPolyline(double x, double y, List<Double> pointList) {
-        // 線が描けないpointListの場合、何もしない
-        final int pointListSize = pointList.size();
-        if (pointListSize < 4 || pointListSize % 2 != 0)
+    public void addPolyline(double x, double y, float[] points, int length) {
+        // 線が描けないpointsの場合、何もしない
+        if (length < 4 || length % 2 != 0)
             return;
 
         final Element polyline = document.createElement("polyline");
-        final StringBuilder points = new StringBuilder();
-        points.append(x).append(",").append(y);
-        for (int i = 0; i < pointList.size(); i += 2)
-            points.append(" ").append(pointList.get(i)).append(",").append(pointList.get(i + 1));
-        polyline.setAttribute("points", points.toString());
+        final StringBuilder pointsStr = new StringBuilder();
+        pointsStr.append(x).append(",").append(y);
+        for (int i = 0; i < length; i += 2)
+            pointsStr.append(" ").append((double)points[i]).append(",").append((double)points[i + 1]);
+        polyline.setAttribute("points", pointsStr.toString());
         setStroke(polyline);
         polyline.setAttribute("fill", "none");
         document.getDocumentElement().appendChild(polyline);
@@ -0,0 +1,89 @@
+package com.example.koba.testcanvas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 直近のタッチ位置の速度から先の位置を予測し、予測する時間と速度の算出期間を制限することを確認する
+ */
+public class StrokePredictorTest {
+    private StrokePredictor predictor;
+    private final float[] out = new float[2];
+
+    @Before
+    public void setUp() {
+        predictor = new StrokePredictor();
+    }
+
+    @Test
+    public void predict_needsTwoSamples() {
+        assertFalse(predictor.predict(10, out));
+        predictor.add(0, 0, 0);
+        assertFalse(predictor.predict(10, out));
+        predictor.add(10, 10, 5);
+        assertTrue(predictor.predict(10, out));
+    }
+
+    @Test
+    public void predict_extrapolatesVelocity() {
+        predictor.add(0, 0, 0);
+        predictor.add(10, 10, 5);
+        predictor.add(20, 20, 10);
+        assertTrue(predictor.predict(10, out));
+        assertEquals(30, out[0], 1e-4);
+        assertEquals(15, out[1], 1e-4);
+    }
+
+    @Test
+    public void predict_clampsHorizon() {
+        predictor.add(0, 0, 0);
+        predictor.add(10, 10, 0);
+        // 予測する時間は50ミリ秒まで
+        assertTrue(predictor.predict(1000, out));
+        assertEquals(60, out[0], 1e-4);
+        assertTrue(predictor.predict(50, out));
+        assertEquals(60, out[0], 1e-4);
+    }
+
+    @Test
+    public void predict_ignoresSamplesOutsideVelocityWindow() {
+        predictor.add(0, -1000, 0);  // 40ミリ秒より前の位置は使わない
+        predictor.add(100, 0, 0);
+        predictor.add(110, 10, 0);
+        assertTrue(predictor.predict(10, out));
+        assertEquals(20, out[0], 1e-4);
+    }
+
+    @Test
+    public void predict_usesLatestSamplesAfterWrapAround() {
+        // 保持する数を超えて追加した場合、古い位置から上書きする (上書きした位置は使わない)
+        for (int i = 0; i < 10; i++)
+            predictor.add(i * 10, (i < 6) ? 1000 : (i - 5) * 20, 0);
+        assertTrue(predictor.predict(10, out));
+        assertEquals(80 + 20, out[0], 1e-4);
+    }
+
+    @Test
+    public void predict_failsWhenStationaryOrSameTime() {
+        predictor.add(0, 5, 5);
+        predictor.add(10, 5, 5);
+        assertFalse(predictor.predict(10, out));
+
+        predictor.reset();
+        predictor.add(10, 0, 0);
+        predictor.add(10, 10, 10);
+        assertFalse(predictor.predict(10, out));
+    }
+
+    @Test
+    public void reset_discardsSamples() {
+        predictor.add(0, 0, 0);
+        predictor.add(10, 10, 0);
+        predictor.reset();
+        assertFalse(predictor.predict(10, out));
+        predictor.add(20, 50, 0);
+        assertFalse(predictor.predict(10, out));
+    }
+}
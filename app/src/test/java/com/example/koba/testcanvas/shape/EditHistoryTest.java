@@ -0,0 +1,247 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * EditHistoryとEditCommandの戻る、進む、記憶量の上限による破棄を確認する
+ */
+public class EditHistoryTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(4, 12, 0xff000000, Paint.Style.STROKE);
+
+    /**
+     * 図形を描画順に並べるだけの操作の対象
+     */
+    private static final class ListDocument implements EditCommand.Document {
+        final ArrayList<ShapeBase> shapes = new ArrayList<>();
+        private int nextZOrder = 0;
+        int changeCount = 0;
+
+        @Override
+        public void addShape(ShapeBase shape) {
+            shape.setZOrder(nextZOrder++);
+            shapes.add(shape);
+        }
+
+        @Override
+        public void insertShapes(ShapeBase[] inserted) {
+            for (ShapeBase shape : inserted) {
+                int index = 0;
+                while (index < shapes.size() && shapes.get(index).getZOrder() < shape.getZOrder())
+                    index++;
+                shapes.add(index, shape);
+            }
+        }
+
+        @Override
+        public void removeShapes(ShapeBase[] removed) {
+            for (ShapeBase shape : removed)
+                shapes.remove(shape);
+        }
+
+        @Override
+        public ShapeBase prepareWrite(ShapeBase shape) {
+            return shape.getLatest();
+        }
+
+        @Override
+        public void beginChange(ShapeBase shape) {
+            changeCount++;
+        }
+
+        @Override
+        public void endChange(ShapeBase shape, boolean translated) {}
+    }
+
+    private static ShapeLine createLine(float x, float y) {
+        final ShapeLine line = new ShapeLine(x, y, STYLE);
+        line.setPoint(x + 10, y);
+        return line;
+    }
+
+    /**
+     * 図形の形状を比較用に書き込む (内部データ形式)
+     */
+    private static byte[] toData(ShapeBase shape) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        shape.writeData(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void undo_translateRestoresPosition() {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        final ShapeLine line = createLine(0, 0);
+        document.addShape(line);
+        history.record(new EditCommand.AddShapes(line));
+
+        final EditCommand.Translate translate = new EditCommand.Translate(new ShapeBase[] {line});
+        history.record(translate);
+        for (int i = 0; i < 10; i++) {
+            line.translate(3, 4);
+            translate.add(3, 4);  // 1回の移動の操作は1つの記録にまとめる
+        }
+
+        assertTrue(history.undo(document));
+        assertEquals(0, line.getX() + line.getOffsetX(), 1e-4);
+        assertEquals(0, line.getY() + line.getOffsetY(), 1e-4);
+        assertEquals(1, document.changeCount);
+        assertTrue(history.redo(document));
+        assertEquals(30, line.getX() + line.getOffsetX(), 1e-4);
+        assertEquals(40, line.getY() + line.getOffsetY(), 1e-4);
+
+        // 追加の取り消し
+        assertTrue(history.undo(document));
+        assertTrue(history.undo(document));
+        assertTrue(document.shapes.isEmpty());
+        assertFalse(history.canUndo());
+        final List<ShapeBase> undone = new ArrayList<>();
+        history.collectUndoneShapes(undone);
+        assertEquals(1, undone.size());
+        assertSame(line, undone.get(0));
+    }
+
+    @Test
+    public void undo_deleteRestoresZOrder() {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        final ShapeBase[] lines = new ShapeBase[5];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = createLine(i * 20, 0);
+            document.addShape(lines[i]);
+        }
+
+        final ShapeBase[] deleted = {lines[1], lines[3]};
+        document.removeShapes(deleted);
+        history.record(new EditCommand.DeleteShapes(deleted));
+        assertEquals(3, document.shapes.size());
+
+        assertTrue(history.undo(document));
+        for (int i = 0; i < lines.length; i++)
+            assertSame(lines[i], document.shapes.get(i));
+        assertTrue(history.redo(document));
+        assertEquals(3, document.shapes.size());
+        assertFalse(document.shapes.contains(lines[1]));
+    }
+
+    @Test
+    public void undo_textAndAttrIdAndPoints() {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        final ShapeText text = new ShapeText(0, 0, STYLE);
+        document.addShape(text);
+        final Object oldData = text.getData();
+        text.setData("changed");
+        history.record(new EditCommand.SetData(text, oldData, "changed"));
+        text.setAttrId("id1");
+        history.record(new EditCommand.SetAttrId(text, null, "id1"));
+
+        final ShapePolyline polyline = new ShapePolyline(0, 0, STYLE);
+        polyline.setPoint(10, 0);
+        document.addShape(polyline);
+        polyline.addPoint(10, 10);
+        history.record(new EditCommand.AddPoint(polyline));
+        polyline.setPoint(10, 20);  // 追加後にタッチ位置に合わせて変更する
+
+        assertTrue(history.undo(document));
+        assertFalse(ShapeHitTester.isHit(polyline, 10, 15, 1));
+        assertTrue(ShapeHitTester.isHit(polyline, 5, 0, 1));
+        assertTrue(history.redo(document));
+        assertTrue(ShapeHitTester.isHit(polyline, 10, 15, 1));
+
+        assertTrue(history.undo(document));
+        assertTrue(history.undo(document));
+        assertNull(text.getAttrId());
+        assertTrue(history.undo(document));
+        assertEquals(oldData, text.getData());
+        assertTrue(history.redo(document));
+        assertEquals("changed", text.getData());
+    }
+
+    @Test
+    public void undo_addPointOfArc() throws IOException {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        final ShapeArc arc = new ShapeArc(0, 0, STYLE);
+        arc.setPoint(100, 0);  // 端点の決定
+        document.addShape(arc);
+        final byte[] semicircle = toData(arc);
+
+        arc.addPoint(50, 50);
+        history.record(new EditCommand.AddPoint(arc));
+        arc.setPoint(50, 40);  // 追加後にタッチ位置に合わせて変更する
+        final byte[] firstCircle = toData(arc);
+        arc.addPoint(50, -30);
+        history.record(new EditCommand.AddPoint(arc));
+        arc.setPoint(50, -40);
+        final byte[] secondCircle = toData(arc);
+
+        assertTrue(history.undo(document));
+        assertArrayEquals(firstCircle, toData(arc));
+        assertTrue(history.undo(document));
+        assertArrayEquals(semicircle, toData(arc));
+        assertTrue(history.redo(document));
+        assertArrayEquals(firstCircle, toData(arc));
+        assertTrue(history.redo(document));
+        assertArrayEquals(secondCircle, toData(arc));
+
+        // 端点の変更中の状態に戻る
+        assertTrue(history.undo(document));
+        assertTrue(history.undo(document));
+        arc.setPoint(0, 100);
+        final ShapeArc expected = new ShapeArc(0, 0, STYLE);
+        expected.setPoint(0, 100);
+        assertArrayEquals(toData(expected), toData(arc));
+    }
+
+    @Test
+    public void undo_addPointSkipsShapeWithoutPoints() throws IOException {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        // 読み込んだ円弧 (追加した点を持たない)
+        final ShapeArc arc = new ShapeArc(0, -50, 100, 50, 180, 180, 0, 0, 100, 0, true, false, STYLE);
+        document.addShape(arc);
+        final byte[] loaded = toData(arc);
+        history.record(new EditCommand.AddPoint(arc));
+
+        assertTrue(history.undo(document));
+        assertArrayEquals(loaded, toData(arc));
+        assertTrue(history.redo(document));
+        assertArrayEquals(loaded, toData(arc));  // 原点を通る円に変更しない
+    }
+
+    @Test
+    public void record_dropsOldestOverBudgetAndClearsRedo() {
+        final ListDocument document = new ListDocument();
+        final EditHistory history = new EditHistory();
+        history.setBudget(2000);
+        for (int i = 0; i < 1000; i++) {
+            final ShapeLine line = createLine(i, 0);
+            document.addShape(line);
+            history.record(new EditCommand.AddShapes(line));
+        }
+        assertTrue(history.getUsedBytes() <= 2000);
+
+        int undoCount = 0;
+        while (history.undo(document))
+            undoCount++;
+        assertTrue(undoCount > 0 && undoCount < 1000);
+        assertEquals(1000 - undoCount, document.shapes.size());  // 破棄した操作の図形は残る
+
+        // 新しい操作を記録した場合、戻るした図形は破棄する
+        final ShapeLine line = createLine(0, 100);
+        document.addShape(line);
+        assertTrue(history.record(new EditCommand.AddShapes(line)));
+        assertFalse(history.canRedo());
+    }
+}
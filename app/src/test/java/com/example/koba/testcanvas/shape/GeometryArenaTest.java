@@ -0,0 +1,131 @@
+package com.example.koba.testcanvas.shape;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeometryArenaとアリーナに格納したPointBufferの動作を確認する
+ */
+public class GeometryArenaTest {
+    @Test
+    public void allocate_reusesFreedBlocks() {
+        final GeometryArena arena = new GeometryArena();
+        final long a = arena.allocate(10);
+        final long b = arena.allocate(10);
+        assertTrue(a != b);
+        assertEquals(2 * GeometryArena.blockSize(10) * 4, arena.getUsedBytes());
+
+        arena.free(a, 10);
+        assertEquals(a, arena.allocate(12));  // 同じ大きさのブロックを再利用する
+        assertTrue(b != arena.allocate(100));
+    }
+
+    @Test
+    public void allocate_largeBlockDoesNotOverlap() {
+        final GeometryArena arena = new GeometryArena();
+        final long small = arena.allocate(8);
+        final long large = arena.allocate(GeometryArena.CHUNK_FLOATS * 2);
+        final long next = arena.allocate(8);
+        arena.set(small, 0, 1);
+        arena.set(large, 0, 2);
+        arena.set(next, 0, 3);
+        assertEquals(1, arena.get(small, 0), 0);
+        assertEquals(2, arena.get(large, 0), 0);
+        assertEquals(3, arena.get(next, 0), 0);
+    }
+
+    @Test
+    public void pointBuffer_keepsPointsInArena() {
+        final GeometryArena arena = new GeometryArena();
+        final PointBuffer points = new PointBuffer();
+        points.add(1, 2);
+        points.moveTo(arena);
+        for (int i = 1; i < 100; i++)  // ブロックの拡張を含む
+            points.add(i * 2 + 1, i * 2 + 2);
+        points.setLast(-1, -2);
+        points.offset(10, 20);
+
+        assertEquals(200, points.size());
+        assertEquals(11, points.get(0), 0);
+        assertEquals(22, points.get(1), 0);
+        assertEquals(9, points.get(198), 0);
+        assertEquals(18, points.get(199), 0);
+
+        final PointBuffer copy = new PointBuffer(points);
+        points.moveTo(null);
+        assertEquals(0, arena.getUsedBytes());
+        for (int i = 0; i < points.size(); i++)
+            assertEquals(copy.get(i), points.get(i), 0);
+    }
+
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_1m_heap() {
+        benchmark(null);
+    }
+
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_1m_arena() {
+        benchmark(new GeometryArena());
+    }
+
+    /**
+     * 100万頂点 (1000頂点の折れ線 1000本)の作成、移動の時間と、
+     * Javaヒープの使用量、GCの回数を計測する (結果は標準出力に出す)
+     * @param arena 格納先 (nullの場合、Javaヒープ)
+     */
+    private static void benchmark(GeometryArena arena) {
+        final int shapeCount = 1000;
+        final int vertexCount = 1000;
+        final Random random = new Random(1);
+
+        final long heapBefore = usedHeap();
+        final long gcBefore = gcCount();
+
+        final long buildStart = System.nanoTime();
+        final List<PointBuffer> shapes = new ArrayList<>(shapeCount);
+        for (int i = 0; i < shapeCount; i++) {
+            final PointBuffer points = new PointBuffer();
+            points.moveTo(arena);
+            for (int j = 0; j < vertexCount; j++)
+                points.add(random.nextFloat() * 10000, random.nextFloat() * 10000);
+            shapes.add(points);
+        }
+        final long buildTime = System.nanoTime() - buildStart;
+
+        final long moveStart = System.nanoTime();
+        for (int i = 0; i < shapes.size(); i++)
+            shapes.get(i).offset(1, 1);
+        final long moveTime = System.nanoTime() - moveStart;
+
+        final long gcCount = gcCount() - gcBefore;
+        final long heapUsed = usedHeap() - heapBefore;
+
+        System.out.printf("PointBuffer %s n=%d: build %.1f ms, move %.1f ms, heap %.1f MB, off-heap %.1f MB, gc %d%n",
+                (arena == null) ? "heap" : "arena", shapeCount * vertexCount, buildTime / 1e6, moveTime / 1e6,
+                heapUsed / 1e6, (arena == null) ? 0 : arena.getReservedBytes() / 1e6, gcCount);
+        assertEquals(vertexCount * 2, shapes.get(shapeCount - 1).size());
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.koba.testcanvas.shape;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 拡大率から詳細度と許容誤差への変換と、Douglas-Peucker法による頂点の間引きを確認する
+ */
+public class PathDetailLevelsTest {
+    /** 間引く際の許容誤差 (画面上のピクセル数) */
+    private static final float TOLERANCE_PIXELS = 0.5f;
+
+    @Test
+    public void getLevel_mapsScaleToPowerOfTwoRange() {
+        assertEquals(0, PathDetailLevels.getLevel(2f));
+        assertEquals(0, PathDetailLevels.getLevel(1f));
+        assertEquals(1, PathDetailLevels.getLevel(0.99f));
+        assertEquals(1, PathDetailLevels.getLevel(0.5f));
+        assertEquals(2, PathDetailLevels.getLevel(0.49f));
+        assertEquals(2, PathDetailLevels.getLevel(0.25f));
+        assertEquals(3, PathDetailLevels.getLevel(0.2f));
+        // 最も粗い詳細度より縮小した場合
+        assertEquals(8, PathDetailLevels.getLevel(1f / 256));
+        assertEquals(8, PathDetailLevels.getLevel(1e-6f));
+    }
+
+    @Test
+    public void getTolerance_keepsScreenErrorWithinTolerance() {
+        for (float scale = 0.99f; scale > 1f / 256; scale *= 0.9f) {
+            final int level = PathDetailLevels.getLevel(scale);
+            final float screenError = PathDetailLevels.getTolerance(level) * scale;
+            assertTrue("scale " + scale, screenError <= TOLERANCE_PIXELS);
+            // 2倍以上は控えめにしない
+            assertTrue("scale " + scale, screenError >= TOLERANCE_PIXELS / 2);
+        }
+        assertEquals(0.5f, PathDetailLevels.getTolerance(1), 0);
+        assertEquals(64f, PathDetailLevels.getTolerance(8), 0);
+    }
+
+    @Test
+    public void simplify_degenerateInputs() {
+        assertEquals(0, PathDetailLevels.simplify(new float[0], 1).length);
+        assertArrayEquals(new boolean[]{true}, PathDetailLevels.simplify(new float[]{5, 5}, 1));
+        assertArrayEquals(new boolean[]{true, true}, PathDetailLevels.simplify(new float[]{0, 0, 10, 0}, 1));
+        // 全て同じ位置 (長さ0の線分)
+        assertArrayEquals(new boolean[]{true, false, false, true},
+                PathDetailLevels.simplify(new float[]{3, 3, 3, 3, 3, 3, 3, 3}, 1));
+    }
+
+    @Test
+    public void simplify_keepsEndpoints() {
+        final boolean[] keep = PathDetailLevels.simplify(new float[]{0, 0, 1, 0.1f, 2, -0.1f, 3, 0.1f, 4, 0}, 1000);
+        assertArrayEquals(new boolean[]{true, false, false, false, true}, keep);
+    }
+
+    @Test
+    public void simplify_dropsCollinearPoints() {
+        final float[] points = new float[20];
+        for (int i = 0; i < 10; i++) {
+            points[i * 2] = i * 10;
+            points[i * 2 + 1] = i * 5;
+        }
+        final boolean[] keep = PathDetailLevels.simplify(points, 0.01f);
+        for (int i = 1; i < 9; i++)
+            assertFalse("point " + i, keep[i]);
+        assertTrue(keep[0]);
+        assertTrue(keep[9]);
+    }
+
+    @Test
+    public void simplify_keepsPointsBeyondTolerance() {
+        // 1つ目の頂点は線から2、2つ目の頂点は0.5離れている
+        final float[] points = {0, 0, 10, 2, 20, 0, 30, 0.5f, 40, 0};
+        assertArrayEquals(new boolean[]{true, true, true, false, true}, PathDetailLevels.simplify(points, 1));
+        assertArrayEquals(new boolean[]{true, true, true, true, true}, PathDetailLevels.simplify(points, 0.25f));
+        assertArrayEquals(new boolean[]{true, false, false, false, true}, PathDetailLevels.simplify(points, 2));
+    }
+
+    @Test
+    public void simplify_measuresToSegmentNotLine() {
+        // 始点と終点が近くても、折り返した先の頂点は残す
+        final float[] points = {0, 0, 100, 0, 1, 0};
+        assertArrayEquals(new boolean[]{true, true, true}, PathDetailLevels.simplify(points, 1));
+    }
+}
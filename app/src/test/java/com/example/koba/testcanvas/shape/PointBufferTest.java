@@ -0,0 +1,94 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PointBufferの複製時の配列の共有 (コピーオンライト)と、共有しない複製を確認する
+ */
+public class PointBufferTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(4, 12, 0xff000000, Paint.Style.STROKE);
+
+    private static PointBuffer createPoints(int n) {
+        final PointBuffer points = new PointBuffer();
+        for (int i = 0; i < n; i++)
+            points.add(i, i * 2);
+        return points;
+    }
+
+    @Test
+    public void copy_sharesUntilModified() {
+        final PointBuffer src = createPoints(100);
+        final PointBuffer copy = new PointBuffer(src);
+        assertTrue(src.isShared());
+        assertSame(src.array(), copy.array());
+
+        copy.setLast(-1, -2);
+        assertNotSame(src.array(), copy.array());
+        assertFalse(copy.isShared());
+        assertEquals(99, src.get(198), 0);
+        assertEquals(-1, copy.get(198), 0);
+
+        // 複製元の変更も共有相手には影響しない
+        final PointBuffer copy2 = new PointBuffer(src);
+        src.add(1000, 1000);
+        src.offset(10, 10);
+        assertEquals(200, copy2.size());
+        assertEquals(0, copy2.get(0), 0);
+        assertEquals(10, src.get(0), 0);
+        assertEquals(1010, src.get(200), 0);
+    }
+
+    @Test
+    public void copy_fromArenaDoesNotShareBlock() {
+        final GeometryArena arena = new GeometryArena();
+        final PointBuffer src = createPoints(10);
+        src.moveTo(arena);
+        final PointBuffer copy = new PointBuffer(src);
+        assertFalse(src.isShared());
+        src.release();
+        assertEquals(20, copy.size());
+        assertEquals(18, copy.get(19), 0);
+    }
+
+    @Test
+    public void set_copiesWithoutSharing() {
+        final PointBuffer src = createPoints(100);
+        final PointBuffer dst = new PointBuffer(createPoints(10));
+        dst.set(src);
+        assertFalse(dst.isShared());
+        assertNotSame(src.array(), dst.array());
+        assertEquals(200, dst.size());
+        assertEquals(99, dst.get(198), 0);
+
+        // 容量が足りる場合、配列を再利用する
+        final float[] array = dst.array();
+        src.setLast(-1, -2);
+        dst.set(src);
+        assertSame(array, dst.array());
+        assertEquals(-1, dst.get(198), 0);
+        dst.set(createPoints(3));
+        assertSame(array, dst.array());
+        assertEquals(6, dst.size());
+    }
+
+    @Test
+    public void polylineCopy_keepsSourceWhenEdited() {
+        final ShapePolyline src = new ShapePolyline(0, 0, STYLE);
+        for (int i = 1; i <= 1000; i++)
+            src.addPoint(i, 0);
+        final ShapeBase copy = src.copyShape();
+        copy.translate(0, 50);
+        copy.applyOffset();  // 頂点を書き換える時点で複製する
+        copy.addPoint(0, 100);
+
+        assertTrue(ShapeHitTester.isHit(src, 500, 0, 1));
+        assertFalse(ShapeHitTester.isHit(src, 500, 50, 1));
+        assertTrue(ShapeHitTester.isHit(copy, 500, 50, 1));
+        assertTrue(ShapeHitTester.isHit(copy, 500, 75, 1));  // 追加した線
+        assertFalse(ShapeHitTester.isHit(src, 500, 75, 1));
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.koba.testcanvas.shape;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * RTreeの検索結果を全件走査の結果と比較する
+ */
+public class RTreeTest {
+    private static final float WORLD_SIZE = 10000;
+    private static final float MAX_ITEM_SIZE = 100;
+
+    /**
+     * テスト用の要素 (外接矩形を保持する)
+     */
+    private static final class Item {
+        float left;
+        float top;
+        float right;
+        float bottom;
+
+        Item(Random random) {
+            move(random);
+        }
+
+        void move(Random random) {
+            left = random.nextFloat() * WORLD_SIZE;
+            top = random.nextFloat() * WORLD_SIZE;
+            right = left + random.nextFloat() * MAX_ITEM_SIZE;
+            bottom = top + random.nextFloat() * MAX_ITEM_SIZE;
+        }
+
+        boolean intersects(float l, float t, float r, float b) {
+            return left <= r && l <= right && top <= b && t <= bottom;
+        }
+
+        float distance2(float x, float y) {
+            final float dx = Math.max(Math.max(left - x, x - right), 0);
+            final float dy = Math.max(Math.max(top - y, y - bottom), 0);
+            return dx * dx + dy * dy;
+        }
+
+        void insertTo(RTree<Item> tree) {
+            tree.insert(this, left, top, right, bottom);
+        }
+    }
+
+    private static List<Item> createItems(Random random, int n) {
+        final List<Item> items = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            items.add(new Item(random));
+        return items;
+    }
+
+    private static RTree<Item> createTree(List<Item> items) {
+        final RTree<Item> tree = new RTree<>();
+        for (Item item : items)
+            item.insertTo(tree);
+        return tree;
+    }
+
+    private static void assertSearch(RTree<Item> tree, List<Item> items, Random random) {
+        final float l = random.nextFloat() * WORLD_SIZE;
+        final float t = random.nextFloat() * WORLD_SIZE;
+        final float r = l + random.nextFloat() * WORLD_SIZE / 10;
+        final float b = t + random.nextFloat() * WORLD_SIZE / 10;
+
+        final Set<Item> expected = new HashSet<>();
+        for (Item item : items) {
+            if (item.intersects(l, t, r, b))
+                expected.add(item);
+        }
+        final List<Item> actual = new ArrayList<>();
+        tree.search(l, t, r, b, actual);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    private static void assertNearest(RTree<Item> tree, List<Item> items, Random random) {
+        final float x = random.nextFloat() * WORLD_SIZE;
+        final float y = random.nextFloat() * WORLD_SIZE;
+
+        float expected = Float.POSITIVE_INFINITY;
+        for (Item item : items)
+            expected = Math.min(expected, item.distance2(x, y));
+        final Item actual = tree.nearest(x, y, Float.MAX_VALUE);
+
+        assertNotNull(actual);
+        // 同じ距離の要素が複数ある場合を考慮し、距離で比較する
+        assertEquals(expected, actual.distance2(x, y), 0);
+    }
+
+    @Test
+    public void search_matchesLinearScan() {
+        final Random random = new Random(1);
+        final List<Item> items = createItems(random, 5000);
+        final RTree<Item> tree = createTree(items);
+
+        assertEquals(items.size(), tree.size());
+        for (int i = 0; i < 200; i++)
+            assertSearch(tree, items, random);
+    }
+
+    @Test
+    public void nearest_matchesLinearScan() {
+        final Random random = new Random(2);
+        final List<Item> items = createItems(random, 5000);
+        final RTree<Item> tree = createTree(items);
+
+        for (int i = 0; i < 200; i++)
+            assertNearest(tree, items, random);
+    }
+
+    @Test
+    public void nearest_respectsMaxDistance() {
+        final RTree<Item> tree = new RTree<>();
+        final Item item = new Item(new Random(3));
+        item.left = 0;
+        item.top = 0;
+        item.right = 10;
+        item.bottom = 10;
+        item.insertTo(tree);
+
+        assertNull(tree.nearest(20, 5, 5));
+        assertSame(item, tree.nearest(20, 5, 10));
+        assertNull(new RTree<Item>().nearest(0, 0, Float.MAX_VALUE));
+    }
+
+    @Test
+    public void removeAndUpdate_keepIndexConsistent() {
+        final Random random = new Random(4);
+        final List<Item> items = createItems(random, 5000);
+        final RTree<Item> tree = createTree(items);
+
+        // 半分を削除
+        final List<Item> removed = new ArrayList<>(items.subList(0, items.size() / 2));
+        for (Item item : removed)
+            assertTrue(tree.remove(item));
+        items.removeAll(removed);
+        assertFalse(tree.remove(removed.get(0)));
+        assertEquals(items.size(), tree.size());
+
+        // 残りの一部を移動
+        for (int i = 0; i < items.size(); i += 3) {
+            final Item item = items.get(i);
+            item.move(random);
+            item.insertTo(tree);
+        }
+        assertEquals(items.size(), tree.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertSearch(tree, items, random);
+            assertNearest(tree, items, random);
+        }
+
+        for (Item item : items)
+            assertTrue(tree.remove(item));
+        assertEquals(0, tree.size());
+        assertSearch(tree, new ArrayList<Item>(), random);
+    }
+
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_10k() {
+        benchmark(10000);
+    }
+
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_100k() {
+        benchmark(100000);
+    }
+
+    /**
+     * 構築、範囲検索、最近傍検索の時間を計測する (結果は標準出力に出す)
+     * @param n 要素数
+     */
+    private static void benchmark(int n) {
+        final int queryCount = 10000;
+        final Random random = new Random(n);
+        final List<Item> items = createItems(random, n);
+
+        final long buildStart = System.nanoTime();
+        final RTree<Item> tree = createTree(items);
+        final long buildTime = System.nanoTime() - buildStart;
+
+        final List<Item> result = new ArrayList<>();
+        final long searchStart = System.nanoTime();
+        for (int i = 0; i < queryCount; i++) {
+            final float x = random.nextFloat() * WORLD_SIZE;
+            final float y = random.nextFloat() * WORLD_SIZE;
+            result.clear();
+            tree.search(x, y, x + 200, y + 200, result);
+        }
+        final long searchTime = System.nanoTime() - searchStart;
+
+        final long nearestStart = System.nanoTime();
+        for (int i = 0; i < queryCount; i++)
+            assertNotNull(tree.nearest(random.nextFloat() * WORLD_SIZE, random.nextFloat() * WORLD_SIZE, Float.MAX_VALUE));
+        final long nearestTime = System.nanoTime() - nearestStart;
+
+        System.out.printf("RTree n=%d: build %.1f ms, search %.2f us/query, nearest %.2f us/query%n",
+                n, buildTime / 1e6, searchTime / 1e3 / queryCount, nearestTime / 1e3 / queryCount);
+        assertEquals(n, tree.size());
+    }
+}
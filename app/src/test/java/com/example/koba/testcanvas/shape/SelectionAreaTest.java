@@ -0,0 +1,160 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * SelectionAreaの範囲内の判定と、複数選択した図形の一括削除、一括移動を確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SelectionAreaTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(4, 12, 0xff000000, Paint.Style.STROKE);
+    /** 直線 (ShapeManagerでの番号) */
+    private static final int LINE = 0;
+
+    /**
+     * L字型 (凹型)の投げ縄を作成する
+     * <pre>
+     * (0,0)-(100,0)
+     *   |      |
+     *   |   (100,50)-(200,50)
+     *   |               |
+     * (0,100)-------(200,100)
+     * </pre>
+     */
+    private static SelectionArea createLasso() {
+        final SelectionArea area = new SelectionArea();
+        area.start(0, 0, true);
+        area.moveTo(100, 0);
+        area.moveTo(100, 50);
+        area.moveTo(200, 50);
+        area.moveTo(200, 100);
+        area.moveTo(0, 100);
+        return area;
+    }
+
+    @Test
+    public void contains_lassoIsConcave() {
+        final SelectionArea area = createLasso();
+        assertTrue(area.contains(50, 25));
+        assertTrue(area.contains(150, 75));
+        assertFalse(area.contains(150, 25));  // 外接矩形内だが凹んだ部分
+        assertFalse(area.contains(250, 75));
+    }
+
+    @Test
+    public void contains_rectUsesCorners() {
+        final SelectionArea area = new SelectionArea();
+        area.start(100, 100, false);
+        area.moveTo(0, 0);  // 始点より左上へのドラッグ
+        assertTrue(area.contains(50, 50));
+        assertTrue(area.contains(100, 0));
+        assertFalse(area.contains(101, 50));
+    }
+
+    @Test
+    public void isInside_requiresWholeOutline() {
+        final SelectionArea area = createLasso();
+
+        final ShapeLine line = new ShapeLine(10, 20, STYLE);
+        line.setPoint(190, 90);
+        assertTrue(line.isInside(area));
+        line.setPoint(190, 60);
+        assertFalse(line.isInside(area));  // 両端は範囲内だが凹んだ部分を通る
+
+        final ShapeRect rect = new ShapeRect(110, 60, STYLE);
+        rect.setPoint(190, 90);
+        assertTrue(rect.isInside(area));
+        rect.setPoint(190, 40);
+        assertFalse(rect.isInside(area));
+
+        final ShapeCircle circle = new ShapeCircle(50, 50, STYLE);
+        circle.setPoint(90, 50);
+        assertTrue(circle.isInside(area));
+        circle.setPoint(50, 0);  // 半径50 外周が範囲の外に出る
+        assertFalse(circle.isInside(area));
+    }
+
+    @Test
+    public void shapeStore_removeSelectedKeepsOrder() {
+        final ShapeStore store = new ShapeStore();
+        final int[] handles = new int[10];
+        for (int i = 0; i < handles.length; i++) {
+            final ShapeLine line = new ShapeLine(i, i, STYLE);
+            line.setSelected(i % 3 == 0);
+            handles[i] = store.add(line);
+        }
+
+        assertEquals(4, store.removeSelected());
+        assertEquals(6, store.size());
+        for (int i = 0; i < handles.length; i++) {
+            final ShapeBase shape = store.getByHandle(handles[i]);
+            if (i % 3 == 0) {
+                assertNull(shape);
+            } else {
+                assertNotNull(shape);
+                assertEquals(i, shape.getX(), 0);
+            }
+        }
+        for (int i = 1; i < store.size(); i++)
+            assertTrue(store.get(i - 1).getX() < store.get(i).getX());
+    }
+
+    @Test
+    public void shapeManager_moveSelectionIsOneEdit() {
+        final ShapeManager shapeManager = createShapeManager();
+        selectAll(shapeManager);
+        assertEquals(2, shapeManager.getSelectedCount());
+
+        // 移動中の位置ごとに移動する
+        shapeManager.preTransfer(0, 0);
+        shapeManager.transfer(0, 100);
+        shapeManager.transfer(0, 200);
+        shapeManager.transfer(0, 300);
+        assertTrue(shapeManager.select(50, 300, 2));
+        assertTrue(shapeManager.select(50, 350, 2));
+        assertFalse(shapeManager.select(50, 0, 2));
+
+        // 1回の移動としてまとめて取り消す
+        assertTrue(shapeManager.undo());
+        assertTrue(shapeManager.select(50, 0, 2));
+        assertTrue(shapeManager.select(50, 50, 2));
+        assertFalse(shapeManager.select(50, 300, 2));
+    }
+
+    @Test
+    public void shapeManager_cancelSelectionSelectsNothing() {
+        final ShapeManager shapeManager = createShapeManager();
+        shapeManager.startSelection(-10, -10, false);
+        shapeManager.moveSelection(110, 60);
+        assertFalse(shapeManager.cancelSelection().isEmpty());
+        assertFalse(shapeManager.endSelection(2));
+        assertEquals(0, shapeManager.getSelectedCount());
+    }
+
+    /**
+     * 2本の水平な直線 (y=0、y=50)を描画したShapeManagerを作成する
+     */
+    private static ShapeManager createShapeManager() {
+        final ShapeManager shapeManager = new ShapeManager();
+        shapeManager.setSize(1080, 1920);
+        shapeManager.setShape(LINE);
+        for (int y = 0; y <= 50; y += 50) {
+            shapeManager.start(0, y);
+            shapeManager.move(100, y);
+            shapeManager.fix();
+        }
+        return shapeManager;
+    }
+
+    private static void selectAll(ShapeManager shapeManager) {
+        shapeManager.startSelection(-10, -10, false);
+        shapeManager.moveSelection(110, 60);
+        assertTrue(shapeManager.endSelection(2));
+    }
+}
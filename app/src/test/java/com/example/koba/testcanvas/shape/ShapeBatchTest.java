@@ -0,0 +1,128 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Picture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 連続する同じ見た目の図形のみを1回の描画命令にまとめ、
+ * 見た目や不透明度が変わる位置で分けることを確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeBatchTest {
+    private static final ShapeStyle BLACK = new ShapeStyle(4, 12, 0xff000000, Paint.Style.STROKE);
+    private static final ShapeStyle RED = new ShapeStyle(4, 12, 0xffff0000, Paint.Style.STROKE);
+    /** 半透明 (まとめない) */
+    private static final ShapeStyle TRANSLUCENT = new ShapeStyle(4, 12, 0x80000000, Paint.Style.STROKE);
+    /** 塗りつぶし (まとめない) */
+    private static final ShapeStyle FILL = new ShapeStyle(4, 12, 0xff000000, Paint.Style.FILL);
+
+    private ShapeBatch batch;
+    private RecordingCanvas canvas;
+
+    @Before
+    public void setUp() {
+        batch = new ShapeBatch();
+        canvas = new RecordingCanvas();
+    }
+
+    @Test
+    public void draw_mergesSameStyleIntoOneCall() {
+        draw(line(0, BLACK), line(10, BLACK), line(20, BLACK));
+        assertEquals(Arrays.asList("lines 12 ff000000"), canvas.calls);
+    }
+
+    @Test
+    public void draw_splitsRunsOnStyleChange() {
+        draw(line(0, BLACK), line(10, BLACK), line(20, RED), line(30, BLACK));
+        // 描画順を保つため、同じ見た目でも間に別の見た目がある場合はまとめない
+        assertEquals(Arrays.asList("lines 8 ff000000", "lines 4 ffff0000", "lines 4 ff000000"), canvas.calls);
+    }
+
+    @Test
+    public void draw_doesNotMergeTranslucentShapes() {
+        draw(line(0, BLACK), line(10, TRANSLUCENT), line(20, TRANSLUCENT), line(30, BLACK));
+        assertEquals(Arrays.asList("lines 4 ff000000", "picture", "picture", "lines 4 ff000000"), canvas.calls);
+    }
+
+    @Test
+    public void draw_doesNotMergeFilledShapes() {
+        draw(rect(0, BLACK), rect(10, FILL), rect(20, BLACK));
+        assertEquals(Arrays.asList("path ff000000", "picture", "path ff000000"), canvas.calls);
+    }
+
+    @Test
+    public void draw_mergesLinesAndPathsOfSameStyle() {
+        draw(line(0, BLACK), rect(10, BLACK), line(20, BLACK));
+        assertEquals(Arrays.asList("lines 8 ff000000", "path ff000000"), canvas.calls);
+    }
+
+    @Test
+    public void draw_appliesOffsetOfEachShape() {
+        final ShapeLine moved = line(0, BLACK);
+        moved.translate(100, 200);
+        draw(line(0, BLACK), moved);
+        assertArrayEquals(new float[]{0, 0, 10, 0, 100, 200, 110, 200}, canvas.lastLines, 0);
+    }
+
+    @Test
+    public void draw_startsEmptyOnNextFrame() {
+        draw(line(0, BLACK), line(10, BLACK));
+        canvas.calls.clear();
+        draw(line(20, RED));
+        assertEquals(Arrays.asList("lines 4 ffff0000"), canvas.calls);
+    }
+
+    private void draw(ShapeBase... shapes) {
+        batch.draw(canvas, Arrays.asList(shapes), 1f);
+    }
+
+    private static ShapeLine line(float y, ShapeStyle style) {
+        final ShapeLine line = new ShapeLine(0, y, style);
+        line.setPoint(10, y);
+        return line;
+    }
+
+    private static ShapeRect rect(float y, ShapeStyle style) {
+        final ShapeRect rect = new ShapeRect(0, y, style);
+        rect.setPoint(10, y + 5);
+        return rect;
+    }
+
+    /**
+     * 描画命令を記録する描画先
+     */
+    private static final class RecordingCanvas extends Canvas {
+        final List<String> calls = new ArrayList<>();
+        /** 最後にdrawLines()で描画した座標 */
+        float[] lastLines = null;
+
+        @Override
+        public void drawLines(float[] pts, int offset, int count, Paint paint) {
+            calls.add("lines " + count + " " + Integer.toHexString(paint.getColor()));
+            lastLines = Arrays.copyOfRange(pts, offset, offset + count);
+        }
+
+        @Override
+        public void drawPath(Path path, Paint paint) {
+            calls.add("path " + Integer.toHexString(paint.getColor()));
+        }
+
+        @Override
+        public void drawPicture(Picture picture) {
+            calls.add("picture");
+        }
+    }
+}
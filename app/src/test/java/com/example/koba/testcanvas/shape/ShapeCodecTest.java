@@ -0,0 +1,298 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShapeCodecの書き込み、読み込みと、以前の版のシリアライズからの移行を確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeCodecTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(4, 12, 0xff000000, Paint.Style.STROKE);
+    private static final ShapeStyle TEXT_STYLE = new ShapeStyle(0, 60, 0xffff0000, Paint.Style.FILL);
+    /** 計測の試行回数 (最小値を結果とする) */
+    private static final int TRIALS = 3;
+
+    /**
+     * 全ての種類の図形を作成する
+     */
+    private static List<ShapeBase> createAllTypes() {
+        final List<ShapeBase> shapes = new ArrayList<>();
+        final ShapeBase[] created = {
+                new ShapeLine(0, 0, STYLE), new ShapeRect(10, 10, STYLE), new ShapeCircle(20, 20, STYLE),
+                new ShapeArc(30, 30, STYLE), new ShapeEllipse(40, 40, STYLE),
+                new ShapePolyline(50, 50, STYLE), new ShapePolygon(60, 60, STYLE),
+        };
+        for (ShapeBase shape : created) {
+            shape.setPoint(shape.getX() + 15, shape.getY() + 25);
+            shape.addPoint(shape.getX() + 30, shape.getY() + 5);
+            shapes.add(shape);
+        }
+        final ShapeText text = new ShapeText(70, 70, TEXT_STYLE);
+        text.setData("テキスト");
+        text.setAttrId("text1");
+        shapes.add(text);
+        shapes.get(0).translate(100, 200);  // 移動量は座標に反映して書き込む
+        shapes.get(5).setAttrId("polyline1");
+        return shapes;
+    }
+
+    private static ShapeVector toVector(List<ShapeBase> shapes) {
+        final ShapeVector.Builder builder = new ShapeVector.Builder();
+        for (ShapeBase shape : shapes)
+            builder.add(shape);
+        return builder.snapshot();
+    }
+
+    private static ShapeVector toVector(ShapeStore store) {
+        final ShapeVector.Builder builder = new ShapeVector.Builder();
+        for (int i = 0; i < store.size(); i++)
+            builder.add(store.get(i));
+        return builder.snapshot();
+    }
+
+    private static byte[] write(ShapeVector shapes, ShapeVector undoneShapes) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        ShapeCodec.write(out, shapes, undoneShapes);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static ShapeCodec.InnerData read(byte[] data) throws IOException {
+        return ShapeCodec.read(ByteBuffer.wrap(data), new ShapeStyleTable());
+    }
+
+    @Test
+    public void roundTrip_keepsAllShapeTypes() throws IOException {
+        final List<ShapeBase> shapes = createAllTypes();
+        final List<ShapeBase> undone = new ArrayList<>();
+        undone.add(new ShapeLine(1, 2, STYLE));
+        final byte[] data = write(toVector(shapes), toVector(undone));
+
+        final ShapeCodec.InnerData innerData = read(data);
+        assertEquals(shapes.size(), innerData.shapes.size());
+        assertEquals(1, innerData.undoneShapes.size());
+        for (int i = 0; i < shapes.size(); i++)
+            assertSame(shapes.get(i).getClass(), innerData.shapes.get(i).getClass());
+        assertEquals(100, innerData.shapes.get(0).getX(), 0);
+        assertEquals(200, innerData.shapes.get(0).getY(), 0);
+        assertEquals(0, shapes.get(0).getX(), 0);  // 書き込みで元の図形は変更しない
+        assertEquals("polyline1", innerData.shapes.get(5).getAttrId());
+        assertEquals("テキスト", innerData.shapes.get(7).getData());
+        assertEquals("text1", innerData.shapes.get(7).getAttrId());
+        // 見た目は共有する
+        assertSame(innerData.shapes.get(0).getStyle(), innerData.undoneShapes.get(0).getStyle());
+        assertEquals(Paint.Style.FILL, innerData.shapes.get(7).getStyle().getStyle());
+
+        // 読み込んだ図形を書き込むと同じ内容になる
+        assertArrayEquals(data, write(toVector(innerData.shapes), toVector(innerData.undoneShapes)));
+    }
+
+    /**
+     * 以前の版のクラス (Paintをシリアライズ、頂点はArrayList&lt;Float&gt;)で保存した内部データ
+     * (直線、四角形、円、楕円、円弧、折れ線、多角形、文字列と、戻るした直線)
+     */
+    private static final String BASELINE_INNER_DATA = "innerdata_baseline.dat";
+
+    @Test
+    public void restoreInnerData_migratesBaselineSerializedData() throws Exception {
+        final ShapeManager shapeManager = new ShapeManager();
+        final InputStream in = getClass().getResourceAsStream(BASELINE_INNER_DATA);
+        assertNotNull(in);
+        try {
+            shapeManager.restoreInnerData(in);
+        } finally {
+            in.close();
+        }
+        assertTrue(shapeManager.canUndo());
+        assertTrue(shapeManager.canRedo());
+
+        // 保存時は新しい形式になる
+        final ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        shapeManager.saveInnerData(new DataOutputStream(saved));
+        final ShapeCodec.InnerData innerData = read(saved.toByteArray());
+        final Class<?>[] types = {
+                ShapeLine.class, ShapeRect.class, ShapeCircle.class, ShapeEllipse.class,
+                ShapeArc.class, ShapePolyline.class, ShapePolygon.class, ShapeText.class,
+        };
+        assertEquals(types.length, innerData.shapes.size());
+        for (int i = 0; i < types.length; i++)
+            assertSame(types[i], innerData.shapes.get(i).getClass());
+        assertEquals(1, innerData.undoneShapes.size());
+        assertEquals("line1", innerData.shapes.get(0).getAttrId());
+        assertEquals("polyline1", innerData.shapes.get(5).getAttrId());
+        assertEquals("テキスト", innerData.shapes.get(7).getData());
+        // 以前のPaintの値が見た目になる (同じ値の見た目は共有する)
+        final ShapeStyle polygonStyle = innerData.shapes.get(6).getStyle();
+        assertEquals(2, polygonStyle.getStrokeWidth(), 0);
+        assertEquals(0x800000ff, polygonStyle.getColor());
+        assertEquals(Paint.Style.FILL, polygonStyle.getStyle());
+        assertSame(innerData.shapes.get(0).getStyle(), innerData.undoneShapes.get(0).getStyle());
+
+        // 以前の図形と同じ値の図形を書き込んだ内容と一致する
+        final ShapeStyle black = new ShapeStyle(4, 40, 0xff000000, Paint.Style.STROKE);
+        final ShapeStyle red = new ShapeStyle(8, 40, 0xffff0000, Paint.Style.STROKE);
+        final ShapeStyle blue = new ShapeStyle(2, 40, 0x800000ff, Paint.Style.FILL);
+        final PointBuffer polylinePoints = new PointBuffer();
+        polylinePoints.add(0, 100);
+        polylinePoints.add(10, 110);
+        polylinePoints.add(30, 120);
+        final PointBuffer polygonPoints = new PointBuffer();
+        polygonPoints.add(0, 200);
+        polygonPoints.add(50, 250);
+        polygonPoints.add(0, 250);
+        final List<ShapeBase> expected = new ArrayList<>();
+        expected.add(new ShapeLine(10, 20, 110, 70, black));
+        expected.get(0).setAttrId("line1");
+        expected.add(new ShapeRect(30, 40, 130, 90, red));
+        expected.add(new ShapeCircle(200, 200, 50, black));
+        expected.add(new ShapeEllipse(300, 300, 40, 20, red));
+        expected.add(new ShapeArc(-6.6666665f, -83.333336f, 106.666664f, 30, 151.9275f, -123.85503f,
+                0, 0, 100, 0, false, false, black));
+        expected.add(new ShapePolyline(0, 100, polylinePoints, black));
+        expected.get(5).setAttrId("polyline1");
+        expected.add(new ShapePolygon(0, 200, polygonPoints, blue));
+        expected.add(new ShapeText(5, 500, "テキスト", black));
+        final List<ShapeBase> expectedUndone = new ArrayList<>();
+        expectedUndone.add(new ShapeLine(1, 2, 3, 4, black));
+        assertArrayEquals(write(toVector(expected), toVector(expectedUndone)), saved.toByteArray());
+    }
+
+    @Test
+    public void restoreInnerData_rejectsUnknownSerializedFields() throws Exception {
+        final ShapeManager shapeManager = new ShapeManager();
+        final InputStream in = getClass().getResourceAsStream(BASELINE_INNER_DATA);
+        try {
+            shapeManager.restoreInnerData(in);
+        } finally {
+            in.close();
+        }
+        // 以前のクラスと値が異なるシリアライズ (現在のクラス)は読み込まない
+        final LinkedList<ShapeBase> serialized = new LinkedList<>();
+        serialized.add(new ShapeLine(1, 2, STYLE));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(serialized);
+        out.writeObject(new LinkedList<ShapeBase>());
+        out.close();
+        try {
+            shapeManager.restoreInnerData(new ByteArrayInputStream(bytes.toByteArray()));
+            fail("unknown serialized fields must not be read");
+        } catch (InvalidClassException e) {
+            // 現在の図形は置き換えない
+        }
+        assertTrue(shapeManager.canUndo());
+        assertTrue(shapeManager.canRedo());
+    }
+
+    @Test
+    public void read_rejectsNewerVersion() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ShapeCodec.MAGIC);
+        out.writeInt(ShapeCodec.VERSION + 1);
+        out.close();
+        try {
+            read(bytes.toByteArray());
+            fail("newer version must not be read");
+        } catch (IOException e) {
+            // 読み込めない版の場合、例外とする (現在の図形は置き換えない)
+        }
+    }
+
+    /**
+     * 1万図形 (直線、四角形、32頂点の折れ線、文字列)の書き込み、読み込みの時間と大きさを
+     * 以前の形式 (Javaのシリアライズ)と比較する (結果は標準出力に出す)
+     */
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_10k() throws Exception {
+        final int shapeCount = 10000;
+        final Random random = new Random(1);
+        final ShapeStore store = new ShapeStore();
+        for (int i = 0; i < shapeCount; i++) {
+            final float x = random.nextFloat() * 10000;
+            final float y = random.nextFloat() * 10000;
+            final ShapeBase shape;
+            switch (i % 4) {
+                case 0:
+                    shape = new ShapeLine(x, y, STYLE);
+                    break;
+                case 1:
+                    shape = new ShapeRect(x, y, STYLE);
+                    break;
+                case 2:
+                    shape = new ShapePolyline(x, y, STYLE);
+                    for (int j = 0; j < 32; j++)
+                        shape.addPoint(x + random.nextFloat() * 100, y + random.nextFloat() * 100);
+                    break;
+                default:
+                    shape = new ShapeText(x, y, TEXT_STYLE);
+                    shape.setData("text " + i);
+                    break;
+            }
+            shape.setPoint(x + 50, y + 50);
+            store.add(shape);
+        }
+        final ShapeVector shapes = toVector(store);
+
+        long codecSave = Long.MAX_VALUE;
+        long codecLoad = Long.MAX_VALUE;
+        long serialSave = Long.MAX_VALUE;
+        long serialLoad = Long.MAX_VALUE;
+        byte[] codecData = null;
+        byte[] serialData = null;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long start = System.nanoTime();
+            codecData = write(shapes, ShapeVector.EMPTY);
+            codecSave = Math.min(codecSave, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final ShapeCodec.InnerData innerData = read(codecData);
+            codecLoad = Math.min(codecLoad, System.nanoTime() - start);
+            assertEquals(shapeCount, innerData.shapes.size());
+
+            start = System.nanoTime();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(store);
+            out.writeObject(new ShapeStore());
+            out.close();
+            serialData = bytes.toByteArray();
+            serialSave = Math.min(serialSave, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialData));
+            final ShapeStore loaded = ShapeStore.fromSerialized(in.readObject());
+            ShapeStore.fromSerialized(in.readObject());
+            serialLoad = Math.min(serialLoad, System.nanoTime() - start);
+            assertEquals(shapeCount, loaded.size());
+        }
+
+        System.out.printf("ShapeCodec n=%d: save %.1f ms, load %.1f ms, %d KB / serialization: save %.1f ms, load %.1f ms, %d KB%n",
+                shapeCount, codecSave / 1e6, codecLoad / 1e6, codecData.length / 1024,
+                serialSave / 1e6, serialLoad / 1e6, serialData.length / 1024);
+        assertTrue(codecData.length < serialData.length);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 図形ごとの線までの距離と、ShapeHitTesterの判定結果を全件走査の結果と比較する
+ * <div>
+ *     空間インデックスはShapeManagerと同じく、図形の描画範囲 (ShapeBase.getBounds())で作る
+ * </div>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeHitTestTest {
+    /** 直線 (ShapeManagerでの番号) */
+    private static final int LINE = 0;
+    private static final float WORLD_SIZE = 10000;
+    private static final float MAX_SHAPE_SIZE = 100;
+    private static final float STROKE_WIDTH = 4;
+    private static final ShapeStyle STYLE = new ShapeStyle(STROKE_WIDTH, 12, 0xff000000, Paint.Style.STROKE);
+
+    @Test
+    public void distanceTo_line() {
+        final ShapeLine line = new ShapeLine(0, 0, STYLE);
+        line.setPoint(10, 0);
+        assertEquals(3, line.distanceTo(5, 3), 1e-4);
+        assertEquals(5, line.distanceTo(13, 4), 1e-4);  // 端点までの距離
+        assertEquals(0, line.distanceTo(10, 0), 1e-4);
+    }
+
+    @Test
+    public void distanceTo_rectMeasuresToEdges() {
+        final ShapeRect rect = new ShapeRect(0, 0, STYLE);
+        rect.setPoint(100, 50);
+        assertEquals(10, rect.distanceTo(50, 10), 1e-4);  // 内側は最も近い辺まで
+        assertEquals(20, rect.distanceTo(120, 25), 1e-4);
+    }
+
+    @Test
+    public void distanceTo_circleMeasuresToCircumference() {
+        final ShapeCircle circle = new ShapeCircle(0, 0, STYLE);
+        circle.setPoint(10, 0);
+        assertEquals(10, circle.distanceTo(0, 0), 1e-4);
+        assertEquals(5, circle.distanceTo(0, 15), 1e-4);
+    }
+
+    @Test
+    public void hitTest_matchesLinearScan() {
+        final Random random = new Random(1);
+        final List<ShapeBase> shapes = createShapes(random, 2000);
+        final ShapeHitTester hitTester = new ShapeHitTester(createIndex(shapes));
+
+        int hitCount = 0;
+        for (int i = 0; i < 2000; i++) {
+            // 図形の近くを多く判定する
+            final ShapeBase near = shapes.get(random.nextInt(shapes.size()));
+            final float x = near.getX() + (random.nextFloat() - 0.5f) * 20;
+            final float y = near.getY() + (random.nextFloat() - 0.5f) * 20;
+            final float tolerance = random.nextFloat() * 5;
+
+            final ShapeBase expected = linearHitTest(shapes, x, y, tolerance);
+            assertSame(expected, hitTester.hitTest(x, y, tolerance));
+            if (expected != null)
+                hitCount++;
+        }
+        assertTrue(hitCount > 0);
+    }
+
+    @Test
+    public void hitTest_returnsTopmost() {
+        final ShapeLine lower = new ShapeLine(0, 0, STYLE);
+        lower.setPoint(100, 0);
+        lower.setZOrder(0);
+        final ShapeLine upper = new ShapeLine(50, -50, STYLE);
+        upper.setPoint(50, 50);
+        upper.setZOrder(1);
+        final List<ShapeBase> shapes = new ArrayList<>();
+        shapes.add(upper);
+        shapes.add(lower);
+        final ShapeHitTester hitTester = new ShapeHitTester(createIndex(shapes));
+
+        assertSame(upper, hitTester.hitTest(50, 0, 1));
+        assertSame(lower, hitTester.hitTest(20, 1, 0));  // 線の太さの半分以内
+        assertNull(hitTester.hitTest(20, 4, 1));
+    }
+
+    @Test
+    public void hitTest_findsTranslatedShapeByBounds() {
+        final ShapeLine line = new ShapeLine(0, 0, STYLE);
+        line.setPoint(100, 0);
+        line.translate(1000, 1000);
+        final List<ShapeBase> shapes = new ArrayList<>();
+        shapes.add(line);
+        final ShapeHitTester hitTester = new ShapeHitTester(createIndex(shapes));
+
+        assertSame(line, hitTester.hitTest(1050, 1000, 1));
+        assertNull(hitTester.hitTest(50, 0, 1));
+    }
+
+    @Test
+    public void select_usesShapeManagerIndex() {
+        final ShapeManager shapeManager = new ShapeManager();
+        shapeManager.setSize(1080, 1920);
+        shapeManager.setShape(LINE);
+        shapeManager.start(0, 0);
+        shapeManager.move(100, 0);
+        shapeManager.fix();
+        shapeManager.start(0, 50);
+        shapeManager.move(100, 50);
+        shapeManager.fix();
+
+        assertTrue(shapeManager.select(50, 1, 2));
+        assertTrue(shapeManager.select(50, 49, 2));
+        assertFalse(shapeManager.select(50, 25, 2));
+
+        // 移動後は移動先で選択する
+        assertTrue(shapeManager.select(50, 0, 2));
+        shapeManager.preTransfer(50, 0);
+        shapeManager.transfer(50, 200);
+        assertTrue(shapeManager.select(50, 200, 2));
+        assertFalse(shapeManager.select(50, 0, 2));
+    }
+
+    @Test
+    public void isHit_followsOffset() {
+        final ShapeLine line = new ShapeLine(0, 0, STYLE);
+        line.setPoint(100, 0);
+        line.translate(0, 50);  // 座標は書き換えずに移動する
+        assertEquals(0, line.getY(), 0);
+        assertFalse(ShapeHitTester.isHit(line, 50, 0, 1));
+        assertTrue(ShapeHitTester.isHit(line, 50, 50, 1));
+
+        final ShapeBase copy = line.copyWithOffset();
+        copy.translate(10, 0);
+        line.applyOffset();  // 移動量を座標に反映する
+        assertFalse(line.hasOffset());
+        assertEquals(50, line.getY(), 0);
+        assertTrue(ShapeHitTester.isHit(line, 50, 50, 1));
+        assertTrue(ShapeHitTester.isHit(copy, 105, 50, 1));
+        assertFalse(ShapeHitTester.isHit(copy, 5, 50, 1));
+    }
+
+    @Ignore("計測用 (必要な時に手動で実行する)")
+    @Test
+    public void benchmark_100k() {
+        final int n = 100000;
+        final int queryCount = 10000;
+        final Random random = new Random(n);
+        final List<ShapeBase> shapes = createShapes(random, n);
+        final ShapeHitTester hitTester = new ShapeHitTester(createIndex(shapes));
+
+        final long start = System.nanoTime();
+        int hitCount = 0;
+        for (int i = 0; i < queryCount; i++) {
+            if (hitTester.hitTest(random.nextFloat() * WORLD_SIZE, random.nextFloat() * WORLD_SIZE, 8) != null)
+                hitCount++;
+        }
+        final long time = System.nanoTime() - start;
+
+        final double perQuery = time / 1e3 / queryCount;
+        System.out.printf("ShapeHitTester n=%d: %.2f us/query, hit %d/%d%n", n, perQuery, hitCount, queryCount);
+    }
+
+    /**
+     * 線、矩形、円、折れ線をランダムに作成する (描画順は作成順)
+     */
+    private static List<ShapeBase> createShapes(Random random, int n) {
+        final List<ShapeBase> shapes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final float x = random.nextFloat() * WORLD_SIZE;
+            final float y = random.nextFloat() * WORLD_SIZE;
+            float dx = random.nextFloat() * MAX_SHAPE_SIZE;
+            final float dy = random.nextFloat() * MAX_SHAPE_SIZE;
+            final ShapeBase shape;
+            switch (i % 4) {
+                case 0:
+                    shape = new ShapeLine(x, y, STYLE);
+                    break;
+                case 1:
+                    shape = new ShapeRect(x, y, STYLE);
+                    break;
+                case 2:
+                    shape = new ShapePolyline(x, y, STYLE);
+                    shape.addPoint(x + random.nextFloat() * MAX_SHAPE_SIZE, y);
+                    break;
+                default:
+                    shape = new ShapeCircle(x, y, STYLE);
+                    dx /= 2;
+                    break;
+            }
+            shape.setPoint(x + dx, y + dy);
+            shape.setZOrder(i);
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    /**
+     * 図形の描画範囲 (線の太さを含む)で空間インデックスを作る
+     */
+    private static RTree<ShapeBase> createIndex(List<ShapeBase> shapes) {
+        final RTree<ShapeBase> tree = new RTree<>();
+        final RectF bounds = new RectF();
+        for (ShapeBase shape : shapes) {
+            shape.getBounds(bounds);
+            tree.insert(shape, bounds.left, bounds.top, bounds.right, bounds.bottom);
+        }
+        return tree;
+    }
+
+    private static ShapeBase linearHitTest(List<ShapeBase> shapes, float x, float y, float tolerance) {
+        ShapeBase hit = null;
+        for (ShapeBase shape : shapes) {
+            if (ShapeHitTester.isHit(shape, x, y, tolerance) && (hit == null || shape.getZOrder() > hit.getZOrder()))
+                hit = shape;
+        }
+        return hit;
+    }
+}
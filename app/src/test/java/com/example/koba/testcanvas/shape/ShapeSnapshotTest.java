@@ -0,0 +1,183 @@
+package com.example.koba.testcanvas.shape;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 描画内容 (ShapeSnapshot)の作成後に図形を変更しても、描画内容の図形が変更されないことを確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeSnapshotTest {
+    /** 直線 (ShapeManagerでの番号) */
+    private static final int LINE = 0;
+    /** 円弧 (ShapeManagerでの番号) */
+    private static final int ARC = 3;
+    /** 折れ線 (ShapeManagerでの番号) */
+    private static final int POLYLINE = 5;
+
+    private ShapeManager shapeManager;
+
+    @Before
+    public void setUp() {
+        shapeManager = new ShapeManager();
+        shapeManager.setSize(1080, 1920);
+        shapeManager.setShape(POLYLINE);
+        shapeManager.start(0, 0);
+        shapeManager.move(10, 10);
+    }
+
+    @Test
+    public void createSnapshot_editDoesNotChangeActiveShape() {
+        final ShapeBase drawn = snapshot(false, false).activeShape;
+        assertNotNull(drawn);
+        final int size = drawn.estimateByteSize();
+
+        // 折れ線の描画を続ける (頂点を追加する)
+        shapeManager.start(20, 20);
+        shapeManager.move(30, 30);
+
+        assertEquals(size, drawn.estimateByteSize());
+        final ShapeBase current = snapshot(false, false).activeShape;
+        assertNotSame(drawn, current);
+        assertTrue(current.estimateByteSize() > size);
+    }
+
+    @Test
+    public void createSnapshot_reusesActiveShapeCopy() throws IOException {
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        shapeManager.createSnapshot(snapshot, false, false);
+        final ShapeBase drawn = snapshot.activeShape;
+
+        // 再利用する描画内容では、操作の対象の図形の複製も再利用する
+        shapeManager.start(20, 20);
+        shapeManager.move(30, 40);
+        shapeManager.createSnapshot(snapshot, false, false);
+        assertSame(drawn, snapshot.activeShape);
+        assertArrayEquals(toData(snapshot(false, false).activeShape), toData(drawn));
+        assertEquals(64 + 2 * 2 * 4, drawn.estimateByteSize());  // 始点以降の2点
+    }
+
+    @Test
+    public void createSnapshot_keepsArcDrawingState() throws IOException {
+        // 描画のたびに描画内容を作成しても、作成しない場合と同じ円弧になる
+        final ShapeManager withSnapshots = new ShapeManager();
+        final ShapeManager withoutSnapshots = new ShapeManager();
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        for (ShapeManager manager : new ShapeManager[] {withSnapshots, withoutSnapshots}) {
+            manager.setSize(1080, 1920);
+            manager.setShape(ARC);
+        }
+        withSnapshots.start(0, 0);
+        withoutSnapshots.start(0, 0);
+        withSnapshots.createSnapshot(snapshot, false, false);
+        withSnapshots.move(50, 0);
+        withoutSnapshots.move(50, 0);
+        withSnapshots.createSnapshot(snapshot, false, false);
+        withSnapshots.move(100, 0);  // 端点の変更
+        withoutSnapshots.move(100, 0);
+        withSnapshots.fix();
+        withoutSnapshots.fix();
+        withSnapshots.createSnapshot(snapshot, false, false);
+        assertArrayEquals(toData(activeShape(withoutSnapshots)), toData(snapshot.activeShape));
+
+        withSnapshots.start(50, 50);  // 弧のサイズの変更
+        withoutSnapshots.start(50, 50);
+        withSnapshots.createSnapshot(snapshot, false, false);
+        withSnapshots.move(50, 40);
+        withoutSnapshots.move(50, 40);
+        withSnapshots.createSnapshot(snapshot, false, false);
+        assertArrayEquals(toData(activeShape(withoutSnapshots)), toData(snapshot.activeShape));
+    }
+
+    @Test
+    public void undo_doesNotChangeSnapshotShapes() {
+        shapeManager.start(20, 20);  // 点の追加 (AddPoint)
+        shapeManager.fix();
+        final ShapeBase drawn = snapshot(false, false).activeShape;
+        final int size = drawn.estimateByteSize();
+
+        assertTrue(shapeManager.undo());  // 追加した点を削除する
+        assertEquals(size, drawn.estimateByteSize());
+        assertTrue(snapshot(false, false).activeShape.estimateByteSize() < size);
+    }
+
+    @Test
+    public void redo_doesNotChangeSnapshotShapes() {
+        shapeManager.fix();
+        assertTrue(shapeManager.undo());  // 図形の追加を取り消す
+        final ShapeSnapshot created = snapshot(true, false);
+        assertEquals(1, created.undoShapes.size());
+        final ShapeBase undone = created.undoShapes.get(0);
+        final int zOrder = undone.getZOrder();
+
+        assertTrue(shapeManager.redo());
+        assertNotNull(snapshot(true, false).activeShape);
+        // 描画内容が参照している図形は複製して置き換える
+        assertNotSame(undone, undone.getLatest());
+        assertEquals(zOrder, undone.getZOrder());
+    }
+
+    @Test
+    public void createSnapshot_unchangedShapeIsShared() {
+        shapeManager.fix();
+        shapeManager.setShape(LINE);
+        shapeManager.start(100, 100);
+        shapeManager.move(200, 200);
+        final ShapeSnapshot first = snapshot(false, false);
+        shapeManager.move(300, 300);
+        final ShapeSnapshot second = snapshot(false, false);
+        // 変更していない図形は複製しない
+        assertEquals(1, first.committedShapes.size());
+        assertSame(first.committedShapes.get(0), second.committedShapes.get(0));
+    }
+
+    @Test
+    public void createSnapshot_replacesReusedContents() {
+        shapeManager.fix();
+        shapeManager.undo();
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        shapeManager.createSnapshot(snapshot, true, false);
+        assertEquals(1, snapshot.undoShapes.size());
+        assertNull(snapshot.activeShape);
+
+        // 再利用時は以前の内容を残さない
+        shapeManager.redo();
+        shapeManager.createSnapshot(snapshot, true, false);
+        assertTrue(snapshot.undoShapes.isEmpty());
+        assertNotNull(snapshot.activeShape);
+        assertFalse(snapshot.selecting);
+        assertFalse(snapshot.predicting);
+    }
+
+    /**
+     * 操作の対象の図形を返す (描画内容の複製)
+     */
+    private static ShapeBase activeShape(ShapeManager manager) {
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        manager.createSnapshot(snapshot, false, false);
+        return snapshot.activeShape;
+    }
+
+    /**
+     * 図形の形状を比較用に書き込む (内部データ形式)
+     */
+    private static byte[] toData(ShapeBase shape) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        shape.writeData(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private ShapeSnapshot snapshot(boolean showUndo, boolean highlight) {
+        final ShapeSnapshot snapshot = new ShapeSnapshot();
+        shapeManager.createSnapshot(snapshot, showUndo, highlight);
+        return snapshot;
+    }
+}
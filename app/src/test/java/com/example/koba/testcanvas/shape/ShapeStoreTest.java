@@ -0,0 +1,99 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShapeStoreの添字、ハンドルによる参照と保存、読み込みを確認する
+ */
+public class ShapeStoreTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(1, 12, 0xff000000, Paint.Style.STROKE);
+
+    private static List<ShapeBase> createShapes(int n) {
+        final List<ShapeBase> shapes = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            shapes.add(new ShapeLine(i, i, STYLE));
+        return shapes;
+    }
+
+    @Test
+    public void addAndRemoveLast_keepOrder() {
+        final List<ShapeBase> shapes = createShapes(100);
+        final ShapeStore store = new ShapeStore();
+        for (ShapeBase shape : shapes)
+            store.add(shape);
+        assertEquals(100, store.size());
+        assertSame(shapes.get(99), store.getLast());
+        for (int i = 0; i < shapes.size(); i++)
+            assertSame(shapes.get(i), store.get(i));
+
+        assertSame(shapes.get(99), store.removeLast());
+        assertSame(shapes.get(98), store.getLast());
+        assertEquals(99, store.size());
+    }
+
+    @Test
+    public void handles_surviveReordering() {
+        final List<ShapeBase> shapes = createShapes(10);
+        final ShapeStore store = new ShapeStore();
+        final int[] handles = new int[shapes.size()];
+        for (int i = 0; i < shapes.size(); i++)
+            handles[i] = store.add(shapes.get(i));
+
+        store.move(2, 7);
+        store.move(9, 0);
+        assertEquals(5, store.indexOf(handles[5]));  // 9, 0, 1, 3, 4, 5 ...の順
+        assertSame(shapes.get(5), store.remove(5));
+        assertNull(store.getByHandle(handles[5]));
+        assertEquals(-1, store.indexOf(handles[5]));
+
+        for (int i = 0; i < shapes.size(); i++) {
+            if (i == 5)
+                continue;
+            final int index = store.indexOf(handles[i]);
+            assertSame(shapes.get(i), store.get(index));
+            assertEquals(handles[i], store.handleAt(index));
+            assertSame(shapes.get(i), store.getByHandle(handles[i]));
+        }
+
+        store.removeLast();
+        final int handle = store.add(shapes.get(5));
+        for (int h : handles)
+            assertTrue(handle != h);  // ハンドルは再利用しない
+    }
+
+    @Test
+    public void serialize_restoresShapes() throws Exception {
+        final ShapeStore store = new ShapeStore();
+        for (ShapeBase shape : createShapes(20))
+            store.add(shape);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.writeObject(new LinkedList<>(createShapes(3)));  // 以前の形式
+        out.close();
+
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final ShapeStore restored = ShapeStore.fromSerialized(in.readObject());
+        assertEquals(20, restored.size());
+        for (int i = 0; i < restored.size(); i++)
+            assertEquals(i, restored.get(i).getX(), 0);
+        assertEquals(restored.size() - 1, restored.indexOf(restored.handleAt(restored.size() - 1)));
+
+        final ShapeStore old = ShapeStore.fromSerialized(in.readObject());
+        assertEquals(3, old.size());
+        assertEquals(2, old.getLast().getX(), 0);
+    }
+}
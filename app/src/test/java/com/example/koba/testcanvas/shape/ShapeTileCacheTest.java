@@ -0,0 +1,159 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * タイルの拡大率とキー、メモリ使用量の上限を超えた場合のタイルの破棄を確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeTileCacheTest {
+    /** 拡大率が1の場合のタイルの一辺 (図形の座標) */
+    private static final float TILE = 256;
+
+    private ShapeTileCache cache;
+    private Canvas canvas;
+    /** 描画したタイルの左上 (図形の座標) */
+    private final ArrayList<float[]> rendered = new ArrayList<>();
+    /** 描画したタイルの拡大率 */
+    private final ArrayList<Float> renderedScales = new ArrayList<>();
+    private final ShapeTileCache.Renderer renderer = new ShapeTileCache.Renderer() {
+        @Override
+        public void render(Canvas canvas, float left, float top, float right, float bottom, float scale) {
+            rendered.add(new float[]{left, top});
+            renderedScales.add(scale);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        cache = new ShapeTileCache();
+        canvas = new Canvas();
+    }
+
+    @Test
+    public void levelFor_neverUpscalesTiles() {
+        assertEquals(0, ShapeTileCache.levelFor(1f));
+        assertEquals(1, ShapeTileCache.levelFor(2f));
+        assertEquals(2, ShapeTileCache.levelFor(4f));
+        assertEquals(-1, ShapeTileCache.levelFor(0.5f));
+        // 2の累乗でない場合、拡大率以上の2の累乗とする
+        assertEquals(1, ShapeTileCache.levelFor(1.1f));
+        assertEquals(1, ShapeTileCache.levelFor(1.5f));
+        assertEquals(2, ShapeTileCache.levelFor(3f));
+        assertEquals(0, ShapeTileCache.levelFor(0.75f));
+        assertEquals(-1, ShapeTileCache.levelFor(0.3f));
+    }
+
+    @Test
+    public void draw_rendersAtLevelScale() {
+        cache.draw(canvas, new RectF(10, 10, 20, 20), 1.5f, renderer);
+        assertEquals(1, rendered.size());
+        assertEquals(2f, renderedScales.get(0), 0f);
+
+        rendered.clear();
+        renderedScales.clear();
+        cache.draw(canvas, new RectF(10, 10, 20, 20), 0.75f, renderer);
+        assertEquals(1, rendered.size());
+        assertEquals(1f, renderedScales.get(0), 0f);
+    }
+
+    @Test
+    public void toKey_isUniquePerTile() {
+        final long[] keys = {
+                ShapeTileCache.toKey(0, 0, 0),
+                ShapeTileCache.toKey(0, 1, 0),
+                ShapeTileCache.toKey(0, 0, 1),
+                ShapeTileCache.toKey(0, -1, 0),
+                ShapeTileCache.toKey(0, 0, -1),
+                ShapeTileCache.toKey(0, -1, -1),
+                ShapeTileCache.toKey(1, 0, 0),
+                ShapeTileCache.toKey(-1, 0, 0),
+                ShapeTileCache.toKey(-1, -1, -1),
+        };
+        for (int i = 0; i < keys.length; i++) {
+            for (int j = i + 1; j < keys.length; j++)
+                assertNotEquals("keys " + i + " and " + j, keys[i], keys[j]);
+        }
+        assertEquals(ShapeTileCache.toKey(3, -5, 7), ShapeTileCache.toKey(3, -5, 7));
+    }
+
+    @Test
+    public void draw_reusesValidTiles() {
+        drawTile(0, 0);
+        drawTile(-1, -1);
+        assertEquals(2, rendered.size());
+        assertArrayEquals(new float[]{-TILE, -TILE}, rendered.get(1), 0f);
+
+        rendered.clear();
+        drawTile(0, 0);
+        drawTile(-1, -1);
+        assertTrue(rendered.isEmpty());
+    }
+
+    @Test
+    public void draw_evictsLeastRecentlyUsedTile() {
+        cache.setMemoryBudget(ShapeTileCache.TILE_BYTES * 3);
+        drawTile(0, 0);
+        drawTile(1, 0);
+        drawTile(2, 0);
+        drawTile(0, 0);  // (1, 0)が最も長く使われていないタイルとなる
+        rendered.clear();
+
+        drawTile(3, 0);
+        assertEquals(1, rendered.size());
+        rendered.clear();
+
+        drawTile(0, 0);
+        drawTile(2, 0);
+        drawTile(3, 0);
+        assertTrue(rendered.isEmpty());
+
+        drawTile(1, 0);
+        assertEquals(1, rendered.size());
+        assertArrayEquals(new float[]{TILE, 0}, rendered.get(0), 0f);
+    }
+
+    @Test
+    public void draw_keepsTilesOfCurrentFrameOverBudget() {
+        cache.setMemoryBudget(ShapeTileCache.TILE_BYTES);
+        // 2枚のタイルにまたがる範囲
+        final RectF visibleRect = new RectF(10, 10, TILE + 10, 20);
+        cache.draw(canvas, visibleRect, 1f, renderer);
+        assertEquals(2, rendered.size());
+
+        rendered.clear();
+        cache.draw(canvas, visibleRect, 1f, renderer);
+        assertTrue(rendered.isEmpty());
+    }
+
+    @Test
+    public void invalidate_rendersOnlyIntersectingTiles() {
+        drawTile(0, 0);
+        drawTile(2, 0);
+        rendered.clear();
+
+        cache.invalidate(new RectF(10, 10, 20, 20));
+        drawTile(0, 0);
+        drawTile(2, 0);
+        assertEquals(1, rendered.size());
+        assertArrayEquals(new float[]{0, 0}, rendered.get(0), 0f);
+    }
+
+    /**
+     * 拡大率1で、指定の位置のタイル1枚のみを表示する
+     */
+    private void drawTile(int tx, int ty) {
+        final RectF visibleRect = new RectF(tx * TILE + 10, ty * TILE + 10, tx * TILE + 20, ty * TILE + 20);
+        cache.draw(canvas, visibleRect, 1f, renderer);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.koba.testcanvas.shape;
+
+import android.graphics.Paint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShapeVectorの変更と取り出した並びの不変性、文書のスナップショットを確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ShapeVectorTest {
+    private static final ShapeStyle STYLE = new ShapeStyle(1, 12, 0xff000000, Paint.Style.STROKE);
+
+    private static void assertSameShapes(List<ShapeBase> expected, ShapeVector actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertSame(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void builder_matchesListAndSnapshotsStayUnchanged() {
+        final Random random = new Random(1);
+        final ShapeVector.Builder builder = new ShapeVector.Builder();
+        final List<ShapeBase> list = new ArrayList<>();
+        final List<List<ShapeBase>> expectedSnapshots = new ArrayList<>();
+        final List<ShapeVector> snapshots = new ArrayList<>();
+
+        // 木の高さが3段になるまで追加し、途中で削除と変更も行う
+        for (int i = 0; i < 40000; i++) {
+            final int op = random.nextInt(10);
+            if (op < 6 || list.isEmpty()) {
+                final ShapeBase shape = new ShapeLine(i, i, STYLE);
+                builder.add(shape);
+                list.add(shape);
+            } else if (op < 8) {
+                builder.removeLast();
+                list.remove(list.size() - 1);
+            } else {
+                final int index = random.nextInt(list.size());
+                final ShapeBase shape = new ShapeLine(i, -i, STYLE);
+                builder.set(index, shape);
+                list.set(index, shape);
+            }
+            if (i % 997 == 0) {
+                snapshots.add(builder.snapshot());
+                expectedSnapshots.add(new ArrayList<>(list));
+            }
+        }
+
+        assertEquals(list.size(), builder.size());
+        for (int i = 0; i < list.size(); i++)
+            assertSame(list.get(i), builder.get(i));
+        assertSameShapes(list, builder.snapshot());
+        for (int i = 0; i < snapshots.size(); i++)
+            assertSameShapes(expectedSnapshots.get(i), snapshots.get(i));
+    }
+
+    @Test
+    public void builder_removeAllAfterSnapshot() {
+        final ShapeVector.Builder builder = new ShapeVector.Builder();
+        final List<ShapeBase> list = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final ShapeBase shape = new ShapeLine(i, i, STYLE);
+            builder.add(shape);
+            list.add(shape);
+        }
+        final ShapeVector snapshot = builder.snapshot();
+        while (builder.size() > 0)
+            builder.removeLast();
+        assertSameShapes(list, snapshot);
+
+        builder.add(list.get(0));
+        assertSame(list.get(0), builder.get(0));
+        assertTrue(ShapeVector.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void documentSnapshot_unchangedByLaterEdits() throws IOException {
+        final ShapeManager shapeManager = new ShapeManager();
+        shapeManager.setShape(0);  // 直線
+        shapeManager.start(10, 10);
+        shapeManager.move(50, 50);
+        shapeManager.fix();
+        shapeManager.start(200, 200);
+        shapeManager.move(300, 300);
+        shapeManager.fix();
+
+        final DocumentSnapshot snapshot = shapeManager.createDocumentSnapshot();
+        // 最新の図形を移動してID属性を設定し、図形の追加を取り消す
+        shapeManager.preTransfer(0, 0);
+        shapeManager.transfer(100, 0);
+        shapeManager.setAttrId("moved");
+        shapeManager.start(400, 400);
+        shapeManager.fix();
+        shapeManager.undo();
+        assertEquals(2, snapshot.getShapeCount());
+
+        final ShapeStore saved = save(snapshot);
+        assertEquals(2, saved.size());
+        assertEquals(200, saved.get(1).getX(), 1e-4);
+        assertNull(saved.get(1).getAttrId());
+        snapshot.release();
+
+        // 現在の図形は変更されている (移動量は保存時に反映される)
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        shapeManager.saveInnerData(new DataOutputStream(bytes));
+        final ShapeStore current = read(bytes.toByteArray());
+        assertEquals(2, current.size());
+        assertEquals(300, current.get(1).getX(), 1e-4);
+        assertEquals("moved", current.get(1).getAttrId());
+    }
+
+    @Test
+    public void documentSnapshot_appliesOffsetsWhenCreated() throws IOException {
+        final ShapeManager shapeManager = new ShapeManager();
+        shapeManager.setGeometryArenaEnabled(true);
+        shapeManager.setShape(5);  // 折れ線
+        shapeManager.start(10, 10);
+        shapeManager.move(50, 50);
+        shapeManager.fix();
+        shapeManager.preTransfer(0, 0);
+        shapeManager.transfer(100, 0);
+        final ShapeSnapshot moved = new ShapeSnapshot();
+        shapeManager.createSnapshot(moved, false, false);
+        assertTrue(moved.activeShape.hasOffset());
+
+        // 他のスレッドで複製しないように、作成時に移動量を座標に反映する
+        final DocumentSnapshot snapshot = shapeManager.createDocumentSnapshot();
+        final ShapeSnapshot current = new ShapeSnapshot();
+        shapeManager.createSnapshot(current, false, false);
+        final ShapeBase baked = current.activeShape;
+        assertFalse(baked.hasOffset());
+        assertSame(baked, baked.toBaked());
+
+        // 作成後の移動、点の追加はスナップショットに反映されない
+        shapeManager.preTransfer(0, 0);
+        shapeManager.transfer(0, 100);
+        shapeManager.setShape(5);
+        shapeManager.start(500, 500);
+        shapeManager.fix();
+        final ShapeStore saved = save(snapshot);
+        snapshot.release();
+        assertEquals(1, saved.size());
+        assertEquals(110, saved.get(0).getX(), 1e-4);
+        assertEquals(10, saved.get(0).getY(), 1e-4);
+        assertEquals(64 + 2 * 4, saved.get(0).estimateByteSize());
+    }
+
+    private static ShapeStore save(DocumentSnapshot snapshot) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.saveInnerData(new DataOutputStream(bytes));
+        return read(bytes.toByteArray());
+    }
+
+    private static ShapeStore read(byte[] data) throws IOException {
+        return ShapeCodec.read(ByteBuffer.wrap(data), new ShapeStyleTable()).shapes;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.koba.testcanvas.shape;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * SVGファイルの読み込みが、既存の図形と履歴を変えずに1回の操作として記録されることを確認する
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SvgReadTest {
+    /** 直線 (ShapeManagerでの番号) */
+    private static final int LINE = 0;
+    private static final String SVG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100\" height=\"100\">"
+            + "<rect x=\"10\" y=\"10\" width=\"20\" height=\"20\" fill=\"none\" stroke=\"#ff0000\" stroke-width=\"2\"/>"
+            + "<circle cx=\"50\" cy=\"50\" r=\"10\" fill=\"none\" stroke=\"#0000ff\" stroke-width=\"2\"/>"
+            + "</svg>";
+
+    private ShapeManager shapeManager;
+
+    @Before
+    public void setUp() {
+        shapeManager = new ShapeManager();
+        shapeManager.setSize(1080, 1920);
+        shapeManager.setShape(LINE);
+        shapeManager.start(0, 0);
+        shapeManager.move(10, 10);
+        shapeManager.fix();
+    }
+
+    @Test
+    public void read_isUndoneAsOneEdit() {
+        assertTrue(read());
+        assertEquals(1, count("<line"));
+        assertEquals(1, count("<rect"));
+        assertEquals(1, count("<circle"));
+
+        // 読み込んだ図形のみ取り消す (描画した直線は残す)
+        assertTrue(shapeManager.undo());
+        assertEquals(1, count("<line"));
+        assertEquals(0, count("<rect"));
+        assertEquals(0, count("<circle"));
+
+        assertTrue(shapeManager.undo());
+        assertEquals(0, count("<line"));
+
+        assertTrue(shapeManager.redo());
+        assertTrue(shapeManager.redo());
+        assertEquals(1, count("<line"));
+        assertEquals(1, count("<rect"));
+        assertEquals(1, count("<circle"));
+        assertFalse(shapeManager.canRedo());
+    }
+
+    @Test
+    public void read_keepsRedoOfEarlierEditsConsistent() {
+        shapeManager.undo();  // 描画した直線を取り消す
+        assertTrue(read());
+        // 読み込みは新しい操作のため、取り消した直線には進めない
+        assertFalse(shapeManager.canRedo());
+        assertTrue(shapeManager.undo());
+        assertEquals(0, count("<rect"));
+        assertEquals(0, count("<line"));
+    }
+
+    private boolean read() {
+        return shapeManager.read(new ByteArrayInputStream(SVG.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * SVGとして出力し、指定の要素の数を返す
+     * @param element 要素の開始タグの先頭
+     * @return 数
+     */
+    private int count(String element) {
+        final StringWriter writer = new StringWriter();
+        assertTrue(shapeManager.writeTo(writer));
+        final String svg = writer.toString();
+        int count = 0;
+        for (int index = svg.indexOf(element); index >= 0; index = svg.indexOf(element, index + 1))
+            count++;
+        return count;
+    }
+}